@@ -0,0 +1,70 @@
+package org.moon.figura.benchmark;
+
+import com.mojang.blaze3d.vertex.VertexConsumer;
+
+/**
+ * Takes the vertices without storing them, so only the transformation is measured.
+ * Everything is summed up, so the JIT can't drop the work that produced them.
+ */
+public class CountingVertexConsumer implements VertexConsumer {
+
+    public int vertices;
+    public double sum;
+
+    public void reset() {
+        vertices = 0;
+        sum = 0;
+    }
+
+    @Override
+    public void vertex(float x, float y, float z, float red, float green, float blue, float alpha, float u, float v, int overlay, int light, float normalX, float normalY, float normalZ) {
+        vertices++;
+        sum += x + y + z + u + v + normalX + normalY + normalZ;
+    }
+
+    @Override
+    public VertexConsumer vertex(double x, double y, double z) {
+        vertices++;
+        sum += x + y + z;
+        return this;
+    }
+
+    @Override
+    public VertexConsumer color(int red, int green, int blue, int alpha) {
+        return this;
+    }
+
+    @Override
+    public VertexConsumer uv(float u, float v) {
+        sum += u + v;
+        return this;
+    }
+
+    @Override
+    public VertexConsumer overlayCoords(int u, int v) {
+        return this;
+    }
+
+    @Override
+    public VertexConsumer uv2(int u, int v) {
+        return this;
+    }
+
+    @Override
+    public VertexConsumer normal(float x, float y, float z) {
+        sum += x + y + z;
+        return this;
+    }
+
+    @Override
+    public void endVertex() {
+    }
+
+    @Override
+    public void defaultColor(int red, int green, int blue, int alpha) {
+    }
+
+    @Override
+    public void unsetDefaultColor() {
+    }
+}
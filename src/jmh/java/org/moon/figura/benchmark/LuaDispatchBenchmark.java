@@ -0,0 +1,114 @@
+package org.moon.figura.benchmark;
+
+import org.moon.figura.lua.FiguraConverter;
+import org.moon.figura.lua.FiguraJavaReflector;
+import org.moon.figura.lua.api.math.VectorsAPI;
+import org.openjdk.jmh.annotations.*;
+import org.terasology.jnlua.LuaState;
+import org.terasology.jnlua.LuaState53;
+import org.terasology.jnlua.NativeSupport;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Calls from Lua into the java objects, the same way scripts do: methods, field reads and metamethods on vectors.
+ * The state is set up like FiguraLuaState, with its reflector and converter, but without an avatar or the game.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LuaDispatchBenchmark {
+
+    //calls per invocation, so the cost of getting into Lua is spread out
+    private static final int CALLS = 1000;
+
+    private static final String SCRIPT = """
+            local a = vectors.vec3(1, 2, 3)
+            local b = vectors.vec3(4, 5, 6)
+            function methods(n)
+                local s = 0
+                for i = 1, n do s = s + a:dot(b) + a:length() end
+                return s
+            end
+            function fields(n)
+                local s = 0
+                for i = 1, n do s = s + a.x + b.y end
+                return s
+            end
+            function metamethods(n)
+                local v
+                for i = 1, n do v = a + b end
+                return v.x
+            end
+            """;
+
+    private LuaState state;
+
+    @Setup
+    public void setup() throws Exception {
+        loadNatives();
+
+        state = new LuaState53();
+        state.setJavaReflector(FiguraJavaReflector.INSTANCE);
+        state.setConverter(FiguraConverter.INSTANCE);
+        state.openLib(LuaState.Library.BASE);
+        state.pop(1);
+
+        state.pushJavaObject(VectorsAPI.INSTANCE);
+        state.setGlobal("vectors");
+
+        state.load(SCRIPT, "benchmark");
+        state.call(0, 0);
+    }
+
+    @TearDown
+    public void tearDown() {
+        state.close();
+    }
+
+    //LuaUtils.setupNativesForLua puts them in the game folder, so they are copied somewhere temporary instead
+    private static void loadNatives() throws Exception {
+        Path natives = Files.createTempFile("jnlua", ".so");
+        natives.toFile().deleteOnExit();
+        try (InputStream stream = LuaDispatchBenchmark.class.getResourceAsStream("/assets/figura/lua/natives/libjnlua-5.3-linux-amd64.so")) {
+            if (stream == null)
+                throw new IllegalStateException("Cannot read natives from resources");
+            Files.copy(stream, natives, StandardCopyOption.REPLACE_EXISTING);
+        }
+        NativeSupport.loadLocation = natives.toString();
+    }
+
+    private double run(String function) {
+        state.getGlobal(function);
+        state.pushInteger(CALLS);
+        state.call(1, 1);
+        double result = state.toNumber(-1);
+        state.pop(1);
+        return result;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CALLS)
+    public double methods() {
+        return run("methods");
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CALLS)
+    public double fields() {
+        return run("fields");
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CALLS)
+    public double metamethods() {
+        return run("metamethods");
+    }
+}
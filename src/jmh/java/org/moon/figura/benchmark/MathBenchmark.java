@@ -0,0 +1,70 @@
+package org.moon.figura.benchmark;
+
+import org.moon.figura.math.matrix.FiguraMat3;
+import org.moon.figura.math.matrix.FiguraMat4;
+import org.moon.figura.math.vector.FiguraVec3;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The matrix and vector operations the renderer and the scripts use the most, on objects kept between calls and from the pools.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MathBenchmark {
+
+    private final FiguraMat4 base = FiguraMat4.of();
+    private final FiguraMat4 transform = FiguraMat4.of();
+    private final FiguraMat4 result = FiguraMat4.of();
+    private final FiguraMat3 normal = FiguraMat3.of();
+    private final FiguraVec3 vec = FiguraVec3.of();
+    private final FiguraVec3 other = FiguraVec3.of(0.5, -2, 3);
+
+    @Setup
+    public void setup() {
+        base.rotateZYX(30, 45, 60);
+        base.translate(1, 2, 3);
+        transform.scale(1, 2, 1);
+        transform.rotateY(90);
+        transform.translate(-4, 0, 8);
+        normal.rotateX(45);
+    }
+
+    @Benchmark
+    public FiguraMat4 mat4Multiply() {
+        result.set(base);
+        result.multiply(transform);
+        return result;
+    }
+
+    @Benchmark
+    public FiguraMat4 mat4Invert() {
+        result.set(base);
+        result.multiply(transform);
+        result.invert();
+        return result;
+    }
+
+    @Benchmark
+    public double vec3Arithmetic() {
+        vec.set(1, 2, 3);
+        vec.multiply(normal);
+        vec.add(other);
+        vec.cross(other);
+        return vec.dot(other);
+    }
+
+    @Benchmark
+    public double vec3Pooled() {
+        FiguraVec3 v = FiguraVec3.of(1, 2, 3);
+        v.add(other);
+        double length = v.lengthSquared();
+        v.free();
+        return length;
+    }
+}
@@ -0,0 +1,66 @@
+package org.moon.figura.benchmark;
+
+import net.minecraft.nbt.CompoundTag;
+import org.moon.figura.avatars.model.FiguraModelPart;
+import org.moon.figura.avatars.model.rendering.FiguraImmediateBuffer;
+import org.moon.figura.avatars.model.rendering.texture.FiguraTextureSet;
+import org.moon.figura.parsers.BlockbenchModel;
+import org.moon.figura.parsers.BlockbenchModelParser;
+import org.moon.figura.parsers.BlockbenchModelReader;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading a model: reading the .bbmodel json, converting it to nbt, and building the parts and their vertices from the nbt.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ModelLoadBenchmark {
+
+    @Param({"SMALL", "MEDIUM", "LARGE"})
+    public SyntheticModels.Size size;
+
+    private String json;
+    private BlockbenchModel model;
+    private CompoundTag models;
+    private final List<FiguraTextureSet> textureSets = new ArrayList<>();
+
+    @Setup
+    public void setup() throws IOException {
+        json = SyntheticModels.bbmodel(size);
+        model = BlockbenchModelReader.read(new StringReader(json));
+
+        BlockbenchModelParser.ModelData data = new BlockbenchModelParser().parseModel(model, "synthetic");
+        models = SyntheticModels.toModels(data);
+        for (CompoundTag texture : data.textureList())
+            textureSets.add(new FiguraTextureSet(texture.getString("name"), texture.getByteArray("default"), null));
+    }
+
+    @Benchmark
+    public BlockbenchModel readModel() throws IOException {
+        return BlockbenchModelReader.read(new StringReader(json));
+    }
+
+    @Benchmark
+    public BlockbenchModelParser.ModelData parseModel() {
+        return new BlockbenchModelParser().parseModel(model, "synthetic");
+    }
+
+    @Benchmark
+    public void readParts(Blackhole blackhole) {
+        List<FiguraImmediateBuffer.Builder> builders = new ArrayList<>();
+        FiguraModelPart root = FiguraModelPart.read(models, builders, textureSets);
+        blackhole.consume(root);
+        blackhole.consume(builders);
+    }
+}
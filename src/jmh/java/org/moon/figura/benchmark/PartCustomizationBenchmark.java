@@ -0,0 +1,62 @@
+package org.moon.figura.benchmark;
+
+import org.moon.figura.avatars.model.PartCustomization;
+import org.moon.figura.math.matrix.FiguraMat4;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The per part work of every frame: rebuilding the matrices of a part, and carrying them down the tree through the stack.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PartCustomizationBenchmark {
+
+    //about as deep as a player model gets, root to fingertip
+    private static final int DEPTH = 8;
+
+    private PartCustomization customization;
+    private final PartCustomization[] chain = new PartCustomization[DEPTH];
+    private final PartCustomization.Stack stack = new PartCustomization.Stack();
+    private double angle;
+
+    @Setup
+    public void setup() {
+        customization = PartCustomization.of();
+        customization.setPivot(4, 12, 2);
+        customization.setPos(1, 0, 0);
+        customization.setScale(1, 1.5, 1);
+
+        for (int i = 0; i < DEPTH; i++) {
+            PartCustomization part = PartCustomization.of();
+            part.setPivot(0, i * 4, 0);
+            part.setRot(i * 10, i * 5, 0);
+            part.recalculate();
+            chain[i] = part;
+        }
+    }
+
+    @Benchmark
+    public FiguraMat4 recalculate() {
+        //a new rotation every time, as scripts and animations do
+        angle += 1;
+        customization.setRot(angle, angle * 0.5, 0);
+        customization.recalculate();
+        return customization.positionMatrix;
+    }
+
+    @Benchmark
+    public FiguraMat4 pushPop() {
+        for (PartCustomization part : chain)
+            stack.push(part);
+        FiguraMat4 top = stack.peek().positionMatrix;
+        for (int i = 0; i < DEPTH; i++)
+            stack.pop();
+        return top;
+    }
+}
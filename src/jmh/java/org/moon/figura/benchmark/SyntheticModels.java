@@ -0,0 +1,144 @@
+package org.moon.figura.benchmark;
+
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.ListTag;
+import org.moon.figura.parsers.BlockbenchModelParser;
+
+/**
+ * Generates .bbmodel files of any size, so the benchmarks don't depend on real avatars.
+ * The models are groups of cubes with a few meshes in between, all using one small texture,
+ * and with faces of different sizes so every detail level has something to leave out.
+ */
+public class SyntheticModels {
+
+    public enum Size {
+        SMALL(64),
+        MEDIUM(1024),
+        LARGE(8192);
+
+        public final int elements;
+
+        Size(int elements) {
+            this.elements = elements;
+        }
+    }
+
+    //elements per group, and groups per parent group
+    private static final int GROUP_SIZE = 16;
+    private static final int GROUPS_PER_PARENT = 8;
+
+    //every this many elements one is a mesh instead of a cube
+    private static final int MESH_EVERY = 16;
+
+    private static final String[] CUBE_FACES = {"north", "south", "west", "east", "up", "down"};
+
+    //16x16 rgba png
+    private static final String TEXTURE = "data:image/png;base64,"
+            + "iVBORw0KGgoAAAANSUhEUgAAABAAAAAQCAYAAAAf8/9hAAABJ0lEQVR42hXMwYBFIQAAwIfwEUIIIYQQQgghhBBCCCGEEELIYHc6zHW+72t/PwKRRKZQaXQG"
+            + "k8XmcPm+n4BAJJEpVBqdwWSxOdzfC4KAQCSRKVQancFksTnc8IIoIBBJZAqVRmcwWWwON74gCQhEEplCpdEZTBabw00vyAICkUSmUGl0BpPF5nDzC4qAQCSR"
+            + "KVQancFksTnc8oIqIBBJZAqVRmcwWWwOt76gCQhEEplCpdEZTBabw20v6AICkUSmUGl0BpPF5nD7C4aAQCSRKVQancFksTnc8YIpIBBJZAqVRmcwWWwOd75g"
+            + "CQhEEplCpdEZTBabw10v2AICkUSmUGl0BpPF5nD3C46AQCSRKVQancFksTnc84IrIBBJZAqVRmcwWWwOl39OS28fFvYVWwAAAABJRU5ErkJggg==";
+
+    public static String bbmodel(Size size) {
+        StringBuilder json = new StringBuilder(size.elements * 600);
+        json.append("{\"meta\":{\"format_version\":\"4.0\",\"model_format\":\"free\",\"box_uv\":false},");
+        json.append("\"name\":\"synthetic\",\"resolution\":{\"width\":16,\"height\":16},");
+
+        //elements
+        json.append("\"elements\":[");
+        for (int i = 0; i < size.elements; i++) {
+            if (i > 0)
+                json.append(',');
+            if (i % MESH_EVERY == MESH_EVERY - 1)
+                appendMesh(json, i);
+            else
+                appendCube(json, i);
+        }
+        json.append("],");
+
+        //outliner, the groups are nested two levels deep
+        int groups = (size.elements + GROUP_SIZE - 1) / GROUP_SIZE;
+        json.append("\"outliner\":[");
+        for (int parent = 0; parent * GROUPS_PER_PARENT < groups; parent++) {
+            if (parent > 0)
+                json.append(',');
+            appendGroupStart(json, "parent", parent, parent * 15f);
+
+            int firstGroup = parent * GROUPS_PER_PARENT;
+            for (int group = firstGroup; group < Math.min(groups, firstGroup + GROUPS_PER_PARENT); group++) {
+                if (group > firstGroup)
+                    json.append(',');
+                appendGroupStart(json, "group", group, group * 7.5f);
+
+                int firstElement = group * GROUP_SIZE;
+                for (int element = firstElement; element < Math.min(size.elements, firstElement + GROUP_SIZE); element++) {
+                    if (element > firstElement)
+                        json.append(',');
+                    json.append("\"element-").append(element).append('"');
+                }
+                json.append("]}");
+            }
+            json.append("]}");
+        }
+        json.append("],");
+
+        //textures
+        json.append("\"textures\":[{\"name\":\"synthetic.png\",\"render_mode\":\"default\",\"source\":\"").append(TEXTURE).append("\"}]}");
+        return json.toString();
+    }
+
+    /**
+     * Puts parsed models under a root the same way the avatar loader does, ready for FiguraModelPart.read
+     */
+    public static CompoundTag toModels(BlockbenchModelParser.ModelData data) {
+        CompoundTag models = new CompoundTag();
+        models.putString("name", "models");
+
+        ListTag children = new ListTag();
+        children.add(data.modelNbt());
+        models.put("chld", children);
+        return models;
+    }
+
+    private static void appendCube(StringBuilder json, int i) {
+        //1 to 4 pixels wide, so the face areas spread over every detail level
+        float size = 1f + (i % 4);
+        float x = (i % 16) * 4f, y = ((i / 16) % 16) * 4f, z = (i / 256) * 4f;
+
+        json.append("{\"name\":\"cube_").append(i).append("\",\"type\":\"cube\",\"uuid\":\"element-").append(i).append("\",");
+        json.append("\"from\":[").append(x).append(',').append(y).append(',').append(z).append("],");
+        json.append("\"to\":[").append(x + size).append(',').append(y + size).append(',').append(z + size).append("],");
+        json.append("\"origin\":[").append(x).append(',').append(y).append(',').append(z).append("],");
+        if (i % 3 == 0)
+            json.append("\"rotation\":[0,").append((i % 8) * 11.25f).append(",0],");
+
+        json.append("\"faces\":{");
+        for (int face = 0; face < CUBE_FACES.length; face++) {
+            if (face > 0)
+                json.append(',');
+            json.append('"').append(CUBE_FACES[face]).append("\":{\"uv\":[0,0,").append(size).append(',').append(size).append("],\"texture\":0}");
+        }
+        json.append("}}");
+    }
+
+    //a square pyramid, one quad and four triangles
+    private static void appendMesh(StringBuilder json, int i) {
+        float x = (i % 16) * 4f, y = ((i / 16) % 16) * 4f, z = (i / 256) * 4f;
+
+        json.append("{\"name\":\"mesh_").append(i).append("\",\"type\":\"mesh\",\"uuid\":\"element-").append(i).append("\",");
+        json.append("\"origin\":[").append(x).append(',').append(y).append(',').append(z).append("],");
+        json.append("\"vertices\":{\"a\":[0,0,0],\"b\":[4,0,0],\"c\":[4,0,4],\"d\":[0,0,4],\"e\":[2,3,2]},");
+        json.append("\"faces\":{");
+        json.append("\"base\":{\"uv\":{\"a\":[0,0],\"b\":[4,0],\"c\":[4,4],\"d\":[0,4]},\"vertices\":[\"a\",\"b\",\"c\",\"d\"],\"texture\":0},");
+        json.append("\"side1\":{\"uv\":{\"a\":[0,4],\"b\":[4,4],\"e\":[2,0]},\"vertices\":[\"a\",\"b\",\"e\"],\"texture\":0},");
+        json.append("\"side2\":{\"uv\":{\"b\":[0,4],\"c\":[4,4],\"e\":[2,0]},\"vertices\":[\"b\",\"c\",\"e\"],\"texture\":0},");
+        json.append("\"side3\":{\"uv\":{\"c\":[0,4],\"d\":[4,4],\"e\":[2,0]},\"vertices\":[\"c\",\"d\",\"e\"],\"texture\":0},");
+        json.append("\"side4\":{\"uv\":{\"d\":[0,4],\"a\":[4,4],\"e\":[2,0]},\"vertices\":[\"d\",\"a\",\"e\"],\"texture\":0}");
+        json.append("}}");
+    }
+
+    private static void appendGroupStart(StringBuilder json, String name, int i, float rotation) {
+        json.append("{\"name\":\"").append(name).append('_').append(i).append("\",\"uuid\":\"").append(name).append('-').append(i).append("\",");
+        json.append("\"origin\":[0,0,0],\"rotation\":[0,").append(rotation % 360f).append(",0],\"children\":[");
+    }
+}
@@ -0,0 +1,140 @@
+package org.moon.figura.benchmark;
+
+import org.lwjgl.BufferUtils;
+import org.moon.figura.avatars.model.rendering.FiguraImmediateBuffer;
+import org.moon.figura.math.matrix.FiguraMat3;
+import org.moon.figura.math.matrix.FiguraMat4;
+import org.moon.figura.math.vector.FiguraVec3;
+import org.moon.figura.math.vector.FiguraVec4;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.FloatBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Vertices per second of the immediate renderer, the float loop against the per vertex vector objects it replaced.
+ * Both push the same part, with the same matrices, into a consumer that only counts.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VertexThroughputBenchmark {
+
+    private static final int FACES = 10_000;
+    private static final int VERTICES = FACES * 4;
+    private static final int TEXTURE_SIZE = 64;
+
+    private FloatBuffer positions, uvs, normals;
+    private final CountingVertexConsumer consumer = new CountingVertexConsumer();
+
+    private final FiguraMat4 positionMatrix = FiguraMat4.of();
+    private final FiguraMat3 normalMatrix = FiguraMat3.of();
+    private final FiguraMat3 uvMatrix = FiguraMat3.of();
+    private final float[] posMat = new float[12], normalMat = new float[9], uvMat = new float[6];
+
+    //the old loop kept these around between calls
+    private final FiguraVec4 pos = FiguraVec4.of();
+    private final FiguraVec3 normal = FiguraVec3.of();
+    private final FiguraVec3 uv = FiguraVec3.of(0, 0, 1);
+
+    @Setup
+    public void setup() {
+        positions = BufferUtils.createFloatBuffer(VERTICES * 3);
+        uvs = BufferUtils.createFloatBuffer(VERTICES * 2);
+        normals = BufferUtils.createFloatBuffer(VERTICES * 3);
+
+        Random random = new Random(0);
+        for (int i = 0; i < VERTICES; i++) {
+            positions.put(random.nextFloat() * 16).put(random.nextFloat() * 16).put(random.nextFloat() * 16);
+            uvs.put(random.nextInt(TEXTURE_SIZE)).put(random.nextInt(TEXTURE_SIZE));
+            normals.put(0f).put(1f).put(0f);
+        }
+
+        //a rotated and scaled part somewhere in front of the camera
+        positionMatrix.scale(1 / 16d, 1 / 16d, 1 / 16d);
+        positionMatrix.rotateY(30);
+        positionMatrix.rotateZ(180);
+        positionMatrix.translate(0.5, 1.2, -3);
+        normalMatrix.rotateY(30);
+        normalMatrix.rotateZ(180);
+        uvMatrix.translate(2, 4);
+
+        //flattened the same way FiguraImmediateBuffer.loadMatrices does
+        FiguraMat4 p = positionMatrix;
+        posMat[0] = (float) p.v11; posMat[1] = (float) p.v12; posMat[2] = (float) p.v13; posMat[3] = (float) p.v14;
+        posMat[4] = (float) p.v21; posMat[5] = (float) p.v22; posMat[6] = (float) p.v23; posMat[7] = (float) p.v24;
+        posMat[8] = (float) p.v31; posMat[9] = (float) p.v32; posMat[10] = (float) p.v33; posMat[11] = (float) p.v34;
+
+        FiguraMat3 n = normalMatrix;
+        normalMat[0] = (float) n.v11; normalMat[1] = (float) n.v12; normalMat[2] = (float) n.v13;
+        normalMat[3] = (float) n.v21; normalMat[4] = (float) n.v22; normalMat[5] = (float) n.v23;
+        normalMat[6] = (float) n.v31; normalMat[7] = (float) n.v32; normalMat[8] = (float) n.v33;
+
+        float scale = 1f / TEXTURE_SIZE;
+        FiguraMat3 t = uvMatrix;
+        uvMat[0] = (float) t.v11 * scale; uvMat[1] = (float) t.v12 * scale; uvMat[2] = (float) t.v13;
+        uvMat[3] = (float) t.v21 * scale; uvMat[4] = (float) t.v22 * scale; uvMat[5] = (float) t.v23;
+    }
+
+    private void rewind() {
+        consumer.reset();
+        positions.clear();
+        uvs.clear();
+        normals.clear();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VERTICES)
+    public double floatPath() {
+        rewind();
+        FiguraImmediateBuffer.transformVertices(consumer, positions, uvs, normals, VERTICES,
+                posMat, normalMat, uvMat,
+                1f, 1f, 1f, 1f, 0, 0xF000F0);
+        return consumer.sum;
+    }
+
+    //the loop as it was before transformVertices
+    @Benchmark
+    @OperationsPerInvocation(VERTICES)
+    public double objectPath() {
+        rewind();
+
+        FiguraVec3 uvFixer = FiguraVec3.of();
+        uvFixer.set(TEXTURE_SIZE, TEXTURE_SIZE, 1); //Dividing by this makes uv 0 to 1
+
+        for (int i = 0; i < VERTICES; i++) {
+            pos.set(positions.get(), positions.get(), positions.get(), 1);
+            pos.multiply(positionMatrix);
+            normal.set(normals.get(), normals.get(), normals.get());
+            normal.multiply(normalMatrix);
+            uv.set(uvs.get(), uvs.get(), 1);
+            uv.divide(uvFixer);
+            uv.multiply(uvMatrix);
+
+            consumer.vertex(
+                    (float) pos.x,
+                    (float) pos.y,
+                    (float) pos.z,
+
+                    1f, 1f, 1f, 1f,
+
+                    (float) uv.x,
+                    (float) uv.y,
+
+                    0,
+                    0xF000F0,
+
+                    (float) normal.x,
+                    (float) normal.y,
+                    (float) normal.z
+            );
+        }
+
+        uvFixer.free();
+        return consumer.sum;
+    }
+}
@@ -0,0 +1,75 @@
+package org.moon.figura.benchmark;
+
+import org.lwjgl.BufferUtils;
+import org.moon.figura.avatars.model.rendering.FiguraImmediateBuffer;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.FloatBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The immediate renderer inner loop, from the float buffers of a part into a vertex consumer that only counts.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VertexTransformBenchmark {
+
+    @Param({"64", "1024", "8192"})
+    public int faces;
+
+    private FloatBuffer positions, uvs, normals;
+    private final CountingVertexConsumer consumer = new CountingVertexConsumer();
+
+    //a rotated and scaled part somewhere in front of the camera
+    private final float[] posMat = {
+            0.0433f, 0f, -0.025f, 0.5f,
+            0f, -0.0625f, 0f, 1.2f,
+            0.025f, 0f, 0.0433f, -3f
+    };
+    private final float[] normalMat = {
+            0.866f, 0f, -0.5f,
+            0f, -1f, 0f,
+            0.5f, 0f, 0.866f
+    };
+    private final float[] uvMat = {
+            1f / 64, 0f, 0f,
+            0f, 1f / 64, 0f
+    };
+
+    @Setup
+    public void setup() {
+        int vertices = faces * 4;
+        positions = BufferUtils.createFloatBuffer(vertices * 3);
+        uvs = BufferUtils.createFloatBuffer(vertices * 2);
+        normals = BufferUtils.createFloatBuffer(vertices * 3);
+
+        Random random = new Random(0);
+        for (int i = 0; i < vertices; i++) {
+            positions.put(random.nextFloat() * 16).put(random.nextFloat() * 16).put(random.nextFloat() * 16);
+            uvs.put(random.nextInt(64)).put(random.nextInt(64));
+            normals.put(0f).put(1f).put(0f);
+        }
+
+        positions.clear();
+        uvs.clear();
+        normals.clear();
+    }
+
+    @Benchmark
+    public double transform() {
+        consumer.reset();
+        positions.position(0);
+        uvs.position(0);
+        normals.position(0);
+
+        FiguraImmediateBuffer.transformVertices(consumer, positions, uvs, normals, faces * 4,
+                posMat, normalMat, uvMat,
+                1f, 1f, 1f, 1f, 0, 0xF000F0);
+        return consumer.sum;
+    }
+}
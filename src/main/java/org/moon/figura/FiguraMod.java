@@ -7,17 +7,19 @@ import net.fabricmc.fabric.api.client.rendering.v1.HudRenderCallback;
 import net.fabricmc.fabric.api.client.rendering.v1.WorldRenderContext;
 import net.fabricmc.fabric.api.client.rendering.v1.WorldRenderEvents;
 import net.fabricmc.loader.api.FabricLoader;
+import net.minecraft.Util;
 import net.minecraft.client.Minecraft;
 import net.minecraft.network.chat.Component;
 import net.minecraft.world.entity.Entity;
 import org.moon.figura.avatars.Avatar;
 import org.moon.figura.avatars.AvatarManager;
-import org.moon.figura.avatars.providers.LocalAvatarLoader;
 import org.moon.figura.backend.NetworkManager;
 import org.moon.figura.commands.FiguraCommands;
 import org.moon.figura.config.ConfigManager;
 import org.moon.figura.gui.PaperDoll;
+import org.moon.figura.lua.FiguraJavaReflector;
 import org.moon.figura.lua.FiguraLuaPrinter;
+import org.moon.figura.lua.LuaBytecodeCache;
 import org.moon.figura.lua.docs.FiguraDocsManager;
 import org.moon.figura.trust.TrustManager;
 import org.moon.figura.utils.LuaUtils;
@@ -50,6 +52,9 @@ public class FiguraMod implements ClientModInitializer {
         TrustManager.init();
         FiguraDocsManager.init();
         FiguraCommands.init();
+        Util.ioPool().execute(LuaBytecodeCache::prune);
+        //build the reflector tables off the client thread, instead of when the first avatar loads
+        Util.backgroundExecutor().execute(() -> FiguraDocsManager.DOCUMENTED_CLASSES.values().forEach(FiguraJavaReflector::prepare));
         LuaUtils.setupNativesForLua();
 
         //register events
@@ -62,7 +67,6 @@ public class FiguraMod implements ClientModInitializer {
 
     private static void tick(Minecraft client) {
         NetworkManager.tick();
-        LocalAvatarLoader.tickWatchedKey();
         AvatarManager.tickLoadedAvatars();
         FiguraLuaPrinter.printChatFromQueue();
         ticks++;
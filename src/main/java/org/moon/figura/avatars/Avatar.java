@@ -17,11 +17,16 @@ import net.minecraft.world.entity.Entity;
 import net.minecraft.world.entity.player.Player;
 import net.minecraft.world.phys.Vec3;
 import org.moon.figura.FiguraMod;
+import org.moon.figura.avatars.animation.AnimationPlayer;
 import org.moon.figura.avatars.model.rendering.AvatarRenderer;
 import org.moon.figura.avatars.model.rendering.ImmediateAvatarRenderer;
+import org.moon.figura.avatars.model.rendering.PrebuiltGeometry;
+import org.moon.figura.avatars.model.rendering.VertexBufferAvatarRenderer;
 import org.moon.figura.lua.FiguraLuaPrinter;
 import org.moon.figura.lua.FiguraLuaState;
+import org.moon.figura.lua.api.AnimationAPI;
 import org.moon.figura.lua.api.EventsAPI;
+import org.moon.figura.lua.api.nameplate.NameplateCache;
 import org.moon.figura.lua.api.nameplate.NameplateCustomization;
 import org.moon.figura.lua.types.LuaFunction;
 import org.moon.figura.trust.TrustContainer;
@@ -29,11 +34,7 @@ import org.moon.figura.trust.TrustManager;
 import org.terasology.jnlua.LuaMemoryAllocationException;
 import org.terasology.jnlua.LuaRuntimeException;
 
-import java.io.ByteArrayOutputStream;
-import java.io.DataOutputStream;
-import java.math.RoundingMode;
-import java.text.DecimalFormat;
-import java.text.DecimalFormatSymbols;
+import java.io.OutputStream;
 import java.util.*;
 
 //the avatar class
@@ -45,18 +46,30 @@ public class Avatar {
     public final String name;
     public final String authors;
     public final String version;
-    public final float fileSize;
     public final String color;
 
     public BitSet badges = new BitSet(NameplateCustomization.badgesLen());
 
+    //the last built nameplates, above the player and in the tab list
+    public final NameplateCache entityNameplate = new NameplateCache();
+    public final NameplateCache listNameplate = new NameplateCache();
+
     //Runtime data
     public final CompoundTag nbt;
     public final UUID owner;
     public final AvatarRenderer renderer;
+    public final AnimationPlayer animationPlayer;
     public FiguraLuaState luaState;
 
+    //parsed on the loader thread, consumed by init()
+    private Map<String, String> scripts;
+
     private int tickLimit, renderLimit;
+    private long renderTimeLimit; //in nanoseconds, -1 for no limit
+    private long frameNanos = 0;
+
+    private final RenderEventScheduler scheduler = new RenderEventScheduler();
+    private boolean renderEventsThisFrame = true;
 
     //runtime status
     public boolean hasTexture = false;
@@ -70,13 +83,43 @@ public class Avatar {
     public int worldRenderInstructions = 0;
     public int postWorldRenderInstructions = 0;
     public int accumulatedRenderInstructions = 0;
+    public long initNanos = 0;
+
+    public final ScriptMetrics metrics = new ScriptMetrics();
+
+    //size in bytes as it was stored on disk or sent over the network, -1 when unknown
+    private long rawFileSize;
+    private float fileSize = -1f;
+
+    //already built vertex data for the renderer, dropped once it is built
+    public PrebuiltGeometry geometry;
 
     public float particlesRemaining = 0f;
     public float soundsRemaining = 0f;
 
-    public Avatar(CompoundTag nbt, UUID owner) {
+    //limits from the trust, kept until it changes
+    private TrustContainer trust;
+    private int trustChanges, trustVersion;
+    private float maxParticles, maxSounds;
+    private boolean offscreenRendering;
+
+    /**
+     * @param rawFileSize the compressed size of the nbt in bytes, if already known from where it was loaded
+     * @param complexityLimit the max faces to render, read from the trust beforehand as this can run on any thread
+     * @param vertexBuffers if the models are rendered from vertex buffers instead of immediate mode, also read beforehand
+     */
+    public Avatar(CompoundTag nbt, UUID owner, long rawFileSize, int complexityLimit, boolean vertexBuffers) {
+        this(nbt, owner, rawFileSize, null, complexityLimit, vertexBuffers);
+    }
+
+    /**
+     * @param geometry the already built vertex data of the models, from an avatar container, or null to build it from the nbt
+     */
+    public Avatar(CompoundTag nbt, UUID owner, long rawFileSize, PrebuiltGeometry geometry, int complexityLimit, boolean vertexBuffers) {
         this.nbt = nbt;
         this.owner = owner;
+        this.rawFileSize = rawFileSize;
+        this.geometry = geometry;
 
         //read metadata
         CompoundTag metadata = nbt.getCompound("metadata");
@@ -84,13 +127,47 @@ public class Avatar {
         authors = metadata.getString("authors");
         version = metadata.getString("ver");
         color = metadata.getString("color");
-        fileSize = getFileSize();
 
         //read model
-        renderer = new ImmediateAvatarRenderer(this);
+        renderer = vertexBuffers ? new VertexBufferAvatarRenderer(this, complexityLimit) : new ImmediateAvatarRenderer(this, complexityLimit);
+        this.geometry = null;
+        animationPlayer = new AnimationPlayer(nbt.getList("animations", Tag.TAG_COMPOUND), renderer.root);
 
         //read script
+        if (nbt.contains("scripts"))
+            scripts = parseScripts(nbt.getCompound("scripts"));
+    }
+
+    /**
+     * Creates and runs the Lua state.
+     * The constructor can run on any thread, but this must be called on the client thread.
+     */
+    public void init() {
         createLuaState();
+        scripts = null;
+    }
+
+    /**
+     * Runs new scripts on this avatar, keeping its models and textures.
+     * What the old scripts changed on the parts and animations is undone first. Must be called on the client thread.
+     */
+    public void reloadScripts(CompoundTag scriptsNbt) {
+        if (luaState != null) {
+            luaState.close();
+            luaState = null;
+        }
+        scriptError = false;
+
+        if (renderer.root != null)
+            renderer.root.resetToDefaults();
+        animationPlayer.reset();
+
+        nbt.put("scripts", scriptsNbt);
+        rawFileSize = -1;
+        fileSize = -1f;
+
+        scripts = parseScripts(scriptsNbt);
+        init();
     }
 
     //Calling with maxInstructions as -1 will not set the max instructions, and instead keep them as they are.
@@ -112,21 +189,71 @@ public class Avatar {
         }
     }
 
+    /**
+     * Reads the limits from the trust again, only if it changed since the last time
+     */
+    private void updateTrust() {
+        int changes = TrustContainer.getChanges();
+        if (trust != null && changes == trustChanges)
+            return;
+        trustChanges = changes;
+
+        //the container may have been replaced, when the trust was read from disk again
+        TrustContainer container = TrustManager.get(owner);
+        if (container == trust && container.getVersion() == trustVersion)
+            return;
+        trust = container;
+        trustVersion = container.getVersion();
+
+        tickLimit = trust.get(TrustContainer.Trust.TICK_INST);
+        renderLimit = trust.get(TrustContainer.Trust.RENDER_INST);
+
+        //given in microseconds, and infinity (or unset) means no limit at all
+        int renderTime = trust.get(TrustContainer.Trust.RENDER_TIME);
+        renderTimeLimit = renderTime < 0 || TrustContainer.Trust.RENDER_TIME.checkInfinity(renderTime) ? -1 : renderTime * 1000L;
+
+        maxParticles = trust.get(TrustContainer.Trust.PARTICLES);
+        maxSounds = trust.get(TrustContainer.Trust.SOUNDS);
+        offscreenRendering = trust.get(TrustContainer.Trust.OFFSCREEN_RENDERING) == 1;
+    }
+
     public void onTick() {
         if (!scriptError && luaState != null) {
-            float maxParticles = TrustManager.get(this.owner).get(TrustContainer.Trust.PARTICLES);
+            updateTrust();
             this.particlesRemaining = Math.min(particlesRemaining + (maxParticles / SharedConstants.TICKS_PER_SECOND), maxParticles);
-
-            float maxSounds = TrustManager.get(this.owner).get(TrustContainer.Trust.SOUNDS);
             this.soundsRemaining = Math.min(soundsRemaining + (maxSounds / SharedConstants.TICKS_PER_SECOND), maxSounds);
 
-            tryCall(luaState.events.TICK, tickLimit);
-            if (FiguraMod.DO_OUR_NATIVES_WORK && luaState != null)
-                tickInstructions = tickLimit - luaState.getInstructions();
+            metrics.nextTick();
+            tickInstructions = runEvent(ScriptMetrics.Event.TICK, luaState.events.TICK, tickLimit);
         }
     }
 
+    /**
+     * Runs an event, recording the instructions and time used
+     * @return the instructions used by this event
+     */
+    private int runEvent(ScriptMetrics.Event metric, EventsAPI.LuaEvent event, int maxInstructions, Object... args) {
+        int before = maxInstructions == -1 ? luaState.getUsedInstructions() : 0;
+        long start = System.nanoTime();
+
+        tryCall(event, maxInstructions, args);
+
+        long time = System.nanoTime() - start;
+        int used = luaState == null ? 0 : luaState.getUsedInstructions() - before;
+        metrics.add(metric, used, time);
+
+        if (metric != ScriptMetrics.Event.TICK && metric != ScriptMetrics.Event.CHAT)
+            frameNanos += time;
+        return used;
+    }
+
+    //render events are skipped on frames the scheduler decimates, and for the rest of the frame once the avatar used up its time
+    private boolean canRunRenderEvents() {
+        return renderEventsThisFrame && (renderTimeLimit < 0 || frameNanos < renderTimeLimit);
+    }
+
     public void onRender(Entity entity, float yaw, float delta, float alpha, PoseStack matrices, MultiBufferSource bufferSource, int light, LivingEntityRenderer<?, ?> entityRenderer, ElytraModel<?> elytraModel) {
+        scheduler.markRendered();
         if (entity.isSpectator())
             renderer.currentFilterScheme = AvatarRenderer.RENDER_HEAD;
         renderer.entity = entity;
@@ -138,23 +265,16 @@ public class Avatar {
         renderer.light = light;
         renderer.entityRenderer = entityRenderer;
         renderer.elytraModel = elytraModel;
-        if (!scriptError && luaState != null) {
-            tryCall(luaState.events.RENDER, -1, delta);
-            if (FiguraMod.DO_OUR_NATIVES_WORK && luaState != null) {
-                renderInstructions = renderLimit - accumulatedRenderInstructions - luaState.getInstructions();
-                accumulatedRenderInstructions += renderInstructions;
-            }
-
-
+        if (!scriptError && luaState != null && canRunRenderEvents()) {
+            renderInstructions = runEvent(ScriptMetrics.Event.RENDER, luaState.events.RENDER, -1, delta);
+            accumulatedRenderInstructions += renderInstructions;
         }
 
+        animationPlayer.update(AvatarRenderContext.getFrame());
         renderer.render();
-        if (!scriptError && luaState != null) {
-            tryCall(luaState.events.POST_RENDER, -1, delta);
-            if (FiguraMod.DO_OUR_NATIVES_WORK && luaState != null) {
-                postRenderInstructions = renderLimit - accumulatedRenderInstructions - luaState.getInstructions();
-                accumulatedRenderInstructions += postRenderInstructions;
-            }
+        if (!scriptError && luaState != null && canRunRenderEvents()) {
+            postRenderInstructions = runEvent(ScriptMetrics.Event.POST_RENDER, luaState.events.POST_RENDER, -1, delta);
+            accumulatedRenderInstructions += postRenderInstructions;
         }
     }
 
@@ -162,40 +282,44 @@ public class Avatar {
         renderer.tickDelta = tickDelta;
         renderer.allowMatrixUpdate = true;
 
-        if (!scriptError && luaState != null) {
-            tryCall(luaState.events.WORLD_RENDER, renderLimit, tickDelta);
-            if (FiguraMod.DO_OUR_NATIVES_WORK && luaState != null) {
-                worldRenderInstructions = renderLimit - luaState.getInstructions();
-                accumulatedRenderInstructions = worldRenderInstructions;
-            }
+        //new frame
+        frameNanos = 0;
 
-        }
+        updateTrust();
+        renderEventsThisFrame = scheduler.schedule(renderer.entity, offscreenRendering);
+
+        //keep what the scripts set last time, to blend from it until the next run
+        if (renderEventsThisFrame && scheduler.isInterpolating() && renderer.root != null)
+            renderer.root.snapshotTransforms();
+        renderer.interpolation = scheduler.getInterpolation();
 
+        accumulatedRenderInstructions = 0;
+        if (!scriptError && luaState != null && canRunRenderEvents()) {
+            worldRenderInstructions = runEvent(ScriptMetrics.Event.WORLD_RENDER, luaState.events.WORLD_RENDER, renderLimit, tickDelta);
+            accumulatedRenderInstructions = worldRenderInstructions;
+        }
     }
 
     public void endWorldRenderEvent() {
         renderer.allowMatrixUpdate = false;
-        if (!scriptError && luaState != null) {
-            tryCall(luaState.events.POST_WORLD_RENDER, -1, renderer.tickDelta);
-            if (FiguraMod.DO_OUR_NATIVES_WORK && luaState != null) {
-                postWorldRenderInstructions = renderLimit - accumulatedRenderInstructions - luaState.getInstructions();
-                accumulatedRenderInstructions += postWorldRenderInstructions;
-            }
+        if (!scriptError && luaState != null && canRunRenderEvents()) {
+            postWorldRenderInstructions = runEvent(ScriptMetrics.Event.POST_WORLD_RENDER, luaState.events.POST_WORLD_RENDER, -1, renderer.tickDelta);
+            accumulatedRenderInstructions += postWorldRenderInstructions;
         }
-
     }
 
     public void chatSendMessageEvent(String message) {
         if (!scriptError && luaState != null)
-            tryCall(luaState.events.CHAT_SEND_MESSAGE, -1, message);
+            runEvent(ScriptMetrics.Event.CHAT, luaState.events.CHAT_SEND_MESSAGE, -1, message);
     }
 
     public void chatReceivedMessageEvent(String message) {
         if (!scriptError && luaState != null)
-            tryCall(luaState.events.CHAT_RECEIVE_MESSAGE, -1, message);
+            runEvent(ScriptMetrics.Event.CHAT, luaState.events.CHAT_RECEIVE_MESSAGE, -1, message);
     }
 
     public void onWorldRender(Entity entity, double camX, double camY, double camZ, PoseStack matrices, MultiBufferSource bufferSource, int light, float tickDelta) {
+        scheduler.markRendered();
         renderer.entity = entity;
         renderer.currentFilterScheme = AvatarRenderer.RENDER_WORLD;
         renderer.bufferSource = bufferSource;
@@ -207,6 +331,7 @@ public class Avatar {
         matrices.translate(-camX, -camY, -camZ);
         matrices.scale(-1, -1, 1);
 
+        animationPlayer.update(AvatarRenderContext.getFrame());
         renderer.renderWorldParts();
         matrices.popPose();
     }
@@ -227,33 +352,42 @@ public class Avatar {
      * We should call this whenever an avatar is no longer reachable!
      * It free()s all the CachedType used inside of the avatar, and also
      * closes the native texture resources.
+     * The vertex blocks of an avatar loaded from a container stay memory mapped until the buffers wrapping them
+     * are garbage collected, unmapping them here could crash a frame still reading them.
      */
     public void clean() {
         renderer.clean();
     }
 
-    private float getFileSize() {
-        try {
-            //get size
-            DataOutputStream dos = new DataOutputStream(new ByteArrayOutputStream());
-            NbtIo.writeCompressed(nbt, dos);
-            long size = dos.size();
-
-            //format size to kb
-            DecimalFormat df = new DecimalFormat("#0.00", new DecimalFormatSymbols(Locale.US));
-            df.setRoundingMode(RoundingMode.HALF_UP);
-            return Float.parseFloat(df.format(size / 1000f));
-        } catch (Exception e) {
-            FiguraMod.LOGGER.warn("Failed to generate file size for model " + this.name, e);
-            return 0f;
+    /**
+     * The compressed size of the avatar, in kb
+     * Only computed on the first call, and only compressed again if the loaded size is unknown
+     */
+    public float getFileSize() {
+        if (fileSize >= 0f)
+            return fileSize;
+
+        if (rawFileSize < 0) {
+            try {
+                //count the compressed bytes without keeping them
+                CountingOutputStream counter = new CountingOutputStream();
+                NbtIo.writeCompressed(nbt, counter);
+                rawFileSize = counter.count;
+            } catch (Exception e) {
+                FiguraMod.LOGGER.warn("Failed to generate file size for model " + this.name, e);
+                rawFileSize = 0;
+            }
         }
+
+        //format size to kb, rounded to 2 decimal places
+        fileSize = Math.round(rawFileSize / 10d) / 100f;
+        return fileSize;
     }
 
     private void createLuaState() {
-        if (!nbt.contains("scripts"))
+        if (scripts == null)
             return;
 
-        Map<String, String> scripts = parseScripts(nbt.getCompound("scripts"));
         CompoundTag metadata = nbt.getCompound("metadata");
         ListTag autoScripts = null;
 
@@ -264,20 +398,23 @@ public class Avatar {
 
         if (renderer != null && renderer.root != null)
             luaState.loadGlobal(renderer.root, "models");
+        luaState.loadGlobal(new AnimationAPI(animationPlayer.getAnimations()), "animations");
 
         int initLimit = TrustManager.get(owner).get(TrustContainer.Trust.INIT_INST);
-        tickLimit = TrustManager.get(owner).get(TrustContainer.Trust.TICK_INST);
-        renderLimit = TrustManager.get(owner).get(TrustContainer.Trust.RENDER_INST);
+        updateTrust();
 
         luaState.setInstructionLimit(initLimit);
         this.luaState = luaState;
 
-        if (!luaState.init(scripts, autoScripts)) {
+        long start = System.nanoTime();
+        boolean success = luaState.init(scripts, autoScripts);
+        initNanos = System.nanoTime() - start;
+
+        if (!success) {
             luaState.close();
             this.luaState = null;
         } else {
-            if (FiguraMod.DO_OUR_NATIVES_WORK)
-                initInstructions = initLimit - luaState.getInstructions();
+            initInstructions = luaState.getUsedInstructions();
         }
     }
 
@@ -292,4 +429,18 @@ public class Avatar {
         }
         return result;
     }
+
+    private static class CountingOutputStream extends OutputStream {
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
 }
@@ -1,17 +1,30 @@
 package org.moon.figura.avatars;
 
+import net.minecraft.client.Minecraft;
 import net.minecraft.nbt.CompoundTag;
 import net.minecraft.world.entity.Entity;
 import net.minecraft.world.entity.player.Player;
 import org.moon.figura.FiguraMod;
+import org.moon.figura.avatars.model.rendering.FaceBudget;
+import org.moon.figura.avatars.providers.AvatarContainer;
 import org.moon.figura.avatars.providers.LocalAvatarLoader;
+import org.moon.figura.backend.AvatarDownloader;
+import org.moon.figura.backend.NetworkManager;
+import org.moon.figura.config.Config;
 import org.moon.figura.gui.FiguraToast;
+import org.moon.figura.trust.TrustContainer;
+import org.moon.figura.trust.TrustManager;
 import org.moon.figura.utils.FiguraText;
 
+import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Manages all the avatars that are currently loaded in memory, and also
@@ -21,20 +34,41 @@ import java.util.UUID;
 public class AvatarManager {
 
     private static final HashMap<UUID, Avatar> LOADED_AVATARS = new HashMap<>();
-    private static final ArrayList<UUID> FETCHED_AVATARS = new ArrayList<>();
+    //backend fetches that are done, whether or not they found an avatar
+    private static final HashSet<UUID> FETCHED_AVATARS = new HashSet<>();
+    //avatars still being built on the loader threads, only touched from the client thread
+    private static final HashMap<UUID, CompletableFuture<Avatar>> LOADING_AVATARS = new HashMap<>();
     public static boolean localUploaded = true; //init as true :3
     public static boolean panic = false;
 
+    private static final AtomicInteger LOADER_COUNT = new AtomicInteger();
+    private static final ExecutorService LOADER = Executors.newFixedThreadPool(Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2)), runnable -> {
+        Thread thread = new Thread(runnable, "Figura Avatar Loader #" + LOADER_COUNT.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
     //player will also attempt to load from network, if possible
+    //returns null while the avatar is still loading
     public static Avatar getAvatarForPlayer(UUID player) {
+        //no entity to get the distance from, so it waits behind the ones being rendered
+        return getAvatarForPlayer(player, Double.MAX_VALUE);
+    }
+
+    private static Avatar getAvatarForPlayer(UUID player, double priority) {
         if (panic) return null;
 
-        if (!LOADED_AVATARS.containsKey(player))
-            fetchBackend(player);
+        if (!LOADED_AVATARS.containsKey(player) && !LOADING_AVATARS.containsKey(player))
+            fetchBackend(player, priority);
 
         return LOADED_AVATARS.get(player);
     }
 
+    //if the avatar of this id is still being loaded in the background
+    public static boolean isLoading(UUID id) {
+        return LOADING_AVATARS.containsKey(id);
+    }
+
     //tries to get data from an entity
     public static Avatar getAvatar(Entity entity) {
         if (panic) return null;
@@ -42,8 +76,11 @@ public class AvatarManager {
         UUID uuid = entity.getUUID();
 
         //load from player (fetch backend) if is a player
-        if (entity instanceof Player)
-            return getAvatarForPlayer(uuid);
+        //nearest players are downloaded first
+        if (entity instanceof Player) {
+            Entity camera = Minecraft.getInstance().getCameraEntity();
+            return getAvatarForPlayer(uuid, camera == null ? 0d : entity.distanceToSqr(camera));
+        }
 
         //otherwise, just normally load it
         return LOADED_AVATARS.get(uuid);
@@ -52,6 +89,10 @@ public class AvatarManager {
     //removes an loaded avatar
     public static void clearAvatar(UUID id) {
         FETCHED_AVATARS.remove(id);
+        AvatarDownloader.cancel(id);
+
+        //the loader result is cleaned up once it sees it is no longer the current load
+        LOADING_AVATARS.remove(id);
 
         if (LOADED_AVATARS.containsKey(id)) {
             LOADED_AVATARS.get(id).clean();
@@ -62,6 +103,8 @@ public class AvatarManager {
     //clears ALL loaded avatars, including local
     public static void clearAllAvatars() {
         FETCHED_AVATARS.clear();
+        AvatarDownloader.clear();
+        LOADING_AVATARS.clear();
         LOADED_AVATARS.clear();
         localUploaded = true;
         FiguraMod.LOGGER.debug("Cleared all avatars");
@@ -69,13 +112,12 @@ public class AvatarManager {
 
     //reloads an avatar
     public static void reloadAvatar(UUID id) {
-        //first clear the avatar
-        clearAvatar(id);
-
-        //only non uploaded local needs to be manually reloaded
+        //only non uploaded local needs to be manually reloaded, it is kept until the new one is loaded
         //other ones will be fetched from backend on further request
         if (!localUploaded && id.compareTo(FiguraMod.getLocalPlayerUUID()) == 0)
             loadLocalAvatar(LocalAvatarLoader.getLastLoadedPath());
+        else
+            clearAvatar(id);
 
         //send client feedback
         FiguraToast.sendToast(new FiguraText("toast.reload"));
@@ -93,6 +135,8 @@ public class AvatarManager {
         if (panic)
             return;
 
+        RenderEventScheduler.nextFrame();
+        FaceBudget.distribute(LOADED_AVATARS.values());
         for (Avatar avatar : LOADED_AVATARS.values())
             avatar.worldRenderEvent(tickDelta);
     }
@@ -106,44 +150,171 @@ public class AvatarManager {
     }
 
     //load the local player avatar
-    //returns true if an avatar was actually loaded
+    //returns true if an avatar load was started, errors are reported by a toast once it finishes
     public static boolean loadLocalAvatar(Path path) {
-        //clear
+        //the current avatar stays until the new one is loaded, so reloading does not make it flicker
         UUID id = FiguraMod.getLocalPlayerUUID();
-        clearAvatar(id);
+        FETCHED_AVATARS.remove(id);
+        AvatarDownloader.cancel(id);
+        LOADING_AVATARS.remove(id);
 
         //mark as not uploaded
         localUploaded = false;
 
+        LocalAvatarLoader.watchAvatar(path);
+        if (path == null) {
+            clearAvatar(id);
+            return false;
+        }
+
         //load
-        try {
-            CompoundTag nbt = LocalAvatarLoader.loadAvatar(path);
-            if (nbt != null) {
-                LOADED_AVATARS.put(id, new Avatar(nbt, id));
-                return true;
+        loadAsync(id, (complexityLimit, vertexBuffers) -> {
+            try {
+                //containers come with their vertex data already built
+                if (path.toString().endsWith(AvatarContainer.EXTENSION)) {
+                    AvatarContainer.Contents contents = AvatarContainer.read(path);
+                    return new Avatar(contents.nbt(), id, -1, contents.geometry(), complexityLimit, vertexBuffers);
+                }
+
+                CompoundTag nbt = LocalAvatarLoader.loadAvatar(path);
+                return nbt == null ? null : new Avatar(nbt, id, LocalAvatarLoader.getFileSize(path), complexityLimit, vertexBuffers);
+            } catch (Exception e) {
+                throw new RuntimeException("Failed to load avatar from " + path, e);
             }
-        } catch (Exception e) {
-            FiguraMod.LOGGER.error("Failed to load avatar from " + path, e);
-            FiguraToast.sendToast(new FiguraText("toast.load_error"), FiguraToast.ToastType.ERROR);
-        }
-        return false;
+        });
+        return true;
     }
 
     //set an user's avatar
     public static void setAvatar(UUID id, CompoundTag nbt) {
+        setAvatar(id, nbt, -1);
+    }
+
+    //set an user's avatar, with the size in bytes it was received with, if known
+    public static void setAvatar(UUID id, CompoundTag nbt, long fileSize) {
         if (id.compareTo(FiguraMod.getLocalPlayerUUID()) == 0)
             loadLocalAvatar(null);
+        else
+            clearAvatar(id);
+
+        loadAsync(id, (complexityLimit, vertexBuffers) -> new Avatar(nbt, id, fileSize, complexityLimit, vertexBuffers));
+    }
+
+    /**
+     * Builds the avatar on the loader threads: nbt reading, texture decoding and the model parts and buffers.
+     * Only the Lua init is done back on the client thread, textures are uploaded by the renderer on first use.
+     * Until then, the avatar is reported as loading and getAvatar returns null.
+     * @param avatarFactory builds the avatar, given the complexity limit and renderer choice from its trust
+     */
+    private static void loadAsync(UUID id, AvatarFactory avatarFactory) {
+        //the trust is not thread safe, so anything the loader needs from it is read here on the client thread
+        TrustContainer trust = TrustManager.get(id);
+        int complexityLimit = trust.get(TrustContainer.Trust.COMPLEXITY);
+        boolean vertexBuffers = switch ((int) Config.RENDER_MODE.value) {
+            case 1 -> true;
+            case 2 -> trust.get(TrustContainer.Trust.VERTEX_BUFFERS) == 1;
+            default -> false;
+        };
+
+        CompletableFuture<Avatar> future = CompletableFuture.supplyAsync(() -> avatarFactory.create(complexityLimit, vertexBuffers), LOADER);
+        LOADING_AVATARS.put(id, future);
+
+        future.whenCompleteAsync((avatar, throwable) -> {
+            //cleared or replaced while loading
+            if (LOADING_AVATARS.get(id) != future) {
+                if (avatar != null)
+                    avatar.clean();
+                return;
+            }
+
+            LOADING_AVATARS.remove(id);
+
+            if (throwable != null) {
+                FiguraMod.LOGGER.error("Failed to load avatar for " + id, throwable);
+                FiguraToast.sendToast(new FiguraText("toast.load_error"), FiguraToast.ToastType.ERROR);
+                return;
+            }
+
+            if (avatar != null) {
+                avatar.init();
+                //swapped in only now, reloads keep showing the old avatar until here
+                Avatar old = LOADED_AVATARS.put(id, avatar);
+                if (old != null)
+                    old.clean();
+            }
+        }, Minecraft.getInstance());
+    }
+
+    /**
+     * Runs the scripts of the local avatar again, keeping its models and textures
+     * Falls back to a full reload if the local avatar is not loaded from that folder with scripts
+     */
+    public static void reloadLocalScripts(Path path) {
+        UUID id = FiguraMod.getLocalPlayerUUID();
+        Avatar avatar = LOADED_AVATARS.get(id);
+        if (avatar == null || localUploaded || LOADING_AVATARS.containsKey(id) || !avatar.nbt.contains("scripts") || !Files.isDirectory(path)) {
+            loadLocalAvatar(path);
+            return;
+        }
+
+        CompletableFuture.supplyAsync(() -> {
+            try {
+                return LocalAvatarLoader.loadScripts(path);
+            } catch (Exception e) {
+                throw new RuntimeException("Failed to load scripts from " + path, e);
+            }
+        }, LOADER).whenCompleteAsync((scripts, throwable) -> {
+            //replaced or reloaded in the meantime
+            if (LOADED_AVATARS.get(id) != avatar || LOADING_AVATARS.containsKey(id))
+                return;
+
+            if (throwable != null) {
+                FiguraMod.LOGGER.error("Failed to reload scripts for " + id, throwable);
+                FiguraToast.sendToast(new FiguraText("toast.load_error"), FiguraToast.ToastType.ERROR);
+                return;
+            }
 
-        LOADED_AVATARS.put(id, new Avatar(nbt, id));
+            //all scripts removed, the sounds go with them
+            if (scripts == null)
+                loadLocalAvatar(path);
+            else
+                avatar.reloadScripts(scripts);
+        }, Minecraft.getInstance());
     }
 
     //get avatar from the backend
     //mark as uploaded if local
-    private static void fetchBackend(UUID id) {
+    private static void fetchBackend(UUID id, double priority) {
         if (id == null || FETCHED_AVATARS.contains(id))
             return;
 
-        //TODO
-        //really fetch backend then
+        //local avatar not uploaded, so only loaded from disk
+        if (!localUploaded && id.compareTo(FiguraMod.getLocalPlayerUUID()) == 0)
+            return;
+
+        //nothing is requested while not logged in to the backend
+        if (!NetworkManager.canRequestAvatars())
+            return;
+
+        AvatarDownloader.request(id, priority);
+    }
+
+    /**
+     * Called by the AvatarDownloader once a download is done
+     * @param nbt the downloaded avatar, or null if there is none or it failed
+     */
+    public static void onBackendFetched(UUID id, CompoundTag nbt, long fileSize) {
+        if (nbt != null) {
+            setAvatar(id, nbt, fileSize);
+            if (id.compareTo(FiguraMod.getLocalPlayerUUID()) == 0)
+                localUploaded = true;
+        }
+
+        //after setting, as setting clears the avatar first
+        FETCHED_AVATARS.add(id);
+    }
+
+    private interface AvatarFactory {
+        Avatar create(int complexityLimit, boolean vertexBuffers);
     }
 }
@@ -0,0 +1,87 @@
+package org.moon.figura.avatars;
+
+import net.minecraft.world.entity.Entity;
+import org.moon.figura.lua.api.RendererAPI;
+import org.moon.figura.trust.TrustContainer;
+import org.moon.figura.trust.TrustManager;
+
+import java.util.HashMap;
+import java.util.UUID;
+
+/**
+ * The avatar of an entity and what the render mixins check about it, looked up once per frame.
+ * Every entity goes through many mixins each frame, and each of them used to look up the avatar and its trust again.
+ * Only used on the render thread.
+ */
+public class AvatarRenderContext {
+
+    private static final HashMap<UUID, AvatarRenderContext> CONTEXTS = new HashMap<>();
+    private static final int MAX_UNUSED_FRAMES = 200;
+    private static int frame = 0;
+
+    public Avatar avatar;
+    public TrustContainer trust;
+    //the renderer settings of the avatar script, null when there is no script running
+    public RendererAPI renderer;
+
+    public boolean vanillaModelEdit;
+    public boolean offscreenRendering;
+    public boolean nameplateEdit;
+
+    private int lastFrame = -1;
+    private int trustChanges;
+
+    public static void nextFrame() {
+        frame++;
+
+        //forget the entities not rendered for a while
+        if (frame % MAX_UNUSED_FRAMES == 0)
+            CONTEXTS.values().removeIf(context -> frame - context.lastFrame > MAX_UNUSED_FRAMES);
+    }
+
+    public static int getFrame() {
+        return frame;
+    }
+
+    public static AvatarRenderContext get(Entity entity) {
+        AvatarRenderContext context = CONTEXTS.computeIfAbsent(entity.getUUID(), id -> new AvatarRenderContext());
+        if (context.lastFrame != frame)
+            context.update(entity.getUUID(), AvatarManager.getAvatar(entity));
+        return context;
+    }
+
+    //for players not rendered as an entity, like in the tab list
+    public static AvatarRenderContext get(UUID player) {
+        AvatarRenderContext context = CONTEXTS.computeIfAbsent(player, id -> new AvatarRenderContext());
+        if (context.lastFrame != frame)
+            context.update(player, AvatarManager.getAvatarForPlayer(player));
+        return context;
+    }
+
+    private void update(UUID id, Avatar avatar) {
+        this.lastFrame = frame;
+
+        //entities without an avatar do not need trust
+        if (avatar == null) {
+            this.avatar = null;
+            trust = null;
+            renderer = null;
+            vanillaModelEdit = offscreenRendering = nameplateEdit = false;
+            return;
+        }
+
+        renderer = avatar.luaState == null ? null : avatar.luaState.renderer;
+
+        //same avatar and no trust changed, the values are still right
+        int changes = TrustContainer.getChanges();
+        if (avatar == this.avatar && changes == trustChanges)
+            return;
+
+        this.avatar = avatar;
+        trustChanges = changes;
+        trust = TrustManager.get(id);
+        vanillaModelEdit = trust.get(TrustContainer.Trust.VANILLA_MODEL_EDIT) == 1;
+        offscreenRendering = trust.get(TrustContainer.Trust.OFFSCREEN_RENDERING) == 1;
+        nameplateEdit = trust.get(TrustContainer.Trust.NAMEPLATE_EDIT) == 1;
+    }
+}
@@ -0,0 +1,93 @@
+package org.moon.figura.avatars;
+
+import net.minecraft.client.Minecraft;
+import net.minecraft.world.entity.Entity;
+import net.minecraft.world.phys.Vec3;
+
+/**
+ * Decides on which frames an avatar runs its render script events.
+ * Nearby avatars run them every frame, farther (or smaller on screen) ones only every few frames,
+ * with their part transforms interpolated in between, and culled ones not at all.
+ */
+public class RenderEventScheduler {
+
+    //full rate up to this distance, for an entity as tall as a player, at the default fov
+    private static final double FULL_RATE_DISTANCE = 16;
+    private static final int MAX_INTERVAL = 8;
+
+    private static int frame = 0;
+
+    private int interval = 1;
+    private int lastRun = -MAX_INTERVAL;
+    private int lastRendered = -MAX_INTERVAL;
+
+    public static void nextFrame() {
+        frame++;
+    }
+
+    //the entity was drawn this frame, so it is not culled
+    public void markRendered() {
+        lastRendered = frame;
+    }
+
+    /**
+     * Called once per frame, before the world render event
+     * @param entity the entity the avatar was last rendered on, if any
+     * @param offscreen if the avatar is allowed to run while the entity is culled
+     * @return if the render events should run this frame
+     */
+    public boolean schedule(Entity entity, boolean offscreen) {
+        Minecraft minecraft = Minecraft.getInstance();
+
+        //always full rate for the camera entity, which is not rendered in first person
+        if (entity == null || entity == minecraft.getCameraEntity()) {
+            interval = 1;
+        } else {
+            //not drawn last frame, so it is culled
+            if (!offscreen && lastRendered < frame - 1)
+                return false;
+
+            interval = getInterval(entity);
+        }
+
+        if (frame - lastRun < interval)
+            return false;
+
+        lastRun = frame;
+        return true;
+    }
+
+    /**
+     * @return how far the part transforms are between the ones before and after the last run
+     */
+    public float getInterpolation() {
+        if (interval <= 1)
+            return 1f;
+        return Math.min((frame - lastRun) / (float) interval, 1f);
+    }
+
+    public boolean isInterpolating() {
+        return interval > 1;
+    }
+
+    /**
+     * The distance to the camera, scaled by how big the entity looks,
+     * so tall entities and zooming in count as closer
+     */
+    public static double getScreenDistance(Entity entity) {
+        Minecraft minecraft = Minecraft.getInstance();
+        Vec3 camera = minecraft.gameRenderer.getMainCamera().getPosition();
+        double distance = Math.sqrt(entity.distanceToSqr(camera));
+
+        double size = entity.getBbHeight() / 1.8;
+        double zoom = Math.tan(Math.toRadians(35)) / Math.tan(Math.toRadians(minecraft.options.fov / 2));
+        return size <= 0 ? Double.MAX_VALUE : distance / (size * zoom);
+    }
+
+    private static int getInterval(Entity entity) {
+        double screenDistance = getScreenDistance(entity);
+        if (screenDistance <= FULL_RATE_DISTANCE)
+            return 1;
+        return (int) Math.min(MAX_INTERVAL, 2 + (screenDistance - FULL_RATE_DISTANCE) / FULL_RATE_DISTANCE);
+    }
+}
@@ -0,0 +1,52 @@
+package org.moon.figura.avatars;
+
+/**
+ * Rolling totals of the instructions and time the scripts of an avatar used per event,
+ * over the last WINDOW ticks.
+ */
+public class ScriptMetrics {
+
+    public static final int WINDOW = 20; //ticks, so about one second
+
+    public enum Event {
+        TICK,
+        RENDER,
+        POST_RENDER,
+        WORLD_RENDER,
+        POST_WORLD_RENDER,
+        CHAT
+    }
+
+    private final long[][] instructions = new long[Event.values().length][WINDOW];
+    private final long[][] nanos = new long[Event.values().length][WINDOW];
+    private int slot = 0;
+
+    public void add(Event event, int instructions, long nanos) {
+        this.instructions[event.ordinal()][slot] += instructions;
+        this.nanos[event.ordinal()][slot] += nanos;
+    }
+
+    //moves the window forward, dropping the oldest tick
+    public void nextTick() {
+        slot = (slot + 1) % WINDOW;
+        for (int i = 0; i < instructions.length; i++) {
+            instructions[i][slot] = 0;
+            nanos[i][slot] = 0;
+        }
+    }
+
+    public long getInstructions(Event event) {
+        return sum(instructions[event.ordinal()]);
+    }
+
+    public long getNanos(Event event) {
+        return sum(nanos[event.ordinal()]);
+    }
+
+    private static long sum(long[] values) {
+        long sum = 0;
+        for (long value : values)
+            sum += value;
+        return sum;
+    }
+}
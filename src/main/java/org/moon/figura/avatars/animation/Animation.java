@@ -0,0 +1,344 @@
+package org.moon.figura.avatars.animation;
+
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.util.Mth;
+import org.moon.figura.lua.LuaNotNil;
+import org.moon.figura.lua.LuaWhitelist;
+import org.moon.figura.lua.docs.LuaFunctionOverload;
+import org.moon.figura.lua.docs.LuaMethodDoc;
+import org.moon.figura.lua.docs.LuaTypeDoc;
+import org.terasology.jnlua.LuaRuntimeException;
+
+/**
+ * The playback state of one blockbench animation.
+ * Scripts only change the state, the keyframes are sampled by the AnimationPlayer on the render thread.
+ */
+@LuaWhitelist
+@LuaTypeDoc(
+        name = "Animation",
+        description = "animation"
+)
+public class Animation {
+
+    private final String name;
+    private final boolean override;
+    private final float offset, startDelay, loopDelay;
+    private float length;
+
+    private final LoopMode defaultLoop;
+    private final float defaultBlend;
+
+    private LoopMode loop;
+    private PlayState playState = PlayState.STOPPED;
+    private float time = 0f; //in seconds, since it was played
+    private float speed = 1f;
+    private float blend;
+
+    public Animation(CompoundTag nbt) {
+        this.name = nbt.getString("name");
+        this.override = nbt.getBoolean("ovr");
+        this.length = nbt.getFloat("len");
+        this.offset = nbt.getFloat("off");
+        this.startDelay = nbt.getFloat("sdel");
+        this.loopDelay = nbt.getFloat("ldel");
+        this.defaultBlend = this.blend = nbt.contains("bld") ? nbt.getFloat("bld") : 1f;
+        this.defaultLoop = this.loop = LoopMode.get(nbt.getString("loop"));
+    }
+
+    //stops it and undoes what the scripts changed, for when only they are reloaded
+    void reset() {
+        playState = PlayState.STOPPED;
+        time = 0f;
+        speed = 1f;
+        blend = defaultBlend;
+        loop = defaultLoop;
+    }
+
+    public boolean isOverride() {
+        return override;
+    }
+
+    //animations saved without a length end on their last keyframe
+    void fitLength(float trackLength) {
+        length = Math.max(length, trackLength);
+    }
+
+    /**
+     * Moves the time forward, stopping animations played once when they end
+     * @return if the animation still has to be sampled
+     */
+    boolean advance(float delta) {
+        if (playState == PlayState.PLAYING) {
+            time += delta * speed;
+
+            if (loop == LoopMode.ONCE) {
+                float t = time - startDelay + offset;
+                if (speed >= 0f ? t > length : t < 0f)
+                    stop(this);
+            }
+        }
+        return playState != PlayState.STOPPED;
+    }
+
+    /**
+     * @return the time to sample the keyframes at, or -1 while waiting for the start delay
+     */
+    float getSampleTime() {
+        float t = time;
+
+        //played backwards once, it runs from its end down to its start, the start delay is not waited for
+        if (loop == LoopMode.ONCE && speed < 0f)
+            return Mth.clamp(t - startDelay + offset, 0f, length);
+
+        if (t >= 0f) {
+            if (t < startDelay)
+                return -1f;
+            t -= startDelay;
+        } else if (loop != LoopMode.LOOP) {
+            return -1f;
+        }
+
+        t += offset;
+        if (loop == LoopMode.LOOP) {
+            float period = length + loopDelay;
+            if (period > 0f)
+                t -= period * (float) Math.floor(t / period);
+        }
+        return Mth.clamp(t, 0f, length);
+    }
+
+    //the time a stopped animation plays from, its end when played backwards once
+    private float getStartTime() {
+        return loop == LoopMode.ONCE && speed < 0f ? length + startDelay - offset : 0f;
+    }
+
+    public enum PlayState {
+        STOPPED,
+        PLAYING,
+        PAUSED
+    }
+
+    public enum LoopMode {
+        ONCE,
+        HOLD,
+        LOOP;
+
+        public static LoopMode get(String name) {
+            return switch (name) {
+                case "loop" -> LOOP;
+                case "hold" -> HOLD;
+                default -> ONCE;
+            };
+        }
+    }
+
+    //-- LUA METHODS --//
+
+    @LuaWhitelist
+    @LuaMethodDoc(
+            overloads = @LuaFunctionOverload(
+                    argumentTypes = Animation.class,
+                    argumentNames = "animation"
+            ),
+            description = "animation.play"
+    )
+    public static void play(@LuaNotNil Animation animation) {
+        if (animation.playState == PlayState.PLAYING)
+            return;
+        if (animation.playState == PlayState.STOPPED)
+            animation.time = animation.getStartTime();
+        animation.playState = PlayState.PLAYING;
+    }
+
+    @LuaWhitelist
+    @LuaMethodDoc(
+            overloads = @LuaFunctionOverload(
+                    argumentTypes = Animation.class,
+                    argumentNames = "animation"
+            ),
+            description = "animation.stop"
+    )
+    public static void stop(@LuaNotNil Animation animation) {
+        animation.playState = PlayState.STOPPED;
+        animation.time = 0f;
+    }
+
+    @LuaWhitelist
+    @LuaMethodDoc(
+            overloads = @LuaFunctionOverload(
+                    argumentTypes = Animation.class,
+                    argumentNames = "animation"
+            ),
+            description = "animation.pause"
+    )
+    public static void pause(@LuaNotNil Animation animation) {
+        if (animation.playState == PlayState.PLAYING)
+            animation.playState = PlayState.PAUSED;
+    }
+
+    @LuaWhitelist
+    @LuaMethodDoc(
+            overloads = @LuaFunctionOverload(
+                    argumentTypes = Animation.class,
+                    argumentNames = "animation"
+            ),
+            description = "animation.restart"
+    )
+    public static void restart(@LuaNotNil Animation animation) {
+        animation.time = animation.getStartTime();
+        animation.playState = PlayState.PLAYING;
+    }
+
+    @LuaWhitelist
+    @LuaMethodDoc(
+            overloads = @LuaFunctionOverload(
+                    argumentTypes = Animation.class,
+                    argumentNames = "animation"
+            ),
+            description = "animation.is_playing"
+    )
+    public static boolean isPlaying(@LuaNotNil Animation animation) {
+        return animation.playState == PlayState.PLAYING;
+    }
+
+    @LuaWhitelist
+    @LuaMethodDoc(
+            overloads = @LuaFunctionOverload(
+                    argumentTypes = Animation.class,
+                    argumentNames = "animation"
+            ),
+            description = "animation.get_play_state"
+    )
+    public static String getPlayState(@LuaNotNil Animation animation) {
+        return animation.playState.name();
+    }
+
+    @LuaWhitelist
+    @LuaMethodDoc(
+            overloads = @LuaFunctionOverload(
+                    argumentTypes = {Animation.class, Float.class},
+                    argumentNames = {"animation", "speed"}
+            ),
+            description = "animation.set_speed"
+    )
+    public static void setSpeed(@LuaNotNil Animation animation, Float speed) {
+        animation.speed = speed == null ? 1f : speed;
+    }
+
+    @LuaWhitelist
+    @LuaMethodDoc(
+            overloads = @LuaFunctionOverload(
+                    argumentTypes = Animation.class,
+                    argumentNames = "animation"
+            ),
+            description = "animation.get_speed"
+    )
+    public static float getSpeed(@LuaNotNil Animation animation) {
+        return animation.speed;
+    }
+
+    @LuaWhitelist
+    @LuaMethodDoc(
+            overloads = @LuaFunctionOverload(
+                    argumentTypes = {Animation.class, Float.class},
+                    argumentNames = {"animation", "blend"}
+            ),
+            description = "animation.set_blend"
+    )
+    public static void setBlend(@LuaNotNil Animation animation, Float blend) {
+        animation.blend = blend == null ? 1f : blend;
+    }
+
+    @LuaWhitelist
+    @LuaMethodDoc(
+            overloads = @LuaFunctionOverload(
+                    argumentTypes = Animation.class,
+                    argumentNames = "animation"
+            ),
+            description = "animation.get_blend"
+    )
+    public static float getBlend(@LuaNotNil Animation animation) {
+        return animation.blend;
+    }
+
+    @LuaWhitelist
+    @LuaMethodDoc(
+            overloads = @LuaFunctionOverload(
+                    argumentTypes = {Animation.class, Float.class},
+                    argumentNames = {"animation", "time"}
+            ),
+            description = "animation.set_time"
+    )
+    public static void setTime(@LuaNotNil Animation animation, @LuaNotNil Float time) {
+        animation.time = time;
+    }
+
+    @LuaWhitelist
+    @LuaMethodDoc(
+            overloads = @LuaFunctionOverload(
+                    argumentTypes = Animation.class,
+                    argumentNames = "animation"
+            ),
+            description = "animation.get_time"
+    )
+    public static float getTime(@LuaNotNil Animation animation) {
+        return animation.time;
+    }
+
+    @LuaWhitelist
+    @LuaMethodDoc(
+            overloads = @LuaFunctionOverload(
+                    argumentTypes = {Animation.class, String.class},
+                    argumentNames = {"animation", "loop"}
+            ),
+            description = "animation.set_loop"
+    )
+    public static void setLoop(@LuaNotNil Animation animation, @LuaNotNil String loop) {
+        try {
+            animation.loop = LoopMode.valueOf(loop.toUpperCase());
+        } catch (Exception ignored) {
+            throw new LuaRuntimeException("Illegal LoopMode: \"" + loop + "\".");
+        }
+    }
+
+    @LuaWhitelist
+    @LuaMethodDoc(
+            overloads = @LuaFunctionOverload(
+                    argumentTypes = Animation.class,
+                    argumentNames = "animation"
+            ),
+            description = "animation.get_loop"
+    )
+    public static String getLoop(@LuaNotNil Animation animation) {
+        return animation.loop.name();
+    }
+
+    @LuaWhitelist
+    @LuaMethodDoc(
+            overloads = @LuaFunctionOverload(
+                    argumentTypes = Animation.class,
+                    argumentNames = "animation"
+            ),
+            description = "animation.get_length"
+    )
+    public static float getLength(@LuaNotNil Animation animation) {
+        return animation.length;
+    }
+
+    @LuaWhitelist
+    @LuaMethodDoc(
+            overloads = @LuaFunctionOverload(
+                    argumentTypes = Animation.class,
+                    argumentNames = "animation"
+            ),
+            description = "animation.get_name"
+    )
+    public static String getName(@LuaNotNil Animation animation) {
+        return animation.name;
+    }
+
+    @Override
+    public String toString() {
+        return name + " (Animation)";
+    }
+}
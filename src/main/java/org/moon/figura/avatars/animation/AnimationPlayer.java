@@ -0,0 +1,139 @@
+package org.moon.figura.avatars.animation;
+
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.ListTag;
+import net.minecraft.nbt.Tag;
+import org.moon.figura.avatars.model.FiguraModelPart;
+import org.moon.figura.avatars.model.PartCustomization;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Plays the animations of an avatar, applying their keyframes to the parts once per frame.
+ * Runs on the render thread without calling into lua, scripts only change the animation states.
+ */
+public class AnimationPlayer {
+
+    private final List<Animation> animations;
+    private final List<FiguraModelPart> animatedParts = new ArrayList<>();
+
+    private final boolean[] active;
+    private final float[] sampleTimes;
+    private final float[] sample = new float[3];
+    private final float[][] channels = new float[3][3];
+
+    private int lastFrame = -1;
+    private long lastNanos = -1;
+    private boolean wasPlaying = false;
+
+    /**
+     * @param nbt the "animations" list of the avatar
+     * @param root the model tree, holding the compiled tracks of each part
+     */
+    public AnimationPlayer(ListTag nbt, FiguraModelPart root) {
+        List<Animation> animations = new ArrayList<>(nbt.size());
+        for (Tag tag : nbt)
+            animations.add(new Animation((CompoundTag) tag));
+        this.animations = Collections.unmodifiableList(animations);
+
+        active = new boolean[animations.size()];
+        sampleTimes = new float[animations.size()];
+
+        if (root != null)
+            collectParts(root);
+    }
+
+    private void collectParts(FiguraModelPart part) {
+        AnimationTrack[] tracks = part.getAnimationTracks();
+        if (tracks != null) {
+            animatedParts.add(part);
+            for (AnimationTrack track : tracks)
+                if (track.animation < animations.size())
+                    animations.get(track.animation).fitLength(track.getLength());
+        }
+
+        for (FiguraModelPart child : part.children)
+            collectParts(child);
+    }
+
+    public List<Animation> getAnimations() {
+        return animations;
+    }
+
+    //stops everything, the parts are put back by resetting them
+    public void reset() {
+        for (Animation animation : animations)
+            animation.reset();
+        lastNanos = -1;
+        wasPlaying = false;
+    }
+
+    /**
+     * Advances the animations and applies them, only the first call of each frame does anything
+     */
+    public void update(int frame) {
+        if (frame == lastFrame || animations.isEmpty())
+            return;
+        lastFrame = frame;
+
+        long now = System.nanoTime();
+        float delta = lastNanos == -1 ? 0f : (now - lastNanos) / 1e9f;
+        lastNanos = now;
+
+        boolean playing = false;
+        for (int i = 0; i < active.length; i++) {
+            Animation animation = animations.get(i);
+            active[i] = animation.advance(delta);
+            sampleTimes[i] = active[i] ? animation.getSampleTime() : -1f;
+            playing |= active[i];
+        }
+
+        //once everything stopped the parts are put back a single time, then left alone
+        if (!playing && !wasPlaying)
+            return;
+        wasPlaying = playing;
+
+        for (FiguraModelPart part : animatedParts)
+            apply(part);
+    }
+
+    private void apply(FiguraModelPart part) {
+        float[] pos = channels[AnimationTrack.POSITION];
+        float[] rot = channels[AnimationTrack.ROTATION];
+        float[] scale = channels[AnimationTrack.SCALE];
+        for (int i = 0; i < 3; i++) {
+            pos[i] = 0f;
+            rot[i] = 0f;
+            scale[i] = 1f;
+        }
+
+        for (AnimationTrack track : part.getAnimationTracks()) {
+            if (track.animation >= active.length || sampleTimes[track.animation] < 0f)
+                continue;
+
+            Animation animation = animations.get(track.animation);
+            float blend = Animation.getBlend(animation);
+            float[] channel = channels[track.channel];
+            boolean isScale = track.channel == AnimationTrack.SCALE;
+
+            //tracks are in animation order, so an override only drops what came before it
+            if (animation.isOverride()) {
+                float identity = isScale ? 1f : 0f;
+                channel[0] = channel[1] = channel[2] = identity;
+            }
+
+            track.sample(sampleTimes[track.animation], sample);
+            for (int i = 0; i < 3; i++) {
+                if (isScale)
+                    channel[i] *= 1f + (sample[i] - 1f) * blend;
+                else
+                    channel[i] += sample[i] * blend;
+            }
+        }
+
+        PartCustomization customization = part.customization;
+        customization.setAnimation(pos[0], pos[1], pos[2], rot[0], rot[1], rot[2], scale[0], scale[1], scale[2]);
+    }
+}
@@ -0,0 +1,180 @@
+package org.moon.figura.avatars.animation;
+
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.ListTag;
+import net.minecraft.nbt.Tag;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The keyframes of one channel of one part in one animation, compiled into flat arrays
+ * so sampling them every frame does not touch the nbt or allocate anything.
+ */
+public class AnimationTrack {
+
+    public static final int POSITION = 0, ROTATION = 1, SCALE = 2;
+    private static final byte LINEAR = 0, CATMULLROM = 1, STEP = 2;
+
+    public final int animation;
+    public final int channel;
+
+    //per keyframe, sorted by time
+    private final float[] times;
+    private final byte[] interpolation;
+    //xyz per keyframe, the value going into the keyframe and the value leaving it (same unless the keyframe has an end value)
+    private final float[] pre, post;
+
+    private AnimationTrack(int animation, int channel, float[] times, byte[] interpolation, float[] pre, float[] post) {
+        this.animation = animation;
+        this.channel = channel;
+        this.times = times;
+        this.interpolation = interpolation;
+        this.pre = pre;
+        this.post = post;
+    }
+
+    public float getLength() {
+        return times[times.length - 1];
+    }
+
+    /**
+     * Samples the track at the given time, into the first 3 values of out
+     */
+    public void sample(float time, float[] out) {
+        int last = times.length - 1;
+        if (time <= times[0]) {
+            System.arraycopy(pre, 0, out, 0, 3);
+            return;
+        }
+        if (time >= times[last]) {
+            System.arraycopy(post, last * 3, out, 0, 3);
+            return;
+        }
+
+        //the keyframe before the time, exact hits are the insertion point
+        int i = Arrays.binarySearch(times, time);
+        if (i < 0)
+            i = -i - 2;
+
+        if (interpolation[i] == STEP) {
+            System.arraycopy(post, i * 3, out, 0, 3);
+            return;
+        }
+
+        float t = (time - times[i]) / (times[i + 1] - times[i]);
+        boolean smooth = interpolation[i] == CATMULLROM || interpolation[i + 1] == CATMULLROM;
+        for (int axis = 0; axis < 3; axis++) {
+            float p1 = post[i * 3 + axis];
+            float p2 = pre[(i + 1) * 3 + axis];
+            if (!smooth) {
+                out[axis] = p1 + (p2 - p1) * t;
+                continue;
+            }
+
+            //the keyframes around the segment shape the curve, the ends are repeated when missing
+            float p0 = i > 0 ? post[(i - 1) * 3 + axis] : p1;
+            float p3 = i + 2 <= last ? pre[(i + 2) * 3 + axis] : p2;
+            out[axis] = catmullRom(t, p0, p1, p2, p3);
+        }
+    }
+
+    private static float catmullRom(float t, float p0, float p1, float p2, float p3) {
+        float t2 = t * t;
+        float t3 = t2 * t;
+        return 0.5f * (2f * p1 + (p2 - p0) * t + (2f * p0 - 5f * p1 + 4f * p2 - p3) * t2 + (3f * p1 - p0 - 3f * p2 + p3) * t3);
+    }
+
+    // -- compiling -- //
+
+    /**
+     * Compiles the "anim" list of a part, returns null if the part has no animated channels
+     */
+    public static AnimationTrack[] read(ListTag animations) {
+        List<AnimationTrack> tracks = new ArrayList<>();
+        for (Tag tag : animations) {
+            CompoundTag animation = (CompoundTag) tag;
+            int id = animation.getInt("id");
+
+            //split the keyframes by channel
+            List<List<CompoundTag>> channels = List.of(new ArrayList<>(), new ArrayList<>(), new ArrayList<>());
+            for (Tag keyframe : animation.getList("kf", Tag.TAG_COMPOUND)) {
+                CompoundTag compound = (CompoundTag) keyframe;
+                int channel = getChannel(compound.getString("ch"));
+                if (channel != -1)
+                    channels.get(channel).add(compound);
+            }
+
+            for (int channel = 0; channel < 3; channel++) {
+                List<CompoundTag> keyframes = channels.get(channel);
+                if (!keyframes.isEmpty())
+                    tracks.add(compile(id, channel, keyframes));
+            }
+        }
+
+        if (tracks.isEmpty())
+            return null;
+
+        //in animation order, so the override of a later animation replaces the earlier ones
+        tracks.sort(Comparator.comparingInt(track -> track.animation));
+        return tracks.toArray(new AnimationTrack[0]);
+    }
+
+    private static AnimationTrack compile(int animation, int channel, List<CompoundTag> keyframes) {
+        keyframes.sort(Comparator.comparingDouble(keyframe -> keyframe.getFloat("time")));
+
+        int size = keyframes.size();
+        float[] times = new float[size];
+        byte[] interpolation = new byte[size];
+        float[] pre = new float[size * 3];
+        float[] post = new float[size * 3];
+
+        for (int i = 0; i < size; i++) {
+            CompoundTag keyframe = keyframes.get(i);
+            times[i] = keyframe.getFloat("time");
+            interpolation[i] = getInterpolation(keyframe.getString("int"));
+            readValue(keyframe.getList("pre", Tag.TAG_FLOAT), channel, pre, i * 3);
+            if (keyframe.contains("end"))
+                readValue(keyframe.getList("end", Tag.TAG_FLOAT), channel, post, i * 3);
+            else
+                System.arraycopy(pre, i * 3, post, i * 3, 3);
+        }
+
+        return new AnimationTrack(animation, channel, times, interpolation, pre, post);
+    }
+
+    //blockbench applies keyframes with x and y flipped against the group transforms, except for scale
+    private static void readValue(ListTag list, int channel, float[] target, int offset) {
+        float x = list.getFloat(0), y = list.getFloat(1), z = list.getFloat(2);
+        switch (channel) {
+            case POSITION -> x = -x;
+            case ROTATION -> {
+                x = -x;
+                y = -y;
+            }
+        }
+        target[offset] = x;
+        target[offset + 1] = y;
+        target[offset + 2] = z;
+    }
+
+    private static int getChannel(String channel) {
+        return switch (channel) {
+            case "position" -> POSITION;
+            case "rotation" -> ROTATION;
+            case "scale" -> SCALE;
+            default -> -1;
+        };
+    }
+
+    //bezier keyframes are played as linear
+    private static byte getInterpolation(String interpolation) {
+        return switch (interpolation) {
+            case "catmullrom" -> CATMULLROM;
+            case "step" -> STEP;
+            default -> LINEAR;
+        };
+    }
+}
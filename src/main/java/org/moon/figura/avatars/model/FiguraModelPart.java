@@ -1,6 +1,7 @@
 package org.moon.figura.avatars.model;
 
 import com.google.common.collect.ImmutableMap;
+import it.unimi.dsi.fastutil.floats.FloatArrays;
 import net.minecraft.client.model.ElytraModel;
 import net.minecraft.client.model.EntityModel;
 import net.minecraft.client.model.HumanoidModel;
@@ -11,8 +12,10 @@ import net.minecraft.nbt.CompoundTag;
 import net.minecraft.nbt.ListTag;
 import net.minecraft.nbt.Tag;
 import net.minecraft.util.Mth;
+import org.moon.figura.avatars.animation.AnimationTrack;
 import org.moon.figura.avatars.model.rendering.FiguraImmediateBuffer;
 import org.moon.figura.avatars.model.rendering.ImmediateAvatarRenderer;
+import org.moon.figura.avatars.model.rendering.PrebuiltGeometry;
 import org.moon.figura.avatars.model.rendering.texture.FiguraTextureSet;
 import org.moon.figura.avatars.vanilla.VanillaPartOffsetManager;
 import org.moon.figura.lua.LuaNotNil;
@@ -53,22 +56,134 @@ public class FiguraModelPart {
     public final List<FiguraModelPart> children;
 
     private List<Integer> facesByTexture;
+    private float[][] faceAreas; //Per texture, matching the order of the faces in the buffers
+    private float[][] sortedFaceAreas; //Per texture, biggest first, only for counting
+    private float areaScale = 1f; //How much the composed matrices scale the faces of this part
 
     private int textureWidth, textureHeight; //If the part has multiple textures, then these are -1.
 
+    private AnimationTrack[] animationTracks; //Null if no animation moves this part
+
+    //As read from the model, to undo what the scripts changed when only they are reloaded
+    private final PartCustomization defaultCustomization = PartCustomization.of();
+    private ParentType defaultParentType = ParentType.None;
+
+    //The matrices of this part multiplied with all of its parents', relative to the model root
+    //Kept between frames, and only rebuilt when this part or one above it changed
+    private final FiguraMat4 composedPositionMatrix = FiguraMat4.of();
+    private final FiguraMat3 composedNormalMatrix = FiguraMat3.of();
+    private final FiguraMat3 composedUVMatrix = FiguraMat3.of();
+
     public void pushVerticesImmediate(ImmediateAvatarRenderer avatarRenderer, int[] remainingComplexity) {
+        float minArea = avatarRenderer.getMinFaceArea();
         for (int i = 0; i < facesByTexture.size(); i++) {
             if (remainingComplexity[0] <= 0)
                 return;
-            remainingComplexity[0] -= facesByTexture.get(i);
-            avatarRenderer.pushFaces(i, facesByTexture.get(i) + Math.min(remainingComplexity[0], 0), remainingComplexity);
+
+            int total = facesByTexture.get(i);
+            if (getFaceCount(i, minArea) == total) {
+                remainingComplexity[0] -= total;
+                avatarRenderer.pushFaces(i, total + Math.min(remainingComplexity[0], 0), remainingComplexity);
+                continue;
+            }
+
+            //Leave out the faces too small for this detail level, drawing the others in runs so they keep their order
+            float[] areas = faceAreas[i];
+            float scaledMinArea = minArea / areaScale;
+            int face = 0;
+            while (face < total) {
+                int start = face;
+                while (face < total && areas[face] < scaledMinArea)
+                    face++;
+                if (face > start)
+                    avatarRenderer.skipFaces(i, face - start);
+
+                start = face;
+                while (face < total && areas[face] >= scaledMinArea)
+                    face++;
+                int run = face - start;
+                if (run == 0)
+                    continue;
+
+                if (remainingComplexity[0] <= 0)
+                    return;
+                remainingComplexity[0] -= run;
+                avatarRenderer.pushFaces(i, run + Math.min(remainingComplexity[0], 0), remainingComplexity);
+            }
         }
     }
 
-    public void applyVanillaTransforms(EntityModel<?> vanillaModel) {
+    /**
+     * @return How many faces of this part, using that texture, are at least minArea big once scaled by the part
+     */
+    public int getFaceCount(int texIndex, float minArea) {
+        int total = facesByTexture.get(texIndex);
+        if (minArea <= 0 || total == 0)
+            return total;
+
+        //Binary search, the areas are sorted biggest first
+        float[] areas = sortedFaceAreas[texIndex];
+        float scaledMinArea = minArea / areaScale;
+        int low = 0, high = areas.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (areas[mid] >= scaledMinArea)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    public List<Integer> getFacesByTexture() {
+        return facesByTexture;
+    }
+
+    public AnimationTrack[] getAnimationTracks() {
+        return animationTracks;
+    }
+
+    public float[][] getFaceAreas() {
+        return faceAreas;
+    }
+
+    public float getAreaScale() {
+        return areaScale;
+    }
+
+    /**
+     * @return How many faces this part and all its children draw at a detail level
+     */
+    public int countFaces(float minArea) {
+        int count = 0;
+        for (int i = 0; i < facesByTexture.size(); i++)
+            count += getFaceCount(i, minArea);
+        for (FiguraModelPart child : children)
+            count += child.countFaces(minArea);
+        return count;
+    }
+
+    /**
+     * Follows the pose of the vanilla part this part is parented to, from whichever model has it.
+     * Parts without one in either model are put back to their own pose.
+     */
+    public void applyVanillaTransforms(EntityModel<?> entityModel, EntityModel<?> elytraModel) {
         if (!parentType.vanilla) return;
+        ModelPart part = getVanillaPart(entityModel);
+        if (part != null) {
+            applyVanillaTransform(entityModel, parentType, part);
+            return;
+        }
+        part = getVanillaPart(elytraModel);
+        if (part != null)
+            applyVanillaTransform(elytraModel, parentType, part);
+        else
+            resetVanillaTransforms();
+    }
+
+    private ModelPart getVanillaPart(EntityModel<?> vanillaModel) {
         if (vanillaModel instanceof HumanoidModel<?> humanoid) {
-            applyVanillaTransform(vanillaModel, parentType, switch (parentType) {
+            return switch (parentType) {
                 case Head -> humanoid.head;
                 case Body -> humanoid.body;
                 case LeftArm -> humanoid.leftArm;
@@ -76,15 +191,16 @@ public class FiguraModelPart {
                 case LeftLeg -> humanoid.leftLeg;
                 case RightLeg -> humanoid.rightLeg;
                 default -> null;
-            });
+            };
         }
         else if (vanillaModel instanceof ElytraModel<?> elytra) {
-            applyVanillaTransform(vanillaModel, parentType, switch (parentType) {
+            return switch (parentType) {
                 case LeftElytra -> ((ElytraModelAccessor) elytra).getLeftWing();
                 case RightElytra -> ((ElytraModelAccessor) elytra).getRightWing();
                 default -> null;
-            });
+            };
         }
+        return null;
     }
 
     @Override
@@ -117,8 +233,80 @@ public class FiguraModelPart {
         }
     }
 
+    /**
+     * Recalculates the matrices of this part if needed, and composes them with the parent's if anything changed
+     * @param parentChanged if the composed matrices of the parent changed since this part last used them
+     * @return if the composed matrices of this part changed, in which case the children have to compose theirs again
+     */
+    public boolean updateComposedMatrices(boolean parentChanged) {
+        customization.recalculate();
+        if (!parentChanged && !customization.matricesChanged)
+            return false;
+        customization.matricesChanged = false;
+
+        composedPositionMatrix.set(customization.positionMatrix);
+        composedNormalMatrix.set(customization.normalMatrix);
+        composedUVMatrix.set(customization.uvMatrix);
+        if (parent != null) {
+            composedPositionMatrix.multiply(parent.composedPositionMatrix);
+            composedNormalMatrix.multiply(parent.composedNormalMatrix);
+            composedUVMatrix.multiply(parent.composedUVMatrix);
+        }
+
+        //The same scale on every axis grows the areas by its square, det is the cube of it
+        areaScale = (float) Math.pow(Math.abs(composedPositionMatrix.det()), 2.0 / 3.0);
+        return true;
+    }
+
+    /**
+     * Sets the matrices of the target to the composed ones of this part, placed under the root transform
+     */
+    public void loadComposedMatrices(PartCustomization root, PartCustomization target) {
+        target.positionMatrix.set(root.positionMatrix);
+        target.positionMatrix.rightMultiply(composedPositionMatrix);
+        target.normalMatrix.set(root.normalMatrix);
+        target.normalMatrix.rightMultiply(composedNormalMatrix);
+        target.uvMatrix.set(root.uvMatrix);
+        target.uvMatrix.rightMultiply(composedUVMatrix);
+    }
+
+    /**
+     * Stores the transformation from part space to world space, for scripts and the pivot debug boxes
+     * @param rootToWorld the transformation from the model root to world space
+     */
+    public void savePartToWorldMatrix(FiguraMat4 rootToWorld) {
+        savedPartToWorldMat.set(rootToWorld);
+        savedPartToWorldMat.rightMultiply(composedPositionMatrix);
+
+        FiguraVec3 piv = customization.getPivot();
+        FiguraMat4 translation = FiguraMat4.createTranslationMatrix(piv);
+        savedPartToWorldMat.rightMultiply(translation);
+
+        piv.free();
+        translation.free();
+    }
+
+    //Stores the current transforms of this part and its children, to blend from them until the next script run
+    public void snapshotTransforms() {
+        customization.snapshot();
+        for (FiguraModelPart child : children)
+            child.snapshotTransforms();
+    }
+
+    //Puts this part and its children back as they were read, without the changes of the scripts
+    public void resetToDefaults() {
+        customization.set(defaultCustomization);
+        parentType = defaultParentType;
+        for (FiguraModelPart child : children)
+            child.resetToDefaults();
+    }
+
     public void clean() {
         customization.free();
+        defaultCustomization.free();
+        composedPositionMatrix.free();
+        composedNormalMatrix.free();
+        composedUVMatrix.free();
         for (FiguraModelPart child : children)
             child.clean();
     }
@@ -577,6 +765,7 @@ public class FiguraModelPart {
         modelPart.customization.uvMatrix.reset();
         FiguraVec2 uv = LuaUtils.parseVec2("setUV", x, y);
         modelPart.customization.uvMatrix.translate(uv.x, uv.y);
+        modelPart.customization.matricesChanged = true;
         uv.free();
     }
 
@@ -602,6 +791,7 @@ public class FiguraModelPart {
         FiguraVec2 uv = LuaUtils.parseVec2("setUVPixels", x, y);
         uv.divide(modelPart.textureWidth, modelPart.textureHeight);
         modelPart.customization.uvMatrix.translate(uv.x, uv.y);
+        modelPart.customization.matricesChanged = true;
         uv.free();
     }
 
@@ -615,6 +805,7 @@ public class FiguraModelPart {
     )
     public static void setUVMatrix(@LuaNotNil FiguraModelPart modelPart, @LuaNotNil FiguraMat3 matrix) {
         modelPart.customization.uvMatrix.set(matrix);
+        modelPart.customization.matricesChanged = true;
     }
 
     @LuaWhitelist
@@ -770,10 +961,17 @@ public class FiguraModelPart {
     }
 
     public static FiguraModelPart read(CompoundTag partCompound, List<FiguraImmediateBuffer.Builder> bufferBuilders, List<FiguraTextureSet> textureSets) {
-        return read(partCompound, bufferBuilders, new int[] {0}, textureSets);
+        return read(partCompound, bufferBuilders, null, new int[] {0}, textureSets);
     }
 
-    private static FiguraModelPart read(CompoundTag partCompound, List<FiguraImmediateBuffer.Builder> bufferBuilders, int[] index, List<FiguraTextureSet> textureSets) {
+    /**
+     * Reads the parts without generating any vertices, the face tables come from the prebuilt geometry instead
+     */
+    public static FiguraModelPart read(CompoundTag partCompound, PrebuiltGeometry geometry, List<FiguraTextureSet> textureSets) {
+        return read(partCompound, new ArrayList<>(0), geometry, new int[] {0}, textureSets);
+    }
+
+    private static FiguraModelPart read(CompoundTag partCompound, List<FiguraImmediateBuffer.Builder> bufferBuilders, PrebuiltGeometry geometry, int[] index, List<FiguraTextureSet> textureSets) {
         //Read name
         String name = partCompound.getString("name");
 
@@ -803,31 +1001,61 @@ public class FiguraModelPart {
         //Read vertex data
         int newIndex = -1;
         List<Integer> facesByTexture = new ArrayList<>(0);
-        if (hasCubeData(partCompound)) {
-            readCuboid(facesByTexture, bufferBuilders, partCompound);
-            customization.partType = PartCustomization.PartType.CUBE;
-            newIndex = index[0]++;
-        } else if (hasMeshData(partCompound)) {
-            //TODO: smooth normals
-            readMesh(facesByTexture, bufferBuilders, partCompound);
-            customization.partType = PartCustomization.PartType.MESH;
+        int[] firstVertices = new int[bufferBuilders.size()];
+        for (int i = 0; i < firstVertices.length; i++)
+            firstVertices[i] = bufferBuilders.get(i).getSize();
+        boolean cube = hasCubeData(partCompound);
+        if (cube || hasMeshData(partCompound)) {
+            customization.partType = cube ? PartCustomization.PartType.CUBE : PartCustomization.PartType.MESH;
             newIndex = index[0]++;
         }
 
+        float[][] faceAreas;
+        if (geometry != null) {
+            PrebuiltGeometry.PartFaces faces = geometry.getPart(newIndex);
+            for (int count : faces.facesByTexture())
+                facesByTexture.add(count);
+            faceAreas = faces.faceAreas();
+        } else {
+            if (cube)
+                readCuboid(facesByTexture, bufferBuilders, partCompound);
+            else if (newIndex != -1)
+                readMesh(facesByTexture, bufferBuilders, partCompound); //TODO: smooth normals
+
+            //Measure the faces for the detail levels, builders created by this part start empty
+            faceAreas = new float[facesByTexture.size()][];
+            for (int i = 0; i < faceAreas.length; i++) {
+                int firstVertex = i < firstVertices.length ? firstVertices[i] : 0;
+                faceAreas[i] = bufferBuilders.get(i).measureFaceAreas(firstVertex);
+            }
+        }
+
         //Read children
         ArrayList<FiguraModelPart> children = new ArrayList<>(0);
         if (partCompound.contains("chld")) {
             ListTag listTag = partCompound.getList("chld", Tag.TAG_COMPOUND);
             for (Tag tag : listTag)
-                children.add(read((CompoundTag) tag, bufferBuilders, index, textureSets));
+                children.add(read((CompoundTag) tag, bufferBuilders, geometry, index, textureSets));
         }
 
         FiguraModelPart result = new FiguraModelPart(name, customization, newIndex, children);
         result.facesByTexture = facesByTexture;
+        result.faceAreas = faceAreas;
+        result.sortedFaceAreas = new float[faceAreas.length][];
+        for (int i = 0; i < faceAreas.length; i++) {
+            float[] sorted = faceAreas[i].clone();
+            Arrays.sort(sorted);
+            FloatArrays.reverse(sorted);
+            result.sortedFaceAreas[i] = sorted;
+        }
         storeTexSize(result, textureSets);
         if (partCompound.contains("pt"))
             result.parentType = ParentType.valueOf(partCompound.getString("pt"));
+        if (partCompound.contains("anim"))
+            result.animationTracks = AnimationTrack.read(partCompound.getList("anim", Tag.TAG_COMPOUND));
 
+        result.defaultCustomization.set(customization);
+        result.defaultParentType = result.parentType;
         return result;
     }
 
@@ -985,11 +1213,12 @@ public class FiguraModelPart {
             FiguraVec2.of(0, 0)
     };
 
-    private static final FiguraVec3 from = FiguraVec3.of();
-    private static final FiguraVec3 to = FiguraVec3.of();
-    private static final FiguraVec3 ftDiff = FiguraVec3.of();
-
+    //Avatars are read on the loader threads, so no static scratch vectors in here
     private static void readCuboid(List<Integer> facesByTexture, List<FiguraImmediateBuffer.Builder> builders, CompoundTag data) {
+        FiguraVec3 from = FiguraVec3.of();
+        FiguraVec3 to = FiguraVec3.of();
+        FiguraVec3 ftDiff = FiguraVec3.of();
+
         //Read from and to
         readVec3(from, data, "f");
         readVec3(to, data, "t");
@@ -1006,14 +1235,19 @@ public class FiguraModelPart {
         ftDiff.subtract(from);
 
         //Iterate over faces, add them
+        FiguraVec3 tempPos = FiguraVec3.of();
+        FiguraVec4 uv = FiguraVec4.of();
         for (String direction : faceData.keySet())
-            readFace(data.getCompound("cube_data"), facesByTexture, builders, direction);
-    }
+            readFace(data.getCompound("cube_data"), facesByTexture, builders, direction, from, ftDiff, tempPos, uv);
 
-    private static final FiguraVec3 tempPos = FiguraVec3.of();
-    private static final FiguraVec4 uv = FiguraVec4.of();
+        from.free();
+        to.free();
+        ftDiff.free();
+        tempPos.free();
+        uv.free();
+    }
 
-    private static void readFace(CompoundTag faces, List<Integer> facesByTexture, List<FiguraImmediateBuffer.Builder> builders, String direction) {
+    private static void readFace(CompoundTag faces, List<Integer> facesByTexture, List<FiguraImmediateBuffer.Builder> builders, String direction, FiguraVec3 from, FiguraVec3 ftDiff, FiguraVec3 tempPos, FiguraVec4 uv) {
         if (faces.contains(direction)) {
             CompoundTag face = faces.getCompound(direction);
             short texId = face.getShort("tex");
@@ -1059,9 +1293,9 @@ public class FiguraModelPart {
             readMeshRegular(facesByTexture, builders, meshData);
     }
 
-    private static final FiguraVec3 p1 = FiguraVec3.of(), p2 = FiguraVec3.of(), p3 = FiguraVec3.of();
-
     private static void readMeshRegular(List<Integer> facesByTexture, List<FiguraImmediateBuffer.Builder> builders, CompoundTag meshData) {
+        FiguraVec3 p1 = FiguraVec3.of(), p2 = FiguraVec3.of(), p3 = FiguraVec3.of();
+
         ListTag verts = meshData.getList("vtx", Tag.TAG_FLOAT);
         ListTag uvs = meshData.getList("uvs", Tag.TAG_FLOAT);
         ListTag tex = meshData.getList("tex", Tag.TAG_SHORT);
@@ -1130,6 +1364,10 @@ public class FiguraModelPart {
             vi += numVerts;
             uvi += 2*numVerts;
         }
+
+        p1.free();
+        p2.free();
+        p3.free();
     }
 
     private static void readMeshSmooth(List<Integer> facesByTexture, List<FiguraImmediateBuffer.Builder> builders, CompoundTag meshData) {
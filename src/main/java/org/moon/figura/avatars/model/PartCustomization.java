@@ -1,5 +1,6 @@
 package org.moon.figura.avatars.model;
 
+import net.minecraft.util.Mth;
 import org.moon.figura.avatars.model.rendering.texture.FiguraTextureSet;
 import org.moon.figura.math.matrix.FiguraMat3;
 import org.moon.figura.math.matrix.FiguraMat4;
@@ -23,6 +24,8 @@ public class PartCustomization implements CachedType {
     public FiguraMat3 normalMatrix = FiguraMat3.of();
 
     public boolean needsMatrixRecalculation = true;
+    //Set whenever one of the matrices changes, cleared once the part composed them with its parents
+    public boolean matricesChanged = true;
     public Boolean visible = null;
 
     private FiguraVec3 position = FiguraVec3.of();
@@ -35,6 +38,17 @@ public class PartCustomization implements CachedType {
     private FiguraVec3 bonusPos = FiguraVec3.of();
     private FiguraVec3 bonusRot = FiguraVec3.of();
 
+    //Transforms from before the last script run, blended into the current ones while render events are decimated
+    private FiguraVec3 prevPosition = FiguraVec3.of();
+    private FiguraVec3 prevRotation = FiguraVec3.of();
+    private FiguraVec3 prevScale = FiguraVec3.of(1, 1, 1);
+    private float interpolation = 1f;
+
+    //Applied on top of everything else by the animation player, added to the position and rotation and multiplied with the scale
+    private FiguraVec3 animPosition = FiguraVec3.of();
+    private FiguraVec3 animRotation = FiguraVec3.of();
+    private FiguraVec3 animScale = FiguraVec3.of(1, 1, 1);
+
     public FiguraVec3 color = FiguraVec3.of(1, 1, 1);
     public Float alpha = null;
     public Integer light = null;
@@ -44,39 +58,123 @@ public class PartCustomization implements CachedType {
      */
     public void recalculate() {
         if (needsMatrixRecalculation) {
+            double px = position.x, py = position.y, pz = position.z;
+            double rx = rotation.x, ry = rotation.y, rz = rotation.z;
+            double sx = scale.x, sy = scale.y, sz = scale.z;
+            if (interpolation < 1f) {
+                px = Mth.lerp(interpolation, prevPosition.x, px);
+                py = Mth.lerp(interpolation, prevPosition.y, py);
+                pz = Mth.lerp(interpolation, prevPosition.z, pz);
+                //the short way around, so going from 350 to 10 doesn't spin backwards through 180
+                rx = prevRotation.x + interpolation * Mth.wrapDegrees(rx - prevRotation.x);
+                ry = prevRotation.y + interpolation * Mth.wrapDegrees(ry - prevRotation.y);
+                rz = prevRotation.z + interpolation * Mth.wrapDegrees(rz - prevRotation.z);
+                sx = Mth.lerp(interpolation, prevScale.x, sx);
+                sy = Mth.lerp(interpolation, prevScale.y, sy);
+                sz = Mth.lerp(interpolation, prevScale.z, sz);
+            }
+            px += animPosition.x; py += animPosition.y; pz += animPosition.z;
+            rx += animRotation.x; ry += animRotation.y; rz += animRotation.z;
+            sx *= animScale.x; sy *= animScale.y; sz *= animScale.z;
+
             positionMatrix.reset();
             positionMatrix.translate(-pivot.x - bonusPivot.x, -pivot.y - bonusPivot.y, -pivot.z - bonusPivot.z);
-            positionMatrix.scale(scale.x, scale.y, scale.z);
-            positionMatrix.translate(position.x + bonusPos.x, position.y + bonusPos.y, position.z + bonusPos.z);
+            positionMatrix.scale(sx, sy, sz);
+            positionMatrix.translate(px + bonusPos.x, py + bonusPos.y, pz + bonusPos.z);
 
             if (partType == PartType.MESH) {
-                positionMatrix.rotateZ(rotation.z + bonusRot.z);
-                positionMatrix.rotateY(rotation.y + bonusRot.y);
-                positionMatrix.rotateX(rotation.x + bonusRot.x);
+                positionMatrix.rotateZ(rz + bonusRot.z);
+                positionMatrix.rotateY(ry + bonusRot.y);
+                positionMatrix.rotateX(rx + bonusRot.x);
             } else
-                positionMatrix.rotateZYX(rotation.x + bonusRot.x, rotation.y + bonusRot.y, rotation.z + bonusRot.z);
+                positionMatrix.rotateZYX(rx + bonusRot.x, ry + bonusRot.y, rz + bonusRot.z);
 
             positionMatrix.translate(pivot.x+bonusPivot.x, pivot.y+bonusPivot.y, pivot.z+bonusPivot.z);
 
             normalMatrix.reset();
-            double c = Math.cbrt(scale.x * scale.y * scale.z);
+            double c = Math.cbrt(sx * sy * sz);
             normalMatrix.scale(
-                    c == 0 && scale.x == 0 ? 1 : c / scale.x,
-                    c == 0 && scale.y == 0 ? 1 : c / scale.y,
-                    c == 0 && scale.z == 0 ? 1 : c / scale.z
+                    c == 0 && sx == 0 ? 1 : c / sx,
+                    c == 0 && sy == 0 ? 1 : c / sy,
+                    c == 0 && sz == 0 ? 1 : c / sz
             );
 
             if (partType == PartType.MESH) {
-                normalMatrix.rotateZ(rotation.z + bonusRot.z);
-                normalMatrix.rotateY(rotation.y + bonusRot.y);
-                normalMatrix.rotateX(rotation.x + bonusRot.x);
+                normalMatrix.rotateZ(rz + bonusRot.z);
+                normalMatrix.rotateY(ry + bonusRot.y);
+                normalMatrix.rotateX(rx + bonusRot.x);
             } else
-                normalMatrix.rotateZYX(rotation.x + bonusRot.x, rotation.y + bonusRot.y, rotation.z + bonusRot.z);
+                normalMatrix.rotateZYX(rx + bonusRot.x, ry + bonusRot.y, rz + bonusRot.z);
 
             needsMatrixRecalculation = false;
+            matricesChanged = true;
         }
     }
 
+    /**
+     * Copies everything from another customization, matrices and interpolation included.
+     */
+    public void set(PartCustomization from) {
+        partType = from.partType;
+        positionMatrix.set(from.positionMatrix);
+        uvMatrix.set(from.uvMatrix);
+        normalMatrix.set(from.normalMatrix);
+        setPos(from.position);
+        setRot(from.rotation);
+        setScale(from.scale);
+        setPivot(from.pivot);
+        setBonusPivot(from.bonusPivot);
+        setBonusPos(from.bonusPos);
+        setBonusRot(from.bonusRot);
+        prevPosition.set(from.prevPosition);
+        prevRotation.set(from.prevRotation);
+        prevScale.set(from.prevScale);
+        interpolation = from.interpolation;
+        animPosition.set(from.animPosition);
+        animRotation.set(from.animRotation);
+        animScale.set(from.animScale);
+        color.set(from.color);
+        alpha = from.alpha;
+        light = from.light;
+        visible = from.visible;
+        setPrimaryRenderType(from.primaryRenderType);
+        setSecondaryRenderType(from.secondaryRenderType);
+        needsMatrixRecalculation = from.needsMatrixRecalculation;
+        matricesChanged = true;
+    }
+
+    /**
+     * Stores the current position, rotation and scale as the ones to interpolate from.
+     */
+    public void snapshot() {
+        prevPosition.set(position);
+        prevRotation.set(rotation);
+        prevScale.set(scale);
+    }
+
+    public void setInterpolation(float interpolation) {
+        if (this.interpolation == interpolation)
+            return;
+        this.interpolation = interpolation;
+        needsMatrixRecalculation = true;
+    }
+
+    /**
+     * Sets the transforms from the animations, only recalculating the matrix if they changed.
+     */
+    public void setAnimation(double px, double py, double pz, double rx, double ry, double rz, double sx, double sy, double sz) {
+        if (differs(animPosition, px, py, pz) || differs(animRotation, rx, ry, rz) || differs(animScale, sx, sy, sz)) {
+            animPosition.set(px, py, pz);
+            animRotation.set(rx, ry, rz);
+            animScale.set(sx, sy, sz);
+            needsMatrixRecalculation = true;
+        }
+    }
+
+    private static boolean differs(FiguraVec3 vec, double x, double y, double z) {
+        return vec.x != x || vec.y != y || vec.z != z;
+    }
+
     public void setPos(FiguraVec3 pos) {
         setPos(pos.x, pos.y, pos.z);
     }
@@ -125,6 +223,9 @@ public class PartCustomization implements CachedType {
         setBonusPivot(bonusPivot.x, bonusPivot.y, bonusPivot.z);
     }
     public void setBonusPivot(double x, double y, double z) {
+        //Set again every frame from the vanilla pose, so only a different pose rebuilds the matrix
+        if (!differs(bonusPivot, x, y, z))
+            return;
         bonusPivot.set(x, y, z);
         needsMatrixRecalculation = true;
     }
@@ -136,6 +237,8 @@ public class PartCustomization implements CachedType {
         setBonusPos(bonusPos.x, bonusPos.y, bonusPos.z);
     }
     public void setBonusPos(double x, double y, double z) {
+        if (!differs(bonusPos, x, y, z))
+            return;
         bonusPos.set(x, y, z);
         needsMatrixRecalculation = true;
     }
@@ -147,6 +250,8 @@ public class PartCustomization implements CachedType {
         setBonusRot(bonusRot.x, bonusRot.y, bonusRot.z);
     }
     public void setBonusRot(double x, double y, double z) {
+        if (!differs(bonusRot, x, y, z))
+            return;
         bonusRot.set(x, y, z);
         needsMatrixRecalculation = true;
     }
@@ -162,6 +267,7 @@ public class PartCustomization implements CachedType {
         normalMatrix.set(temp);
         temp.free();
         needsMatrixRecalculation = false;
+        matricesChanged = true;
     }
     public FiguraMat4 getPositionMatrix() {
         FiguraMat4 result = FiguraMat4.of();
@@ -209,10 +315,18 @@ public class PartCustomization implements CachedType {
         bonusPivot = FiguraVec3.of();
         bonusPos = FiguraVec3.of();
         bonusRot = FiguraVec3.of();
+        prevPosition = FiguraVec3.of();
+        prevRotation = FiguraVec3.of();
+        prevScale = FiguraVec3.of(1, 1, 1);
+        interpolation = 1f;
+        animPosition = FiguraVec3.of();
+        animRotation = FiguraVec3.of();
+        animScale = FiguraVec3.of(1, 1, 1);
         color = FiguraVec3.of(1, 1, 1);
         alpha = null;
         light = null;
         needsMatrixRecalculation = false;
+        matricesChanged = true;
         visible = null;
     }
     public void free() {
@@ -226,28 +340,44 @@ public class PartCustomization implements CachedType {
         bonusPivot.free();
         bonusPos.free();
         bonusRot.free();
+        prevPosition.free();
+        prevRotation.free();
+        prevScale.free();
+        animPosition.free();
+        animRotation.free();
+        animScale.free();
         color.free();
     }
     public static PartCustomization of() {
         return CACHE.getFresh();
     }
     public static class Stack extends CacheStack<PartCustomization, PartCustomization> {
+        //When false only the render state is inherited, the matrices of the top are left for the caller to fill in
+        private final boolean composeMatrices;
         public Stack() {
-            this(CACHE);
+            this(true);
         }
-        public Stack(CacheUtils.Cache<PartCustomization> cache) {
+        public Stack(boolean composeMatrices) {
+            this(CACHE, composeMatrices);
+        }
+        public Stack(CacheUtils.Cache<PartCustomization> cache, boolean composeMatrices) {
             super(cache);
+            this.composeMatrices = composeMatrices;
         }
         @Override
         protected void modify(PartCustomization valueToModify, PartCustomization modifierArg) {
+            if (composeMatrices)
+                valueToModify.modifyMatrices(modifierArg);
             valueToModify.modify(modifierArg);
         }
         @Override
         protected void copy(PartCustomization from, PartCustomization to) {
             to.partType = from.partType;
-            to.positionMatrix.set(from.positionMatrix);
-            to.uvMatrix.set(from.uvMatrix);
-            to.normalMatrix.set(from.normalMatrix);
+            if (composeMatrices) {
+                to.positionMatrix.set(from.positionMatrix);
+                to.uvMatrix.set(from.uvMatrix);
+                to.normalMatrix.set(from.normalMatrix);
+            }
             to.setPos(from.position);
             to.setRot(from.rotation);
             to.setScale(from.scale);
@@ -255,6 +385,9 @@ public class PartCustomization implements CachedType {
             to.setBonusPivot(from.bonusPivot);
             to.setBonusPos(from.bonusPos);
             to.setBonusRot(from.bonusRot);
+            to.animPosition.set(from.animPosition);
+            to.animRotation.set(from.animRotation);
+            to.animScale.set(from.animScale);
             to.color.set(from.color);
             to.alpha = from.alpha;
             to.light = from.light;
@@ -265,12 +398,14 @@ public class PartCustomization implements CachedType {
         }
     }
 
-    //Modify this object using the information contained in the other object
-    private void modify(PartCustomization other) {
+    private void modifyMatrices(PartCustomization other) {
         positionMatrix.rightMultiply(other.positionMatrix);
         uvMatrix.rightMultiply(other.uvMatrix);
         normalMatrix.rightMultiply(other.normalMatrix);
+    }
 
+    //Modify this object using the information contained in the other object
+    private void modify(PartCustomization other) {
         if (other.primaryRenderType != null)
             setPrimaryRenderType(other.primaryRenderType);
         if (other.secondaryRenderType != null)
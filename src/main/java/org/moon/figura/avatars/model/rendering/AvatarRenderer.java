@@ -20,7 +20,7 @@ import java.util.function.BiPredicate;
 
 /**
  * Mainly exists as an abstract superclass for VAO-based and
- * immediate mode avatar renderers. (VAO-based don't exist yet)
+ * immediate mode avatar renderers.
  */
 public abstract class AvatarRenderer {
 
@@ -38,6 +38,15 @@ public abstract class AvatarRenderer {
 
     public boolean allowMatrixUpdate = false;
 
+    protected final int complexityLimit; //In faces
+
+    //faces drawn at each detail level, filled in once the model is read
+    protected final int[] facesPerLevel = new int[FaceBudget.LEVELS];
+    public int detailLevel = 0;
+
+    //how far the parts are blended from their previous script transforms to the current ones, see RenderEventScheduler
+    public float interpolation = 1f;
+
     /**
      * FiguraModelPart: The current model part.
      * Boolean input: The result of the predicate from the previous part.
@@ -76,8 +85,20 @@ public abstract class AvatarRenderer {
 
     public record PartFilterScheme(boolean initialValue, BiPredicate<FiguraModelPart, Boolean> predicate) {}
 
-    public AvatarRenderer(Avatar avatar) {
+    /**
+     * @param complexityLimit the max faces to render, from the trust of the owner
+     */
+    public AvatarRenderer(Avatar avatar, int complexityLimit) {
         this.avatar = avatar;
+        this.complexityLimit = complexityLimit;
+    }
+
+    public int getFaceCount(int detailLevel) {
+        return facesPerLevel[detailLevel];
+    }
+
+    public float getMinFaceArea() {
+        return FaceBudget.MIN_FACE_AREA[detailLevel];
     }
 
     public abstract void render();
@@ -0,0 +1,83 @@
+package org.moon.figura.avatars.model.rendering;
+
+import net.minecraft.client.Minecraft;
+import org.moon.figura.avatars.Avatar;
+import org.moon.figura.avatars.RenderEventScheduler;
+import org.moon.figura.config.Config;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Picks a detail level for every avatar once per frame.
+ * Lower levels skip the smallest faces of each part, so far away avatars, avatars over their complexity limit,
+ * and crowds going over the global face budget get simpler instead of losing whole parts.
+ */
+public class FaceBudget {
+
+    //faces smaller than this are not drawn, in square pixels, per level
+    public static final float[] MIN_FACE_AREA = {0f, 1f, 4f, 16f};
+    public static final int LEVELS = MIN_FACE_AREA.length;
+
+    //screen distance where each level past the first starts, for an entity as tall as a player
+    private static final double[] LEVEL_DISTANCES = {16, 32, 64};
+
+    private static final List<Entry> ENTRIES = new ArrayList<>();
+
+    public static void distribute(Collection<Avatar> avatars) {
+        Minecraft minecraft = Minecraft.getInstance();
+        int total = 0;
+
+        ENTRIES.clear();
+        for (Avatar avatar : avatars) {
+            AvatarRenderer renderer = avatar.renderer;
+            if (renderer == null)
+                continue;
+
+            double distance = renderer.entity == null || renderer.entity == minecraft.getCameraEntity() ? 0 : RenderEventScheduler.getScreenDistance(renderer.entity);
+
+            int level = 0;
+            while (level < LEVEL_DISTANCES.length && distance > LEVEL_DISTANCES[level])
+                level++;
+
+            //rather drop small faces than have the complexity limit cut off the last parts
+            while (level < LEVELS - 1 && renderer.getFaceCount(level) > renderer.complexityLimit)
+                level++;
+
+            renderer.detailLevel = level;
+            total += Math.min(renderer.getFaceCount(level), renderer.complexityLimit);
+            ENTRIES.add(new Entry(renderer, distance));
+        }
+
+        int budget = (int) Config.FACE_BUDGET.value;
+        if (budget > 0 && total > budget)
+            lowerFarthest(total, budget);
+        ENTRIES.clear();
+    }
+
+    //over budget, lower the farthest avatars first, one level at a time
+    private static void lowerFarthest(int total, int budget) {
+        ENTRIES.sort(Comparator.comparingDouble(Entry::distance).reversed());
+        boolean lowered = true;
+        while (total > budget && lowered) {
+            lowered = false;
+            for (Entry entry : ENTRIES) {
+                AvatarRenderer renderer = entry.renderer();
+                if (renderer.detailLevel >= LEVELS - 1)
+                    continue;
+
+                total -= Math.min(renderer.getFaceCount(renderer.detailLevel), renderer.complexityLimit);
+                renderer.detailLevel++;
+                total += Math.min(renderer.getFaceCount(renderer.detailLevel), renderer.complexityLimit);
+                lowered = true;
+
+                if (total <= budget)
+                    break;
+            }
+        }
+    }
+
+    private record Entry(AvatarRenderer renderer, double distance) {}
+}
@@ -7,9 +7,10 @@ import net.minecraft.client.renderer.RenderType;
 import org.lwjgl.BufferUtils;
 import org.moon.figura.avatars.model.PartCustomization;
 import org.moon.figura.avatars.model.rendering.texture.FiguraTextureSet;
+import org.moon.figura.math.matrix.FiguraMat3;
+import org.moon.figura.math.matrix.FiguraMat4;
 import org.moon.figura.math.vector.FiguraVec2;
 import org.moon.figura.math.vector.FiguraVec3;
-import org.moon.figura.math.vector.FiguraVec4;
 import org.moon.figura.utils.caching.CacheStack;
 
 import java.nio.FloatBuffer;
@@ -20,17 +21,21 @@ public class FiguraImmediateBuffer {
     private final CacheStack<PartCustomization, PartCustomization> customizationStack;
     public final FloatBuffer positions, uvs, normals;
 
-    private FiguraImmediateBuffer(FloatArrayList posList, FloatArrayList uvList, FloatArrayList normalList, FiguraTextureSet textureSet, PartCustomization.Stack customizationStack) {
-        positions = BufferUtils.createFloatBuffer(posList.size());
-        positions.put(posList.toArray(new float[0]));
-        uvs = BufferUtils.createFloatBuffer(uvList.size());
-        uvs.put(uvList.toArray(new float[0]));
-        normals = BufferUtils.createFloatBuffer(normalList.size());
-        normals.put(normalList.toArray(new float[0]));
+    private FiguraImmediateBuffer(FloatBuffer positions, FloatBuffer uvs, FloatBuffer normals, FiguraTextureSet textureSet, PartCustomization.Stack customizationStack) {
+        this.positions = positions;
+        this.uvs = uvs;
+        this.normals = normals;
         this.textureSet = textureSet;
         this.customizationStack = customizationStack;
     }
 
+    /**
+     * Uses already built vertex data as is, without copying it, like the mapped blocks of an avatar container
+     */
+    public static FiguraImmediateBuffer wrap(FloatBuffer positions, FloatBuffer uvs, FloatBuffer normals, FiguraTextureSet textureSet, PartCustomization.Stack customizationStack) {
+        return new FiguraImmediateBuffer(positions.duplicate(), uvs.duplicate(), normals.duplicate(), textureSet, customizationStack);
+    }
+
     public void clean() {
         textureSet.clean();
     }
@@ -39,9 +44,17 @@ public class FiguraImmediateBuffer {
         textureSet.uploadIfNeeded();
     }
 
-    private static final FiguraVec4 pos = FiguraVec4.of();
-    private static final FiguraVec3 normal = FiguraVec3.of();
-    private static final FiguraVec3 uv = FiguraVec3.of(0, 0, 1);
+    public FiguraTextureSet getTextureSet() {
+        return textureSet;
+    }
+
+    //Customization matrices flattened to floats, only the rows the vertex loop actually uses
+    private final float[] posMat = new float[12];
+    private final float[] normalMat = new float[9];
+    private final float[] uvMat = new float[6];
+
+    //Multiplying by these makes uv 0 to 1, computed once since the texture size never changes
+    private float uScale, vScale;
 
     public void markBuffers() {
         positions.mark();
@@ -67,14 +80,21 @@ public class FiguraImmediateBuffer {
      * @param remainingComplexity The complexity holder, so the value can update
      */
     public void advanceBuffers(int faceCount, int[] remainingComplexity) {
-        positions.position(positions.position() + faceCount * 12);
-        uvs.position(uvs.position() + faceCount * 8);
-        normals.position(normals.position() + faceCount * 12);
+        skipVertices(faceCount);
 
         //Refund complexity for invisible parts
         remainingComplexity[0] += faceCount;
     }
 
+    /**
+     * Advances the buffers past faces which were drawn some other way, without refunding complexity.
+     * @param faceCount The number of faces to skip
+     */
+    public void skipVertices(int faceCount) {
+        positions.position(positions.position() + faceCount * 12);
+        uvs.position(uvs.position() + faceCount * 8);
+        normals.position(normals.position() + faceCount * 12);
+    }
 
     public void pushVertices(MultiBufferSource bufferSource, int overlay, int faceCount, int[] remainingComplexity) {
         //Handle cases that we can quickly
@@ -101,43 +121,83 @@ public class FiguraImmediateBuffer {
 
     private void pushToConsumer(VertexConsumer consumer, int overlay, int faceCount) {
         PartCustomization customization = customizationStack.peek();
+        loadMatrices(customization);
 
-        FiguraVec3 uvFixer = FiguraVec3.of();
-        uvFixer.set(textureSet.getWidth(), textureSet.getHeight(), 1); //Dividing by this makes uv 0 to 1
+        transformVertices(consumer, positions, uvs, normals, faceCount * 4,
+                posMat, normalMat, uvMat,
+                (float) customization.color.x, (float) customization.color.y, (float) customization.color.z, customization.alpha,
+                overlay, customization.light);
+    }
+
+    private void loadMatrices(PartCustomization customization) {
+        if (uScale == 0) {
+            uScale = 1f / textureSet.getWidth();
+            vScale = 1f / textureSet.getHeight();
+        }
+
+        FiguraMat4 p = customization.positionMatrix;
+        posMat[0] = (float) p.v11; posMat[1] = (float) p.v12; posMat[2] = (float) p.v13; posMat[3] = (float) p.v14;
+        posMat[4] = (float) p.v21; posMat[5] = (float) p.v22; posMat[6] = (float) p.v23; posMat[7] = (float) p.v24;
+        posMat[8] = (float) p.v31; posMat[9] = (float) p.v32; posMat[10] = (float) p.v33; posMat[11] = (float) p.v34;
 
-        for (int i = 0; i < faceCount*4; i++) {
+        FiguraMat3 n = customization.normalMatrix;
+        normalMat[0] = (float) n.v11; normalMat[1] = (float) n.v12; normalMat[2] = (float) n.v13;
+        normalMat[3] = (float) n.v21; normalMat[4] = (float) n.v22; normalMat[5] = (float) n.v23;
+        normalMat[6] = (float) n.v31; normalMat[7] = (float) n.v32; normalMat[8] = (float) n.v33;
 
-            pos.set(positions.get(), positions.get(), positions.get(), 1);
-            pos.multiply(customization.positionMatrix);
-            normal.set(normals.get(), normals.get(), normals.get());
-            normal.multiply(customization.normalMatrix);
-            uv.set(uvs.get(), uvs.get(), 1);
-            uv.divide(uvFixer);
-            uv.multiply(customization.uvMatrix);
+        //The uv normalisation is folded into the first two columns
+        FiguraMat3 t = customization.uvMatrix;
+        uvMat[0] = (float) t.v11 * uScale; uvMat[1] = (float) t.v12 * vScale; uvMat[2] = (float) t.v13;
+        uvMat[3] = (float) t.v21 * uScale; uvMat[4] = (float) t.v22 * vScale; uvMat[5] = (float) t.v23;
+    }
+
+    /**
+     * Transforms a run of vertices straight out of the float buffers and sends them to the consumer.
+     * Reads start at the current buffer positions, which are advanced past the vertices afterwards.
+     * @param posMat The top three rows of the position matrix, row major
+     * @param normalMat The normal matrix, row major
+     * @param uvMat The top two rows of the uv matrix, row major, with the texture size already divided in
+     */
+    public static void transformVertices(VertexConsumer consumer, FloatBuffer positions, FloatBuffer uvs, FloatBuffer normals, int vertexCount,
+                                         float[] posMat, float[] normalMat, float[] uvMat,
+                                         float r, float g, float b, float a, int overlay, int light) {
+        float p11 = posMat[0], p12 = posMat[1], p13 = posMat[2], p14 = posMat[3];
+        float p21 = posMat[4], p22 = posMat[5], p23 = posMat[6], p24 = posMat[7];
+        float p31 = posMat[8], p32 = posMat[9], p33 = posMat[10], p34 = posMat[11];
+        float n11 = normalMat[0], n12 = normalMat[1], n13 = normalMat[2];
+        float n21 = normalMat[3], n22 = normalMat[4], n23 = normalMat[5];
+        float n31 = normalMat[6], n32 = normalMat[7], n33 = normalMat[8];
+        float t11 = uvMat[0], t12 = uvMat[1], t13 = uvMat[2];
+        float t21 = uvMat[3], t22 = uvMat[4], t23 = uvMat[5];
+
+        int pi = positions.position(), ti = uvs.position(), ni = normals.position();
+        for (int i = 0; i < vertexCount; i++, pi += 3, ti += 2, ni += 3) {
+            float x = positions.get(pi), y = positions.get(pi + 1), z = positions.get(pi + 2);
+            float u = uvs.get(ti), v = uvs.get(ti + 1);
+            float nx = normals.get(ni), ny = normals.get(ni + 1), nz = normals.get(ni + 2);
 
             consumer.vertex(
-                    (float) pos.x,
-                    (float) pos.y,
-                    (float) pos.z,
+                    p11 * x + p12 * y + p13 * z + p14,
+                    p21 * x + p22 * y + p23 * z + p24,
+                    p31 * x + p32 * y + p33 * z + p34,
 
-                    (float) customization.color.x,
-                    (float) customization.color.y,
-                    (float) customization.color.z,
-                    customization.alpha,
+                    r, g, b, a,
 
-                    (float) uv.x,
-                    (float) uv.y,
+                    t11 * u + t12 * v + t13,
+                    t21 * u + t22 * v + t23,
 
                     overlay,
-                    customization.light,
+                    light,
 
-                    (float) normal.x,
-                    (float) normal.y,
-                    (float) normal.z
+                    n11 * nx + n12 * ny + n13 * nz,
+                    n21 * nx + n22 * ny + n23 * nz,
+                    n31 * nx + n32 * ny + n33 * nz
             );
         }
 
-        uvFixer.free();
+        positions.position(pi);
+        uvs.position(ti);
+        normals.position(ni);
     }
 
     public static Builder builder() {
@@ -173,8 +233,48 @@ public class FiguraImmediateBuffer {
             return size;
         }
 
+        /**
+         * Measures the faces from firstVertex onwards, so lower detail levels can leave out the smallest ones.
+         * The faces are not moved, they keep the order they were authored in.
+         * @return The area of every face, in buffer order
+         */
+        public float[] measureFaceAreas(int firstVertex) {
+            int faceCount = (size - firstVertex) / 4;
+            float[] areas = new float[faceCount];
+            for (int i = 0; i < faceCount; i++)
+                areas[i] = getFaceArea(firstVertex + i * 4);
+            return areas;
+        }
+
+        //half the length of the cross product of the diagonals, also right for triangles stored with a repeated vertex
+        private float getFaceArea(int vertex) {
+            int i = vertex * 3;
+            float ax = positions.getFloat(i + 6) - positions.getFloat(i);
+            float ay = positions.getFloat(i + 7) - positions.getFloat(i + 1);
+            float az = positions.getFloat(i + 8) - positions.getFloat(i + 2);
+            float bx = positions.getFloat(i + 9) - positions.getFloat(i + 3);
+            float by = positions.getFloat(i + 10) - positions.getFloat(i + 4);
+            float bz = positions.getFloat(i + 11) - positions.getFloat(i + 5);
+
+            float cx = ay * bz - az * by;
+            float cy = az * bx - ax * bz;
+            float cz = ax * by - ay * bx;
+            return (float) Math.sqrt(cx * cx + cy * cy + cz * cz) / 2f;
+        }
+
         public FiguraImmediateBuffer build(FiguraTextureSet textureSet, PartCustomization.Stack customizationStack) {
-            return new FiguraImmediateBuffer(positions, uvs, normals, textureSet, customizationStack);
+            return new FiguraImmediateBuffer(toBuffer(positions), toBuffer(uvs), toBuffer(normals), textureSet, customizationStack);
+        }
+
+        private static FloatBuffer toBuffer(FloatArrayList list) {
+            FloatBuffer buffer = BufferUtils.createFloatBuffer(list.size());
+            buffer.put(list.elements(), 0, list.size());
+            return buffer;
+        }
+
+        //positions, uvs and normals, for storing them prebuilt
+        public float[][] toArrays() {
+            return new float[][] {positions.toFloatArray(), uvs.toFloatArray(), normals.toFloatArray()};
         }
     }
 
@@ -16,8 +16,6 @@ import org.moon.figura.config.Config;
 import org.moon.figura.math.matrix.FiguraMat3;
 import org.moon.figura.math.matrix.FiguraMat4;
 import org.moon.figura.math.vector.FiguraVec3;
-import org.moon.figura.trust.TrustContainer;
-import org.moon.figura.trust.TrustManager;
 import org.moon.figura.utils.ColorUtils;
 
 import java.util.ArrayList;
@@ -25,20 +23,40 @@ import java.util.List;
 
 public class ImmediateAvatarRenderer extends AvatarRenderer {
 
-    private final List<FiguraImmediateBuffer> buffers = new ArrayList<>(0);
-    private final int complexityLimit; //In faces
+    protected final List<FiguraImmediateBuffer> buffers = new ArrayList<>(0);
 
-    private final PartCustomization.Stack customizationStack = new PartCustomization.Stack();
+    //Only carries the render state down the tree, the matrices come composed from the parts themselves
+    protected final PartCustomization.Stack customizationStack = new PartCustomization.Stack(false);
 
-    public ImmediateAvatarRenderer(Avatar avatar) {
-        super(avatar);
-
-        //Get complexity limit from trust
-        complexityLimit = TrustManager.get(avatar.owner).get(TrustContainer.Trust.COMPLEXITY);
+    public ImmediateAvatarRenderer(Avatar avatar, int complexityLimit) {
+        super(avatar, complexityLimit);
 
         //Textures
-        List<FiguraTextureSet> textureSets = new ArrayList<>();
         ListTag texturesList = avatar.nbt.getList("textures", Tag.TAG_COMPOUND);
+        List<FiguraTextureSet> textureSets = readTextureSets(texturesList);
+
+        //Vertex data, read model parts
+        PrebuiltGeometry geometry = avatar.geometry;
+        if (geometry != null) {
+            //already built, the buffers only wrap it
+            root = FiguraModelPart.read(avatar.nbt.getCompound("models"), geometry, textureSets);
+            for (int i = 0; i < textureSets.size() && i < geometry.getTextureCount(); i++)
+                buffers.add(FiguraImmediateBuffer.wrap(geometry.positions.get(i), geometry.uvs.get(i), geometry.normals.get(i), textureSets.get(i), customizationStack));
+        } else {
+            List<FiguraImmediateBuffer.Builder> builders = new ArrayList<>();
+            root = FiguraModelPart.read(avatar.nbt.getCompound("models"), builders, textureSets);
+
+            for (int i = 0; i < textureSets.size() && i < builders.size(); i++)
+                buffers.add(builders.get(i).build(textureSets.get(i), customizationStack));
+        }
+
+        countFaces();
+
+        avatar.hasTexture = !texturesList.isEmpty();
+    }
+
+    public static List<FiguraTextureSet> readTextureSets(ListTag texturesList) {
+        List<FiguraTextureSet> textureSets = new ArrayList<>();
         for (int i = 0; i < texturesList.size(); i++) {
             CompoundTag tag = texturesList.getCompound(i);
             String name = tag.getString("name");
@@ -53,15 +71,13 @@ public class ImmediateAvatarRenderer extends AvatarRenderer {
             emissiveData = emissiveData.length == 0 ? null : emissiveData;
             textureSets.add(new FiguraTextureSet(name, mainData, emissiveData));
         }
+        return textureSets;
+    }
 
-        //Vertex data, read model parts
-        List<FiguraImmediateBuffer.Builder> builders = new ArrayList<>();
-        root = FiguraModelPart.read(avatar.nbt.getCompound("models"), builders, textureSets);
-
-        for (int i = 0; i < textureSets.size() && i < builders.size(); i++)
-            buffers.add(builders.get(i).build(textureSets.get(i), customizationStack));
-
-        avatar.hasTexture = !texturesList.isEmpty();
+    //The face areas depend on the part scales, so this is done again whenever those change
+    private void countFaces() {
+        for (int i = 0; i < FaceBudget.LEVELS; i++)
+            facesPerLevel[i] = root.countFaces(FaceBudget.MIN_FACE_AREA[i]);
     }
 
     public void clean() {
@@ -90,10 +106,11 @@ public class ImmediateAvatarRenderer extends AvatarRenderer {
     }
 
     private void commonRender(double vertOffset) {
-        //Push position and normal matrices
+        //Position and normal matrices of the model root, every part is placed under them
         PartCustomization customization = setupRootCustomization(vertOffset);
+        rootCustomization = customization;
 
-        //Push transform
+        //Push render state
         customizationStack.push(customization);
 
         //Iterate and setup each buffer
@@ -108,19 +125,28 @@ public class ImmediateAvatarRenderer extends AvatarRenderer {
         int config = (int) Config.RENDER_DEBUG_PARTS_PIVOT.value;
         shouldRenderPivots = config < 1 || !Minecraft.getInstance().getEntityRenderDispatcher().shouldRenderHitBoxes() ? 0 : config;
 
-        //Free customization after use
-        customization.free();
-
         //Render all model parts
-        if (allowMatrixUpdate)
+        if (allowMatrixUpdate) {
             viewToWorldMatrix = AvatarRenderer.worldToViewMatrix().inverted();
+            rootToWorldMatrix.set(customization.positionMatrix);
+            rootToWorldMatrix.multiply(viewToWorldMatrix);
+        }
 
         int[] remainingComplexity = new int[] {complexityLimit};
-        renderPart(root, remainingComplexity, currentFilterScheme.initialValue());
+        renderPart(root, remainingComplexity, currentFilterScheme.initialValue(), false);
         avatar.complexity = complexityLimit - remainingComplexity[0];
 
+        if (scaleChanged) {
+            scaleChanged = false;
+            countFaces();
+        }
+
         customizationStack.pop();
         checkEmpty();
+
+        //Free customization after use
+        rootCustomization = null;
+        customization.free();
     }
 
     private PartCustomization setupRootCustomization(double vertOffset) {
@@ -153,12 +179,20 @@ public class ImmediateAvatarRenderer extends AvatarRenderer {
 
     private static int shouldRenderPivots;
     private static FiguraMat4 viewToWorldMatrix = FiguraMat4.of();
-    private void renderPart(FiguraModelPart part, int[] remainingComplexity, boolean parentPassedPredicate) {
-        if (entityRenderer != null)
-            part.applyVanillaTransforms(entityRenderer.getModel());
-        part.applyVanillaTransforms(elytraModel);
+    private static final FiguraMat4 rootToWorldMatrix = FiguraMat4.of();
+    private PartCustomization rootCustomization;
+    private boolean scaleChanged;
+
+    /**
+     * @param parentChanged if the composed matrices of the parent changed, so this part has to compose its own again
+     */
+    private void renderPart(FiguraModelPart part, int[] remainingComplexity, boolean parentPassedPredicate, boolean parentChanged) {
+        part.applyVanillaTransforms(entityRenderer == null ? null : entityRenderer.getModel(), elytraModel);
 
-        part.customization.recalculate();
+        part.customization.setInterpolation(interpolation);
+        float areaScale = part.getAreaScale();
+        boolean changed = part.updateComposedMatrices(parentChanged);
+        scaleChanged |= part.getAreaScale() != areaScale;
 
         //Store old visibility, but overwrite it in case we only want to render certain parts
         Boolean storedVisibility = part.customization.visible;
@@ -168,31 +202,22 @@ public class ImmediateAvatarRenderer extends AvatarRenderer {
         customizationStack.push(part.customization);
         part.customization.visible = storedVisibility;
 
-        //Right now, part.customization.positionMatrix contains a transformation from part space to view space.
-        if (thisPassedPredicate && allowMatrixUpdate) {
-            FiguraMat4 customizePeek = customizationStack.peek().positionMatrix.copy();
-            customizePeek.multiply(viewToWorldMatrix);
-            FiguraVec3 piv = part.customization.getPivot();
+        if (thisPassedPredicate && allowMatrixUpdate)
+            part.savePartToWorldMatrix(rootToWorldMatrix);
 
-            FiguraMat4 translation = FiguraMat4.createTranslationMatrix(piv);
-            customizePeek.rightMultiply(translation);
-            part.savedPartToWorldMat.set(customizePeek);
-
-            customizePeek.free();
-            piv.free();
-            translation.free();
-        }
+        //Only parts with something to draw need their matrices in view space
+        PartCustomization top = customizationStack.peek();
+        if (part.index != -1 && top.visible)
+            part.loadComposedMatrices(rootCustomization, top);
 
         part.pushVerticesImmediate(this, remainingComplexity);
         for (FiguraModelPart child : part.children)
-            renderPart(child, remainingComplexity, thisPassedPredicate);
+            renderPart(child, remainingComplexity, thisPassedPredicate, changed);
 
         if (thisPassedPredicate && (shouldRenderPivots > 1 || shouldRenderPivots == 1 && customizationStack.peek().visible))
             renderPivot(part);
 
         customizationStack.pop();
-
-        part.resetVanillaTransforms();
     }
 
     private static final PoseStack DEBUG_POSE_STACK = new PoseStack();
@@ -220,4 +245,9 @@ public class ImmediateAvatarRenderer extends AvatarRenderer {
     public void pushFaces(int texIndex, int faceCount, int[] remainingComplexity) {
         buffers.get(texIndex).pushVertices(bufferSource, OverlayTexture.NO_OVERLAY, faceCount, remainingComplexity);
     }
+
+    //Moves past faces left out by the detail level, they don't count towards complexity
+    public void skipFaces(int texIndex, int faceCount) {
+        buffers.get(texIndex).skipVertices(faceCount);
+    }
 }
@@ -0,0 +1,70 @@
+package org.moon.figura.avatars.model.rendering;
+
+import org.moon.figura.avatars.model.FiguraModelPart;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The vertex data and face tables of an avatar, built ahead of time and stored in an avatar container,
+ * so loading it only has to wrap them instead of generating and sorting every face again.
+ */
+public class PrebuiltGeometry {
+
+    //per texture
+    public final List<FloatBuffer> positions = new ArrayList<>();
+    public final List<FloatBuffer> uvs = new ArrayList<>();
+    public final List<FloatBuffer> normals = new ArrayList<>();
+
+    //by part index, in the order the parts are read
+    public final List<PartFaces> parts = new ArrayList<>();
+
+    public PartFaces getPart(int index) {
+        return index < 0 || index >= parts.size() ? PartFaces.EMPTY : parts.get(index);
+    }
+
+    public int getTextureCount() {
+        return positions.size();
+    }
+
+    /**
+     * Collects the geometry of already read parts
+     * @param root - the root part, as read with these builders
+     */
+    public static PrebuiltGeometry capture(FiguraModelPart root, List<FiguraImmediateBuffer.Builder> builders) {
+        PrebuiltGeometry geometry = new PrebuiltGeometry();
+        for (FiguraImmediateBuffer.Builder builder : builders) {
+            float[][] arrays = builder.toArrays();
+            geometry.positions.add(FloatBuffer.wrap(arrays[0]));
+            geometry.uvs.add(FloatBuffer.wrap(arrays[1]));
+            geometry.normals.add(FloatBuffer.wrap(arrays[2]));
+        }
+        capturePart(root, geometry.parts);
+        return geometry;
+    }
+
+    private static void capturePart(FiguraModelPart part, List<PartFaces> parts) {
+        if (part.index != -1) {
+            while (parts.size() <= part.index)
+                parts.add(PartFaces.EMPTY);
+
+            List<Integer> faces = part.getFacesByTexture();
+            int[] facesByTexture = new int[faces.size()];
+            for (int i = 0; i < facesByTexture.length; i++)
+                facesByTexture[i] = faces.get(i);
+            parts.set(part.index, new PartFaces(facesByTexture, part.getFaceAreas()));
+        }
+
+        for (FiguraModelPart child : part.children)
+            capturePart(child, parts);
+    }
+
+    /**
+     * @param facesByTexture - how many faces the part has in each texture buffer
+     * @param faceAreas - per texture, in buffer order
+     */
+    public record PartFaces(int[] facesByTexture, float[][] faceAreas) {
+        public static final PartFaces EMPTY = new PartFaces(new int[0], new float[0][]);
+    }
+}
@@ -0,0 +1,312 @@
+package org.moon.figura.avatars.model.rendering;
+
+import com.mojang.blaze3d.platform.NativeImage;
+import com.mojang.blaze3d.systems.RenderSystem;
+import com.mojang.blaze3d.vertex.BufferBuilder;
+import com.mojang.blaze3d.vertex.VertexBuffer;
+import com.mojang.blaze3d.vertex.VertexFormat;
+import com.mojang.math.Matrix4f;
+import com.mojang.math.Vector3f;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import net.minecraft.client.Minecraft;
+import net.minecraft.client.renderer.LightTexture;
+import net.minecraft.client.renderer.MultiBufferSource;
+import net.minecraft.client.renderer.RenderType;
+import net.minecraft.client.renderer.ShaderInstance;
+import net.minecraft.client.renderer.texture.DynamicTexture;
+import net.minecraft.client.renderer.texture.OverlayTexture;
+import org.moon.figura.avatars.Avatar;
+import org.moon.figura.avatars.model.PartCustomization;
+import org.moon.figura.avatars.model.rendering.texture.FiguraTextureSet;
+import org.moon.figura.math.matrix.FiguraMat3;
+import org.moon.figura.mixin.render.LightTextureAccessor;
+import org.moon.figura.mixin.render.RenderSystemAccessor;
+import org.moon.figura.mixin.render.VertexBufferAccessor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Retained mode renderer. The geometry of each part is uploaded once per texture set
+ * into vertex buffers, and afterwards only the part transforms, light and color are sent every frame.
+ * Anything the vertex buffers can't express (forced render types, uv matrices) is
+ * pushed through the immediate mode path instead.
+ * Draws are queued per buffer source and render type, and flushed when that buffer source
+ * ends the batch of that render type, so they keep the same order as the immediate mode faces.
+ */
+public class VertexBufferAvatarRenderer extends ImmediateAvatarRenderer {
+
+    //Geometry is copied to the GPU on upload, so a single builder is enough for every avatar
+    private static final BufferBuilder UPLOAD_BUILDER = new BufferBuilder(256);
+
+    //Stands in for the lightmap while drawing, the light is applied through the color instead
+    private static DynamicTexture whiteTexture;
+
+    //Retained draws waiting for their buffer source to end the batch of their render type
+    //Weak keys, buffer sources made for a single screen are dropped without ever telling us
+    private static final Map<MultiBufferSource.BufferSource, Map<RenderType, List<QueuedDraw>>> QUEUED = new WeakHashMap<>();
+
+    //One map per texture set, slices are keyed by the first vertex they cover in the immediate buffer
+    private final List<Int2ObjectMap<RetainedSlice>> slices = new ArrayList<>();
+
+    public VertexBufferAvatarRenderer(Avatar avatar, int complexityLimit) {
+        super(avatar, complexityLimit);
+        for (int i = 0; i < buffers.size(); i++)
+            slices.add(new Int2ObjectOpenHashMap<>());
+    }
+
+    @Override
+    public void clean() {
+        super.clean();
+        for (Int2ObjectMap<RetainedSlice> map : slices)
+            for (RetainedSlice slice : map.values())
+                slice.close();
+        slices.clear();
+    }
+
+    @Override
+    public void pushFaces(int texIndex, int faceCount, int[] remainingComplexity) {
+        PartCustomization customization = customizationStack.peek();
+        if (faceCount == 0 || !customization.visible || !canRetain(customization)) {
+            super.pushFaces(texIndex, faceCount, remainingComplexity);
+            return;
+        }
+
+        FiguraImmediateBuffer buffer = buffers.get(texIndex);
+        FiguraTextureSet textureSet = buffer.getTextureSet();
+
+        int firstVertex = buffer.positions.position() / 3;
+        RetainedSlice slice = slices.get(texIndex).get(firstVertex);
+        if (slice == null) {
+            slice = new RetainedSlice(firstVertex);
+            slices.get(texIndex).put(firstVertex, slice);
+        }
+        RenderType primary = customization.getPrimaryRenderType().get(textureSet.mainTex);
+        RenderType secondary = customization.getSecondaryRenderType().get(textureSet.emissiveTex);
+        if (primary != null)
+            drawSlice(slice, 0, primary, buffer, faceCount, customization);
+        if (secondary != null)
+            drawSlice(slice, 1, secondary, buffer, faceCount, customization);
+
+        buffer.skipVertices(faceCount);
+    }
+
+    private static boolean canRetain(PartCustomization customization) {
+        FiguraTextureSet.RenderTypes primary = customization.getPrimaryRenderType();
+        FiguraTextureSet.RenderTypes secondary = customization.getSecondaryRenderType();
+        if (primary != null && primary.isForced() || secondary != null && secondary.isForced())
+            return false;
+
+        //UVs are baked into the buffers, so any uv transformation has to go through immediate mode
+        FiguraMat3 uv = customization.uvMatrix;
+        if (uv.v11 != 1 || uv.v12 != 0 || uv.v13 != 0
+                || uv.v21 != 0 || uv.v22 != 1 || uv.v23 != 0
+                || uv.v31 != 0 || uv.v32 != 0 || uv.v33 != 1)
+            return false;
+
+        //The lights are moved into part space instead of the normals, which only matches when nothing is scaled unevenly
+        return isRotation(customization.normalMatrix);
+    }
+
+    private static final double ROTATION_EPSILON = 1e-4;
+
+    /**
+     * @return If the columns are unit length and perpendicular, so the transpose is also the inverse
+     */
+    private static boolean isRotation(FiguraMat3 mat) {
+        return Math.abs(mat.v11 * mat.v11 + mat.v21 * mat.v21 + mat.v31 * mat.v31 - 1) < ROTATION_EPSILON
+                && Math.abs(mat.v12 * mat.v12 + mat.v22 * mat.v22 + mat.v32 * mat.v32 - 1) < ROTATION_EPSILON
+                && Math.abs(mat.v13 * mat.v13 + mat.v23 * mat.v23 + mat.v33 * mat.v33 - 1) < ROTATION_EPSILON
+                && Math.abs(mat.v11 * mat.v12 + mat.v21 * mat.v22 + mat.v31 * mat.v32) < ROTATION_EPSILON
+                && Math.abs(mat.v11 * mat.v13 + mat.v21 * mat.v23 + mat.v31 * mat.v33) < ROTATION_EPSILON
+                && Math.abs(mat.v12 * mat.v13 + mat.v22 * mat.v23 + mat.v32 * mat.v33) < ROTATION_EPSILON;
+    }
+
+    private void drawSlice(RetainedSlice slice, int layer, RenderType renderType, FiguraImmediateBuffer buffer, int faceCount, PartCustomization customization) {
+        //Complexity limits and detail levels can cut a slice short, those draw only the first faces of it
+        VertexBuffer vertexBuffer = slice.getBuffer(layer, renderType.format(), faceCount, buffer);
+
+        //Everything the draw needs is captured now, the matrices and lights are different by the time the batch ends
+        Matrix4f modelView = RenderSystem.getModelViewMatrix().copy();
+        modelView.multiply(customization.positionMatrix.toMatrix4f());
+
+        //Normals stay in part space, so move the lights into part space instead
+        Vector3f[] lights = RenderSystemAccessor.getShaderLightDirections();
+        QueuedDraw draw = new QueuedDraw(vertexBuffer, VertexFormat.Mode.QUADS.indexCount(faceCount * 4), modelView,
+                toPartSpace(lights[0], customization.normalMatrix), toPartSpace(lights[1], customization.normalMatrix),
+                (float) customization.color.x, (float) customization.color.y, (float) customization.color.z, customization.alpha,
+                customization.light);
+
+        //Only a buffer source tells us when its batches end, anything else gets the draw right away
+        if (!(this.bufferSource instanceof MultiBufferSource.BufferSource bufferSource)) {
+            renderType.setupRenderState();
+            draw.draw();
+            renderType.clearRenderState();
+            return;
+        }
+
+        //Starting the batch makes sure the buffer source ends it later, flushing the queue with it
+        bufferSource.getBuffer(renderType);
+        QUEUED.computeIfAbsent(bufferSource, source -> new HashMap<>()).computeIfAbsent(renderType, type -> new ArrayList<>()).add(draw);
+    }
+
+    /**
+     * Draws the retained slices queued on a buffer source for a render type, right after it drew its batch
+     */
+    public static void flush(MultiBufferSource.BufferSource bufferSource, RenderType renderType) {
+        Map<RenderType, List<QueuedDraw>> queued = QUEUED.get(bufferSource);
+        if (queued == null)
+            return;
+
+        List<QueuedDraw> draws = queued.get(renderType);
+        if (draws == null || draws.isEmpty())
+            return;
+
+        renderType.setupRenderState();
+        for (QueuedDraw draw : draws)
+            draw.draw();
+        renderType.clearRenderState();
+        draws.clear();
+    }
+
+    //Batches which never ended (the buffer source was dropped) must not leak into the next frame
+    public static void discardQueued() {
+        QUEUED.clear();
+    }
+
+    /**
+     * dot(N * normal, light) == dot(normal, transpose(N) * light), and canRetain only lets
+     * pure rotations through, for which the transpose is the inverse. So the transposed
+     * normal matrix takes a light direction from view space to part space.
+     */
+    private static Vector3f toPartSpace(Vector3f light, FiguraMat3 normalMat) {
+        return new Vector3f(
+                (float) (normalMat.v11 * light.x() + normalMat.v21 * light.y() + normalMat.v31 * light.z()),
+                (float) (normalMat.v12 * light.x() + normalMat.v22 * light.y() + normalMat.v32 * light.z()),
+                (float) (normalMat.v13 * light.x() + normalMat.v23 * light.y() + normalMat.v33 * light.z())
+        );
+    }
+
+    private static int getWhiteTexture() {
+        if (whiteTexture == null) {
+            NativeImage image = new NativeImage(1, 1, false);
+            image.setPixelRGBA(0, 0, 0xFFFFFFFF);
+            whiteTexture = new DynamicTexture(image);
+        }
+        return whiteTexture.getId();
+    }
+
+    /**
+     * @param indexCount How much of the vertex buffer to draw, it may hold more faces than this draw uses
+     * @param light Packed block and sky light, looked up in the lightmap when the render type uses one
+     */
+    private record QueuedDraw(VertexBuffer vertexBuffer, int indexCount, Matrix4f modelView, Vector3f light0, Vector3f light1, float r, float g, float b, float a, int light) {
+
+        private void draw() {
+            ShaderInstance shader = RenderSystem.getShader();
+            if (shader == null)
+                return;
+
+            Vector3f[] lights = RenderSystemAccessor.getShaderLightDirections();
+            Vector3f light0 = lights[0].copy();
+            Vector3f light1 = lights[1].copy();
+            RenderSystem.setShaderLights(this.light0, this.light1);
+
+            //The shader multiplies the color with the lightmap texel, so read that texel here and send it along with the color
+            float r = this.r, g = this.g, b = this.b;
+            int lightmap = RenderSystem.getShaderTexture(2);
+            if (lightmap != 0) {
+                NativeImage pixels = ((LightTextureAccessor) Minecraft.getInstance().gameRenderer.lightTexture()).getLightPixels();
+                int texel = pixels.getPixelRGBA(LightTexture.block(light), LightTexture.sky(light)); //ABGR
+                r *= (texel & 0xFF) / 255f;
+                g *= (texel >> 8 & 0xFF) / 255f;
+                b *= (texel >> 16 & 0xFF) / 255f;
+                RenderSystem.setShaderTexture(2, getWhiteTexture());
+            }
+            RenderSystem.setShaderColor(r, g, b, a);
+
+            VertexBufferAccessor accessor = (VertexBufferAccessor) vertexBuffer;
+            int uploaded = accessor.getIndexCount();
+            accessor.setIndexCount(indexCount);
+            vertexBuffer.drawWithShader(modelView, RenderSystem.getProjectionMatrix(), shader);
+            accessor.setIndexCount(uploaded);
+
+            if (lightmap != 0)
+                RenderSystem.setShaderTexture(2, lightmap);
+            RenderSystem.setShaderColor(1f, 1f, 1f, 1f);
+            RenderSystem.setShaderLights(light0, light1);
+        }
+    }
+
+    /**
+     * A run of faces from one texture set buffer belonging to a single part.
+     * Holds one vertex buffer per render layer (primary and secondary), since
+     * the two render types may use different vertex formats.
+     */
+    private static class RetainedSlice {
+
+        private final int firstVertex;
+
+        private final VertexBuffer[] vertexBuffers = new VertexBuffer[2];
+        private final VertexFormat[] formats = new VertexFormat[2];
+        private final int[] faceCounts = new int[2];
+
+        private RetainedSlice(int firstVertex) {
+            this.firstVertex = firstVertex;
+        }
+
+        /**
+         * The buffer is uploaded again only when the vertex format changes or more faces are needed
+         * than it holds, fewer faces are drawn as a part of it.
+         */
+        private VertexBuffer getBuffer(int layer, VertexFormat format, int faceCount, FiguraImmediateBuffer source) {
+            if (vertexBuffers[layer] != null && formats[layer] == format && faceCounts[layer] >= faceCount)
+                return vertexBuffers[layer];
+
+            if (vertexBuffers[layer] == null)
+                vertexBuffers[layer] = new VertexBuffer();
+
+            //Dividing by this makes uv 0 to 1
+            float width = source.getTextureSet().getWidth();
+            float height = source.getTextureSet().getHeight();
+
+            UPLOAD_BUILDER.begin(VertexFormat.Mode.QUADS, format);
+            for (int i = firstVertex; i < firstVertex + faceCount * 4; i++) {
+                UPLOAD_BUILDER.vertex(
+                        source.positions.get(3 * i),
+                        source.positions.get(3 * i + 1),
+                        source.positions.get(3 * i + 2),
+
+                        1f, 1f, 1f, 1f,
+
+                        source.uvs.get(2 * i) / width,
+                        source.uvs.get(2 * i + 1) / height,
+
+                        OverlayTexture.NO_OVERLAY,
+                        LightTexture.pack(0, 0), //the lightmap is swapped for a white texel, the light goes through the color
+
+                        source.normals.get(3 * i),
+                        source.normals.get(3 * i + 1),
+                        source.normals.get(3 * i + 2)
+                );
+            }
+            UPLOAD_BUILDER.end();
+            vertexBuffers[layer].upload(UPLOAD_BUILDER);
+
+            formats[layer] = format;
+            faceCounts[layer] = faceCount;
+            return vertexBuffers[layer];
+        }
+
+        private void close() {
+            for (VertexBuffer vertexBuffer : vertexBuffers) {
+                if (vertexBuffer != null)
+                    RenderSystem.recordRenderCall(vertexBuffer::close);
+            }
+        }
+    }
+}
@@ -8,6 +8,7 @@ import net.minecraft.client.renderer.texture.AbstractTexture;
 import net.minecraft.resources.ResourceLocation;
 import net.minecraft.server.packs.resources.ResourceManager;
 import org.lwjgl.BufferUtils;
+import org.moon.figura.mixin.render.TextureManagerAccessor;
 import org.moon.figura.utils.FiguraIdentifier;
 
 import java.io.Closeable;
@@ -84,9 +85,14 @@ public class FiguraTexture extends AbstractTexture implements Closeable {
         //Close native image
         nativeImage.close();
 
-        //Cache GLID and then release it on GPU
+        //Unregister from minecraft and release the GLID on GPU, never uploaded textures do not have either
+        //TextureManager.release only frees the id, the texture would stay in its map
+        if (!uploaded)
+            return;
+
         RenderSystem.recordRenderCall(() -> {
-            TextureUtil.releaseTextureId(this.id);
+            ((TextureManagerAccessor) Minecraft.getInstance().getTextureManager()).getByPath().remove(textureID);
+            releaseId();
         });
     }
 }
\ No newline at end of file
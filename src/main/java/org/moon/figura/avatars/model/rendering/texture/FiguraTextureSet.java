@@ -9,18 +9,24 @@ public class FiguraTextureSet {
 
     public final String name;
     public final FiguraTexture mainTex, emissiveTex;
+    private boolean cleaned = false;
 
     public FiguraTextureSet(String name, byte[] mainData, byte[] emissiveData) {
         this.name = name;
-        mainTex = mainData == null ? null : new FiguraTexture(mainData);
-        emissiveTex = emissiveData == null ? null : new FiguraTexture(emissiveData);
+        mainTex = mainData == null ? null : TextureCache.acquire(mainData);
+        emissiveTex = emissiveData == null ? null : TextureCache.acquire(emissiveData);
     }
 
+    //the textures may be shared with other avatars, so they are only closed once none of them uses it
     public void clean() {
+        if (cleaned)
+            return;
+        cleaned = true;
+
         if (mainTex != null)
-            mainTex.close();
+            TextureCache.release(mainTex);
         if (emissiveTex != null)
-            emissiveTex.close();
+            TextureCache.release(emissiveTex);
     }
 
     public void uploadIfNeeded() {
@@ -67,6 +73,10 @@ public class FiguraTextureSet {
             this.force = force;
         }
 
+        public boolean isForced() {
+            return force;
+        }
+
         public RenderType get(FiguraTexture texture) {
             if (force)
                 return func.apply(null);
@@ -0,0 +1,109 @@
+package org.moon.figura.avatars.model.rendering.texture;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Textures shared by every avatar, keyed by a hash of their png,
+ * so a texture used by many avatars, or left unchanged between reloads, is only decoded and uploaded once.
+ * Textures no avatar uses anymore are kept around up to a memory limit, dropping the least recently used first.
+ */
+public class TextureCache {
+
+    private static final long MAX_UNUSED_MEMORY = 64 * 1024 * 1024; //bytes
+
+    private static final HashMap<String, Entry> ENTRIES = new HashMap<>();
+    private static final IdentityHashMap<FiguraTexture, Entry> BY_TEXTURE = new IdentityHashMap<>();
+    //unused entries, oldest first
+    private static final LinkedHashMap<String, Entry> UNUSED = new LinkedHashMap<>();
+    private static long unusedMemory = 0;
+
+    /**
+     * Gets the texture for this png, decoding it only if no other avatar has it
+     * Every call must be matched by a release once the texture is not used anymore
+     */
+    public static FiguraTexture acquire(byte[] data) {
+        String key = hash(data);
+
+        synchronized (ENTRIES) {
+            Entry entry = ENTRIES.get(key);
+            if (entry != null)
+                return entry.acquire();
+        }
+
+        //decoding is the slow part, so not while holding the lock, the avatar loader threads can do it in parallel
+        FiguraTexture texture = new FiguraTexture(data);
+
+        synchronized (ENTRIES) {
+            //another avatar could have decoded the same texture meanwhile
+            Entry entry = ENTRIES.get(key);
+            if (entry != null) {
+                texture.close();
+                return entry.acquire();
+            }
+
+            entry = new Entry(key, texture);
+            ENTRIES.put(key, entry);
+            BY_TEXTURE.put(texture, entry);
+            return entry.acquire();
+        }
+    }
+
+    public static void release(FiguraTexture texture) {
+        synchronized (ENTRIES) {
+            Entry entry = BY_TEXTURE.get(texture);
+            if (entry == null) {
+                texture.close();
+                return;
+            }
+
+            if (--entry.references > 0)
+                return;
+
+            UNUSED.put(entry.key, entry);
+            unusedMemory += entry.memory;
+
+            Iterator<Entry> iterator = UNUSED.values().iterator();
+            while (unusedMemory > MAX_UNUSED_MEMORY && iterator.hasNext()) {
+                Entry oldest = iterator.next();
+                iterator.remove();
+                unusedMemory -= oldest.memory;
+                ENTRIES.remove(oldest.key);
+                BY_TEXTURE.remove(oldest.texture);
+                oldest.texture.close();
+            }
+        }
+    }
+
+    private static String hash(byte[] data) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(data));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); //every java platform has it
+        }
+    }
+
+    private static class Entry {
+        private final String key;
+        private final FiguraTexture texture;
+        private final long memory;
+        private int references;
+
+        private Entry(String key, FiguraTexture texture) {
+            this.key = key;
+            this.texture = texture;
+            this.memory = (long) texture.getWidth() * texture.getHeight() * 4;
+        }
+
+        private FiguraTexture acquire() {
+            if (references++ == 0 && UNUSED.remove(key) != null)
+                unusedMemory -= memory;
+            return texture;
+        }
+    }
+}
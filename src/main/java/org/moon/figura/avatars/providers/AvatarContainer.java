@@ -0,0 +1,397 @@
+package org.moon.figura.avatars.providers;
+
+import net.minecraft.nbt.*;
+import org.moon.figura.avatars.model.FiguraModelPart;
+import org.moon.figura.avatars.model.rendering.FiguraImmediateBuffer;
+import org.moon.figura.avatars.model.rendering.ImmediateAvatarRenderer;
+import org.moon.figura.avatars.model.rendering.PrebuiltGeometry;
+import org.moon.figura.avatars.model.rendering.texture.FiguraTextureSet;
+import org.moon.figura.parsers.LuaScriptParser;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Binary avatar file, read and written alongside the .moon nbt.
+ * A header and a table of contents point to the sections, each either stored as is or deflated.
+ * Besides the nbt, scripts and textures, it holds the vertex data already built, faces in their authored order,
+ * stored uncompressed and aligned, so those blocks are memory mapped and the buffers wrap them without copying.
+ */
+public class AvatarContainer {
+
+    public static final String EXTENSION = ".moonc";
+
+    private static final int MAGIC = 0x46474143; //FGAC
+    private static final int FORMAT = 1;
+    //bump whenever the layout or the face order of the prebuilt vertex data changes, files with another one build it again from the nbt
+    //2: faces kept in authored order instead of sorted
+    private static final String GEOMETRY_FORMAT = "2";
+
+    private static final int ALIGNMENT = 16; //bytes, for the vertex blocks
+    private static final byte STORED = 0, DEFLATED = 1;
+
+    private static final String NBT = "nbt", FACES = "faces";
+    private static final String SCRIPT = "script/", TEXTURE = "texture/";
+    private static final String POSITIONS = "positions/", UVS = "uvs/", NORMALS = "normals/";
+
+    /**
+     * @param nbt - the whole avatar, same as a .moon file would have
+     * @param geometry - the mapped vertex data, or null if the file did not have usable one
+     */
+    public record Contents(CompoundTag nbt, PrebuiltGeometry geometry) {}
+
+    private record Section(String name, byte compression, long offset, int length, int rawLength) {}
+
+    private record PendingSection(String name, byte compression, byte[] data, int rawLength) {}
+
+    // -- writing -- //
+
+    public static void write(CompoundTag avatar, Path file) throws IOException {
+        CompoundTag nbt = avatar.copy();
+        List<PendingSection> sections = new ArrayList<>();
+
+        //geometry, built while the textures are still in the nbt
+        PrebuiltGeometry geometry = buildGeometry(nbt);
+        if (geometry != null) {
+            for (int i = 0; i < geometry.getTextureCount(); i++) {
+                sections.add(stored(POSITIONS + i, toBytes(geometry.positions.get(i))));
+                sections.add(stored(UVS + i, toBytes(geometry.uvs.get(i))));
+                sections.add(stored(NORMALS + i, toBytes(geometry.normals.get(i))));
+            }
+            sections.add(deflated(FACES, writeFaces(geometry.parts)));
+        }
+
+        //textures, already compressed pngs
+        ListTag textures = nbt.getList("textures", Tag.TAG_COMPOUND);
+        for (int i = 0; i < textures.size(); i++) {
+            CompoundTag texture = textures.getCompound(i);
+            for (String key : List.copyOf(texture.getAllKeys())) {
+                if (texture.get(key) instanceof ByteArrayTag data) {
+                    sections.add(stored(TEXTURE + i + "/" + key, data.getAsByteArray()));
+                    texture.remove(key);
+                }
+            }
+        }
+
+        //scripts, as plain text
+        CompoundTag scripts = nbt.getCompound("scripts");
+        for (String name : scripts.getAllKeys()) {
+            StringBuilder source = new StringBuilder();
+            for (Tag chunk : scripts.getList(name, Tag.TAG_STRING))
+                source.append(chunk.getAsString());
+            sections.add(deflated(SCRIPT + name, source.toString().getBytes(StandardCharsets.UTF_8)));
+        }
+        nbt.remove("scripts");
+
+        //everything else
+        ByteArrayOutputStream rest = new ByteArrayOutputStream();
+        NbtIo.write(nbt, new DataOutputStream(rest));
+        sections.add(deflated(NBT, rest.toByteArray()));
+
+        //the header size does not depend on the offsets, so write it once to know where the data starts
+        long offset = align(writeHeader(sections, null).length);
+        long[] offsets = new long[sections.size()];
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = offset;
+            offset = align(offset + sections.get(i).data().length);
+        }
+        byte[] header = writeHeader(sections, offsets);
+
+        //write next to it then move, so a crash never leaves half a file behind
+        Path folder = file.toAbsolutePath().getParent();
+        Files.createDirectories(folder);
+        Path temp = Files.createTempFile(folder, "avatar", ".tmp");
+        try {
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temp))) {
+                out.write(header);
+                long position = header.length;
+                for (int i = 0; i < offsets.length; i++) {
+                    out.write(new byte[(int) (offsets[i] - position)]);
+                    out.write(sections.get(i).data());
+                    position = offsets[i] + sections.get(i).data().length;
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Layout: magic, format, geometry format, section count, then per section its name, compression, offset, length and uncompressed length
+     */
+    private static byte[] writeHeader(List<PendingSection> sections, long[] offsets) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT);
+        out.writeUTF(GEOMETRY_FORMAT);
+        out.writeInt(sections.size());
+        for (int i = 0; i < sections.size(); i++) {
+            PendingSection section = sections.get(i);
+            out.writeUTF(section.name());
+            out.writeByte(section.compression());
+            out.writeLong(offsets == null ? 0 : offsets[i]);
+            out.writeInt(section.data().length);
+            out.writeInt(section.rawLength());
+        }
+        return bytes.toByteArray();
+    }
+
+    //builds the vertex data the same way the renderer would
+    private static PrebuiltGeometry buildGeometry(CompoundTag nbt) {
+        if (!nbt.contains("models"))
+            return null;
+
+        List<FiguraTextureSet> textureSets = ImmediateAvatarRenderer.readTextureSets(nbt.getList("textures", Tag.TAG_COMPOUND));
+        try {
+            List<FiguraImmediateBuffer.Builder> builders = new ArrayList<>();
+            FiguraModelPart root = FiguraModelPart.read(nbt.getCompound("models"), builders, textureSets);
+            return PrebuiltGeometry.capture(root, builders);
+        } finally {
+            for (FiguraTextureSet textureSet : textureSets)
+                textureSet.clean();
+        }
+    }
+
+    private static byte[] writeFaces(List<PrebuiltGeometry.PartFaces> parts) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(parts.size());
+        for (PrebuiltGeometry.PartFaces part : parts) {
+            out.writeInt(part.facesByTexture().length);
+            for (int i = 0; i < part.facesByTexture().length; i++) {
+                float[] areas = part.faceAreas()[i];
+                out.writeInt(part.facesByTexture()[i]);
+                out.writeInt(areas.length);
+                for (float area : areas)
+                    out.writeFloat(area);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] toBytes(FloatBuffer floats) {
+        ByteBuffer bytes = ByteBuffer.allocate(floats.remaining() * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        bytes.asFloatBuffer().put(floats.duplicate());
+        return bytes.array();
+    }
+
+    private static PendingSection stored(String name, byte[] data) {
+        return new PendingSection(name, STORED, data, data.length);
+    }
+
+    private static PendingSection deflated(String name, byte[] data) {
+        Deflater deflater = new Deflater();
+        deflater.setInput(data);
+        deflater.finish();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 16);
+        byte[] buffer = new byte[8192];
+        while (!deflater.finished())
+            out.write(buffer, 0, deflater.deflate(buffer));
+        deflater.end();
+
+        //not worth inflating it later
+        byte[] compressed = out.toByteArray();
+        return compressed.length < data.length ? new PendingSection(name, DEFLATED, compressed, data.length) : stored(name, data);
+    }
+
+    private static long align(long offset) {
+        return (offset + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+
+    // -- reading -- //
+
+    /**
+     * Rebuilds the avatar nbt from the file
+     * Only the vertex blocks are memory mapped, everything else is read and copied out of the file.
+     * The mapped blocks are not copied either, and stay mapped until the buffers wrapping them are garbage collected
+     */
+    public static Contents read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            Map<String, Section> sections = readHeader(channel);
+            CompoundTag nbt = readNbt(channel, sections);
+
+            //scripts and textures
+            CompoundTag scripts = new CompoundTag();
+            ListTag textures = nbt.getList("textures", Tag.TAG_COMPOUND);
+            for (Section section : sections.values()) {
+                String name = section.name();
+                if (name.startsWith(SCRIPT)) {
+                    String source = new String(unpack(channel, section), StandardCharsets.UTF_8);
+                    scripts.put(name.substring(SCRIPT.length()), LuaScriptParser.parse(source));
+                } else if (name.startsWith(TEXTURE)) {
+                    String[] split = name.substring(TEXTURE.length()).split("/", 2);
+                    int index = Integer.parseInt(split[0]);
+                    if (index < textures.size())
+                        textures.getCompound(index).putByteArray(split[1], unpack(channel, section));
+                }
+            }
+            if (!scripts.isEmpty())
+                nbt.put("scripts", scripts);
+
+            return new Contents(nbt, readGeometry(channel, sections, textures.size()));
+        }
+    }
+
+    /**
+     * Only reads the nbt, without the scripts, textures and vertex data
+     */
+    public static CompoundTag readNbt(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return readNbt(channel, readHeader(channel));
+        }
+    }
+
+    private static Map<String, Section> readHeader(FileChannel channel) throws IOException {
+        //not closed, that would close the channel
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel.position(0))));
+        if (in.readInt() != MAGIC)
+            throw new IOException("Not an avatar container");
+        if (in.readInt() != FORMAT)
+            throw new IOException("Unsupported avatar container format");
+
+        String geometryFormat = in.readUTF();
+        int count = in.readInt();
+        long size = channel.size();
+        Map<String, Section> sections = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            Section section = new Section(in.readUTF(), in.readByte(), in.readLong(), in.readInt(), in.readInt());
+            if (section.offset() < 0 || section.length() < 0 || section.offset() + section.length() > size)
+                throw new IOException("Avatar container is truncated");
+            sections.put(section.name(), section);
+        }
+
+        //older geometry is left out, the renderer builds it again from the models
+        if (!geometryFormat.equals(GEOMETRY_FORMAT))
+            sections.keySet().removeIf(name -> name.equals(FACES) || name.startsWith(POSITIONS) || name.startsWith(UVS) || name.startsWith(NORMALS));
+
+        return sections;
+    }
+
+    private static CompoundTag readNbt(FileChannel channel, Map<String, Section> sections) throws IOException {
+        Section section = sections.get(NBT);
+        if (section == null)
+            throw new IOException("Avatar container has no nbt");
+        return NbtIo.read(new DataInputStream(new ByteArrayInputStream(unpack(channel, section))));
+    }
+
+    private static PrebuiltGeometry readGeometry(FileChannel channel, Map<String, Section> sections, int textureCount) throws IOException {
+        Section faces = sections.get(FACES);
+        if (faces == null)
+            return null;
+
+        PrebuiltGeometry geometry = new PrebuiltGeometry();
+        for (int i = 0; i < textureCount; i++) {
+            Section positions = sections.get(POSITIONS + i), uvs = sections.get(UVS + i), normals = sections.get(NORMALS + i);
+            if (positions == null || uvs == null || normals == null)
+                break;
+
+            geometry.positions.add(mapFloats(channel, positions));
+            geometry.uvs.add(mapFloats(channel, uvs));
+            geometry.normals.add(mapFloats(channel, normals));
+        }
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(unpack(channel, faces)));
+        int partCount = in.readInt();
+        for (int i = 0; i < partCount; i++) {
+            int textures = in.readInt();
+            int[] facesByTexture = new int[textures];
+            float[][] faceAreas = new float[textures][];
+            for (int j = 0; j < textures; j++) {
+                facesByTexture[j] = in.readInt();
+                faceAreas[j] = new float[in.readInt()];
+                for (int k = 0; k < faceAreas[j].length; k++)
+                    faceAreas[j][k] = in.readFloat();
+            }
+            geometry.parts.add(new PrebuiltGeometry.PartFaces(facesByTexture, faceAreas));
+        }
+
+        return geometry;
+    }
+
+    //the mapping stays valid after the channel is closed
+    private static FloatBuffer mapFloats(FileChannel channel, Section section) throws IOException {
+        if (section.compression() != STORED)
+            throw new IOException("Vertex data must not be compressed");
+        return channel.map(FileChannel.MapMode.READ_ONLY, section.offset(), section.length()).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+    }
+
+    private static byte[] unpack(FileChannel channel, Section section) throws IOException {
+        byte[] data = readBytes(channel, section.offset(), section.length());
+        if (section.compression() == STORED)
+            return data;
+
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            byte[] result = new byte[section.rawLength()];
+            int read = 0;
+            while (read < result.length && !inflater.finished()) {
+                int count = inflater.inflate(result, read, result.length - read);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    break;
+                read += count;
+            }
+            if (read != result.length)
+                throw new IOException("Avatar container section " + section.name() + " is corrupted");
+            return result;
+        } catch (DataFormatException e) {
+            throw new IOException("Avatar container section " + section.name() + " is corrupted", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static byte[] readBytes(FileChannel channel, long offset, int length) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate(length);
+        while (bytes.hasRemaining()) {
+            if (channel.read(bytes, offset + bytes.position()) < 0)
+                throw new IOException("Avatar container is truncated");
+        }
+        return bytes.array();
+    }
+
+    // -- converting -- //
+
+    /**
+     * Converts an avatar next to where it is: containers become .moon files, while .moon files and avatar folders become containers
+     * @return the written file
+     */
+    public static Path convert(Path path) throws IOException {
+        String name = path.getFileName().toString();
+
+        if (name.endsWith(EXTENSION)) {
+            Path moon = path.resolveSibling(name.substring(0, name.length() - EXTENSION.length()) + ".moon");
+            CompoundTag nbt = read(path).nbt();
+            try (OutputStream out = Files.newOutputStream(moon)) {
+                NbtIo.writeCompressed(nbt, out);
+            }
+            return moon;
+        }
+
+        CompoundTag nbt = LocalAvatarLoader.loadAvatar(path);
+        if (nbt == null)
+            throw new IOException("No avatar found at " + path);
+
+        if (name.endsWith(".moon"))
+            name = name.substring(0, name.length() - 5);
+        Path container = path.resolveSibling(name + EXTENSION);
+        write(nbt, container);
+        return container;
+    }
+}
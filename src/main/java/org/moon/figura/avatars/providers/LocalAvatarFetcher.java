@@ -1,43 +1,254 @@
 package org.moon.figura.avatars.providers;
 
+import net.minecraft.client.Minecraft;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.ListTag;
+import net.minecraft.nbt.NbtIo;
+import net.minecraft.nbt.Tag;
 import org.moon.figura.FiguraMod;
 import org.moon.figura.config.Config;
+import org.moon.figura.parsers.AvatarMetadataParser;
 
-import java.io.File;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.util.ArrayList;
-import java.util.List;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Navigates through the file system, finding all folders
- * containing avatar.json as well as all .moon files.
+ * containing avatar.json as well as all .moon and container files.
+ * The walk happens in the background, and what it finds is kept in an index on disk,
+ * so the list is available right away and only changed avatars have their metadata read again.
  */
 public class LocalAvatarFetcher {
 
     /**
      * After calling load(), this is an AvatarFolder that contains
      * the whole filesystem of avatars.
+     * Only touched on the client thread, the walker hands its results over to it.
      */
     public static final List<AvatarPath> ALL_AVATARS = new ArrayList<>();
 
+    private static final int INDEX_VERSION = 1;
+
+    private static final ExecutorService WALKER = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Figura Avatar Fetcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final AtomicBoolean WALKING = new AtomicBoolean();
+
+    //only used by the walker thread, avatars by their path relative to the avatar directory
+    private static Map<String, IndexEntry> index;
+    private static Path indexedDirectory;
+
     /**
-     * Clears out the root AvatarFolder, and regenerates it from the
-     * file system.
+     * Refreshes the avatar list in the background
+     * The current list stays until the walk is done, so this is cheap to call often
      */
     public static void load() {
-        //clear loaded avatars
-        ALL_AVATARS.clear();
+        if (!WALKING.compareAndSet(false, true))
+            return;
+
+        Path directory = getLocalAvatarDirectory();
+        WALKER.execute(() -> {
+            try {
+                refresh(directory);
+            } catch (Exception e) {
+                FiguraMod.LOGGER.error("Failed to fetch local avatars", e);
+            } finally {
+                WALKING.set(false);
+            }
+        });
+    }
+
+    private static void refresh(Path directory) throws IOException {
+        //first run, or the avatar folder was changed in the config
+        if (index == null || !directory.equals(indexedDirectory)) {
+            indexedDirectory = directory;
+            index = readIndex(directory);
+
+            //show what we had last time while walking
+            if (!index.isEmpty())
+                publish(directory, index.values());
+        }
+
+        Map<String, IndexEntry> found = walk(directory);
+        if (found.keySet().equals(index.keySet()) && found.values().stream().allMatch(entry -> entry.reused))
+            return;
+
+        index = found;
+        publish(directory, found.values());
+        writeIndex(found);
+    }
+
+    /**
+     * Walks the avatar directory, reusing the indexed metadata of avatars which did not change
+     */
+    private static Map<String, IndexEntry> walk(Path directory) throws IOException {
+        Map<String, IndexEntry> found = new HashMap<>();
+        Files.walkFileTree(directory, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                //we do not want to accept avatars in the root folder, so we skip right into the children
+                if (dir.equals(directory))
+                    return FileVisitResult.CONTINUE;
+
+                Path metadata = dir.resolve("avatar.json");
+                if (!Files.exists(metadata))
+                    return FileVisitResult.CONTINUE;
+
+                //do not look for more avatars inside an avatar
+                addEntry(directory, dir, metadata, Files.readAttributes(metadata, BasicFileAttributes.class), found);
+                return FileVisitResult.SKIP_SUBTREE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                String name = file.getFileName().toString();
+                if (attrs.isRegularFile() && (name.endsWith(".moon") || name.endsWith(AvatarContainer.EXTENSION)))
+                    addEntry(directory, file, file, attrs, found);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return found;
+    }
+
+    private static void addEntry(Path directory, Path avatar, Path source, BasicFileAttributes attrs, Map<String, IndexEntry> found) {
+        String key = directory.relativize(avatar).toString().replace('\\', '/');
+        long modified = attrs.lastModifiedTime().toMillis();
+        long size = attrs.size();
+
+        IndexEntry old = index.get(key);
+        if (old != null && old.modified == modified && old.size == size) {
+            found.put(key, new IndexEntry(key, modified, size, old.metadata, true));
+            return;
+        }
+
+        found.put(key, new IndexEntry(key, modified, size, readMetadata(avatar, source), false));
+    }
+
+    private static CompoundTag readMetadata(Path avatar, Path source) {
+        try {
+            if (avatar.toString().endsWith(AvatarContainer.EXTENSION))
+                return AvatarContainer.readNbt(source).getCompound("metadata");
+
+            if (avatar.equals(source)) {
+                try (InputStream stream = Files.newInputStream(source)) {
+                    return NbtIo.readCompressed(stream).getCompound("metadata");
+                }
+            }
+
+            String json = Files.readString(source, StandardCharsets.UTF_8);
+            return AvatarMetadataParser.parse(json, avatar.getFileName().toString());
+        } catch (Exception e) {
+            FiguraMod.LOGGER.debug("Failed to read the metadata of " + avatar, e);
+            return new CompoundTag();
+        }
+    }
+
+    //builds the folder tree from the found avatars and hands it to the client thread
+    private static void publish(Path directory, Collection<IndexEntry> entries) {
+        AvatarPath root = new AvatarPath(directory, null);
+        Map<Path, AvatarPath> folders = new HashMap<>();
+        folders.put(directory, root);
 
-        //load avatars, however we do not want to accept avatars in the root folder,
-        //so we skip right into the children loading
-        AvatarPath root = new AvatarPath(getLocalAvatarDirectory());
-        root.fill(true);
+        for (IndexEntry entry : entries) {
+            Path path = directory.resolve(entry.path);
+            AvatarPath avatar = new AvatarPath(path, entry.metadata);
+            getFolder(path.getParent(), folders).children.add(avatar);
+        }
+
+        Minecraft.getInstance().execute(() -> {
+            ALL_AVATARS.clear();
+            ALL_AVATARS.addAll(root.getChildren());
+        });
+    }
+
+    private static AvatarPath getFolder(Path path, Map<Path, AvatarPath> folders) {
+        AvatarPath folder = folders.get(path);
+        if (folder == null) {
+            folder = new AvatarPath(path, null);
+            folders.put(path, folder);
+            getFolder(path.getParent(), folders).children.add(folder);
+        }
+        return folder;
+    }
+
+    // -- index -- //
 
-        //add new avatars
-        ALL_AVATARS.addAll(root.getChildren());
+    private static Path getIndexPath() {
+        return FiguraMod.getFiguraDirectory().resolve("cache/avatar_index.nbt");
+    }
+
+    private static Map<String, IndexEntry> readIndex(Path directory) {
+        Map<String, IndexEntry> result = new HashMap<>();
+        Path path = getIndexPath();
+        if (!Files.exists(path))
+            return result;
+
+        try (InputStream stream = Files.newInputStream(path)) {
+            CompoundTag nbt = NbtIo.readCompressed(stream);
+            if (nbt.getInt("version") != INDEX_VERSION || !nbt.getString("directory").equals(directory.toString()))
+                return result;
+
+            for (Tag tag : nbt.getList("avatars", Tag.TAG_COMPOUND)) {
+                CompoundTag avatar = (CompoundTag) tag;
+                String key = avatar.getString("path");
+                result.put(key, new IndexEntry(key, avatar.getLong("modified"), avatar.getLong("size"), avatar.getCompound("metadata"), true));
+            }
+        } catch (Exception e) {
+            FiguraMod.LOGGER.debug("Failed to read the avatar index", e);
+        }
+
+        return result;
+    }
+
+    private static void writeIndex(Map<String, IndexEntry> entries) {
+        CompoundTag nbt = new CompoundTag();
+        nbt.putInt("version", INDEX_VERSION);
+        nbt.putString("directory", indexedDirectory.toString());
+
+        ListTag avatars = new ListTag();
+        for (IndexEntry entry : entries.values()) {
+            CompoundTag avatar = new CompoundTag();
+            avatar.putString("path", entry.path);
+            avatar.putLong("modified", entry.modified);
+            avatar.putLong("size", entry.size);
+            avatar.put("metadata", entry.metadata);
+            avatars.add(avatar);
+        }
+        nbt.put("avatars", avatars);
+
+        Path path = getIndexPath();
+        try {
+            Files.createDirectories(path.getParent());
+            try (OutputStream stream = Files.newOutputStream(path)) {
+                NbtIo.writeCompressed(nbt, stream);
+            }
+        } catch (Exception e) {
+            FiguraMod.LOGGER.debug("Failed to save the avatar index", e);
+        }
     }
 
+    /**
+     * @param path - relative to the avatar directory
+     * @param modified - last modified time of the avatar.json, .moon or container file
+     * @param reused - if the metadata came from the index instead of being read again
+     */
+    private record IndexEntry(String path, long modified, long size, CompoundTag metadata, boolean reused) {}
+
     /**
      * Returns the directory where all local avatars are stored.
      * The directory is either the one set in the configs, or MOD_ID directory.
@@ -61,50 +272,16 @@ public class LocalAvatarFetcher {
      */
     public static class AvatarPath {
 
-        private final boolean hasAvatar;
         private final List<AvatarPath> children = new ArrayList<>();
         private final Path path;
-
-        public AvatarPath(Path path) {
-            this.path = path;
-            hasAvatar = Files.exists(path.resolve("avatar.json")) || path.toString().endsWith(".moon");
-        }
+        private final CompoundTag metadata;
 
         /**
-         * Recursively traverses the filesystem looking for avatars under this folder.
-         * @param ignoreAvatars Whether the search should ignore avatar.json files
-         *                      inside itself. This is used on the root folder call, as we
-         *                      don't want "figura/avatars/avatar.json" to work, it needs to
-         *                      be in a subfolder.
-         * @return Whether we found an avatar in our recursive searching. If we didn't, then
-         * this folder can get ignored and not added as a child in another folder. We only want
-         * our AvatarFolder to contain sub-folders that actually have avatars.
+         * @param metadata - the avatar metadata, or null for folders
          */
-        public boolean fill(boolean ignoreAvatars) {
-            //do not fill the children if we already found an avatar
-            if (hasAvatar && !ignoreAvatars)
-                return true;
-
-            File[] files = path.toFile().listFiles();
-            if (files == null)
-                return false;
-
-            //iterate over all files on this path
-            //but skip non-folders and non-moon
-            boolean foundAvatar = false;
-            for (File file : files) {
-                if (!file.isDirectory() && !file.getName().endsWith(".moon"))
-                    continue;
-
-                //attempt to load avatars from subfolder
-                AvatarPath folder = new AvatarPath(file.toPath());
-                boolean foundAvatarHere = folder.fill(false);
-                foundAvatar |= foundAvatarHere;
-                if (foundAvatarHere)
-                    children.add(folder);
-            }
-
-            return foundAvatar;
+        public AvatarPath(Path path, CompoundTag metadata) {
+            this.path = path;
+            this.metadata = metadata;
         }
 
         public List<AvatarPath> getChildren() {
@@ -116,7 +293,16 @@ public class LocalAvatarFetcher {
         }
 
         public boolean hasAvatar() {
-            return hasAvatar;
+            return metadata != null;
+        }
+
+        //the avatar name and authors from the metadata, empty for folders
+        public String getName() {
+            return metadata == null ? "" : metadata.getString("name");
+        }
+
+        public String getAuthors() {
+            return metadata == null ? "" : metadata.getString("authors");
         }
     }
 }
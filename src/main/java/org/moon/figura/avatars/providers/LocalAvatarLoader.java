@@ -1,22 +1,29 @@
 package org.moon.figura.avatars.providers;
 
+import net.minecraft.Util;
+import net.minecraft.client.Minecraft;
 import net.minecraft.nbt.CompoundTag;
 import net.minecraft.nbt.ListTag;
 import net.minecraft.nbt.NbtIo;
 import org.moon.figura.FiguraMod;
 import org.moon.figura.avatars.AvatarManager;
 import org.moon.figura.parsers.AvatarMetadataParser;
+import org.moon.figura.parsers.BlockbenchModel;
 import org.moon.figura.parsers.BlockbenchModelParser;
+import org.moon.figura.parsers.BlockbenchModelReader;
 import org.moon.figura.parsers.LuaScriptParser;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.IOException;
+import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 
 /**
@@ -25,28 +32,57 @@ import java.util.regex.Pattern;
  */
 public class LocalAvatarLoader {
 
-    private static Path lastLoadedPath;
+    private static volatile Path lastLoadedPath;
+
+    //editors often write a file more than once per save, so wait for the events to stop before reloading
+    private static final long RELOAD_DEBOUNCE = 250; //ms
 
     private static WatchService watcher;
     private final static HashMap<Path, WatchKey> keys = new HashMap<>();
+
+    //read models of the watched avatar, so a reload only reads the files which changed
+    private final static HashMap<Path, CachedModel> modelCache = new HashMap<>();
+
     static {
         try {
             watcher = FileSystems.getDefault().newWatchService();
+
+            Thread thread = new Thread(LocalAvatarLoader::watchFiles, "Figura Avatar Watcher");
+            thread.setDaemon(true);
+            thread.start();
         } catch (Exception e) {
             FiguraMod.LOGGER.error("Failed to initialize the watcher service", e);
         }
     }
 
     /**
-     * Loads an NbtCompound from the specified path
-     * @param path - the file/folder for loading the avatar
-     * @return the NbtCompound from this path
+     * Sets the path as the last loaded one and starts watching it for changes
+     * @param path - the file/folder of the avatar, or null to stop watching
      */
-    public static CompoundTag loadAvatar(Path path) throws IOException {
+    public static void watchAvatar(Path path) {
+        //reloading the same avatar, already watching everything in it
+        if (path != null && path.equals(lastLoadedPath)) {
+            synchronized (keys) {
+                if (!keys.isEmpty())
+                    return;
+            }
+        }
+
         lastLoadedPath = path;
+        synchronized (modelCache) {
+            modelCache.clear();
+        }
         resetWatchKeys();
         addWatchKey(path);
+    }
 
+    /**
+     * Loads an NbtCompound from the specified path
+     * Only reads files, so it is safe to call from the avatar loader threads
+     * @param path - the file/folder for loading the avatar
+     * @return the NbtCompound from this path
+     */
+    public static CompoundTag loadAvatar(Path path) throws IOException {
         if (path == null)
             return null;
 
@@ -56,6 +92,10 @@ public class LocalAvatarLoader {
             return NbtIo.readCompressed(new FileInputStream(path.toFile()));
         }
 
+        //load as a binary container (.moonc)
+        if (path.toString().endsWith(AvatarContainer.EXTENSION))
+            return AvatarContainer.read(path).nbt();
+
         //load as folder
         CompoundTag nbt = new CompoundTag();
 
@@ -64,17 +104,8 @@ public class LocalAvatarLoader {
         nbt.put("metadata", AvatarMetadataParser.parse(metadata, path.getFileName().toString()));
 
         //scripts
-        List<File> scripts = getFilesByExtension(path, ".lua", true);
-        if (scripts.size() > 0) {
-            CompoundTag scriptsNbt = new CompoundTag();
-            String pathRegex = Pattern.quote(path + File.separator);
-            for (File script : scripts) {
-                String pathStr = script.toPath().toString();
-                String name = pathStr.replaceFirst(pathRegex, "");
-                name = name.replace(File.separatorChar, '/');
-                scriptsNbt.put(name.substring(0, name.length() - 4), LuaScriptParser.parse(readFile(script)));
-            }
-
+        CompoundTag scriptsNbt = loadScripts(path);
+        if (scriptsNbt != null) {
             nbt.put("scripts", scriptsNbt);
 
             //sounds
@@ -106,10 +137,23 @@ public class LocalAvatarLoader {
         ListTag textures = new ListTag();
         ListTag animations = new ListTag();
 
+        //reading the json is the slow part and independent for every model, so read them in parallel
+        List<CompletableFuture<BlockbenchModel>> readModels = new ArrayList<>();
+        for (File model : models)
+            readModels.add(CompletableFuture.supplyAsync(() -> readModel(model), Util.backgroundExecutor()));
+
+        //then convert them in order, as the texture and animation ids continue from the previous models
         BlockbenchModelParser parser = new BlockbenchModelParser();
-        for (File model : models) {
-            String name = model.getName();
-            BlockbenchModelParser.ModelData data = parser.parseModel(readFile(model), name.substring(0, name.length() - 8));
+        for (int i = 0; i < models.size(); i++) {
+            BlockbenchModel model;
+            try {
+                model = readModels.get(i).join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof UncheckedIOException io ? io.getCause() : new IOException(e.getCause());
+            }
+
+            String name = models.get(i).getName();
+            BlockbenchModelParser.ModelData data = parser.parseModel(model, name.substring(0, name.length() - 8));
             children.add(data.modelNbt());
             textures.addAll(data.textureList());
             animations.addAll(data.animationList());
@@ -127,6 +171,101 @@ public class LocalAvatarLoader {
         return nbt;
     }
 
+    //reads a model, or reuses the last result if the file did not change
+    //the file is streamed, never held whole, and hashed as it is read
+    private static BlockbenchModel readModel(File file) {
+        try {
+            Path path = file.toPath().toAbsolutePath();
+
+            //only cache the watched avatar, other avatars are not reloaded on changes
+            Path watched = lastLoadedPath;
+            if (watched == null || !path.startsWith(watched.toAbsolutePath()))
+                return read(Files.newInputStream(path));
+
+            CachedModel cached;
+            synchronized (modelCache) {
+                cached = modelCache.get(path);
+            }
+
+            //hashing is much cheaper than reading the json, so check for changes first
+            if (cached != null) {
+                MessageDigest digest = newDigest();
+                try (InputStream stream = new DigestInputStream(Files.newInputStream(path), digest)) {
+                    stream.transferTo(OutputStream.nullOutputStream());
+                }
+                if (Arrays.equals(cached.hash(), digest.digest()))
+                    return cached.model();
+            }
+
+            //the hash of what was actually read, in case the file changes again in between
+            MessageDigest digest = newDigest();
+            BlockbenchModel model = read(new DigestInputStream(Files.newInputStream(path), digest));
+
+            synchronized (modelCache) {
+                modelCache.put(path, new CachedModel(digest.digest(), model));
+            }
+
+            return model;
+        } catch (IOException e) {
+            FiguraMod.LOGGER.error("Failed to read File: " + file);
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static BlockbenchModel read(InputStream stream) throws IOException {
+        try (stream) {
+            BlockbenchModel model = BlockbenchModelReader.read(new InputStreamReader(stream, StandardCharsets.UTF_8));
+            //anything after the json still counts for the hash
+            stream.transferTo(OutputStream.nullOutputStream());
+            return model;
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Gets the size of an already compressed avatar file, so it doesn't need to be compressed again
+     * @param path - the file/folder of the avatar
+     * @return the file size in bytes, or -1 if the avatar is a folder
+     */
+    public static long getFileSize(Path path) {
+        if (path == null || !path.toString().endsWith(".moon"))
+            return -1;
+
+        try {
+            return Files.size(path);
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Reads only the scripts of an avatar folder, for reloading them without the rest of the avatar
+     * @param path - the folder of the avatar
+     * @return the scripts nbt, or null if it has none
+     */
+    public static CompoundTag loadScripts(Path path) throws IOException {
+        List<File> scripts = getFilesByExtension(path, ".lua", true);
+        if (scripts.isEmpty())
+            return null;
+
+        CompoundTag scriptsNbt = new CompoundTag();
+        String pathRegex = Pattern.quote(path + File.separator);
+        for (File script : scripts) {
+            String pathStr = script.toPath().toString();
+            String name = pathStr.replaceFirst(pathRegex, "");
+            name = name.replace(File.separatorChar, '/');
+            scriptsNbt.put(name.substring(0, name.length() - 4), LuaScriptParser.parse(readFile(script)));
+        }
+        return scriptsNbt;
+    }
+
     /**
      * Saves the loaded NBT into a folder inside the avatar list
      */
@@ -142,47 +281,75 @@ public class LocalAvatarLoader {
     }
 
     /**
-     * Tick the watched key for hotswapping avatars
+     * Runs on the watcher thread, collecting file events for hotswapping avatars
+     * After a burst of events settles down, the avatar is reloaded once on the client thread
      */
-    public static void tickWatchedKey() {
-        WatchEvent<?> event = null;
-        boolean reload = false;
+    private static void watchFiles() {
+        boolean changed = false;
+        //if every change since the last reload was to a script
+        boolean onlyScripts = true;
+        while (true) {
+            WatchKey key;
+            try {
+                key = changed ? watcher.poll(RELOAD_DEBOUNCE, TimeUnit.MILLISECONDS) : watcher.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+
+            //quiet for a while, reload
+            if (key == null) {
+                boolean scripts = onlyScripts;
+                changed = false;
+                onlyScripts = true;
+                FiguraMod.LOGGER.debug("Local avatar files changed - Reloading!");
+                Minecraft.getInstance().execute(() -> {
+                    if (lastLoadedPath == null)
+                        return;
+
+                    //the models and textures are kept when only scripts changed
+                    if (scripts)
+                        AvatarManager.reloadLocalScripts(lastLoadedPath);
+                    else
+                        AvatarManager.loadLocalAvatar(lastLoadedPath);
+                });
+                continue;
+            }
 
-        for (Map.Entry<Path, WatchKey> entry : keys.entrySet()) {
-            WatchKey key = entry.getValue();
+            //cancelled when the watched avatar changed
             if (!key.isValid())
                 continue;
 
-            for (WatchEvent<?> watchEvent : key.pollEvents()) {
-                if (watchEvent.kind() == StandardWatchEventKinds.OVERFLOW)
+            Path directory = (Path) key.watchable();
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    changed = true;
+                    onlyScripts = false;
                     continue;
+                }
 
-                event = watchEvent;
-                File file = entry.getKey().resolve(((WatchEvent<Path>) event).context()).toFile();
-
+                Path path = directory.resolve((Path) event.context());
+                File file = path.toFile();
                 if (file.isDirectory() && (file.isHidden() || file.getName().startsWith(".")))
                     continue;
 
-                reload = true;
-                break;
-            }
-
-            if (reload)
-                break;
-        }
+                //new folders need to be watched too
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && file.isDirectory())
+                    addWatchKey(path);
 
-        //reload avatar
-        if (reload) {
-            FiguraMod.LOGGER.debug("Local avatar files changed - Reloading!");
-            FiguraMod.LOGGER.debug(event.context().toString());
-            AvatarManager.loadLocalAvatar(lastLoadedPath);
+                FiguraMod.LOGGER.debug(path.toString());
+                changed = true;
+                onlyScripts &= !file.isDirectory() && file.getName().endsWith(".lua");
+            }
+            key.reset();
         }
     }
 
     private static void resetWatchKeys() {
-        for (WatchKey key : keys.values())
-            key.cancel();
-        keys.clear();
+        synchronized (keys) {
+            for (WatchKey key : keys.values())
+                key.cancel();
+            keys.clear();
+        }
     }
 
     /**
@@ -199,7 +366,9 @@ public class LocalAvatarLoader {
 
         try {
             WatchKey key = path.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
-            keys.put(path, key);
+            synchronized (keys) {
+                keys.put(path, key);
+            }
 
             File[] children = file.listFiles();
             if (children == null)
@@ -243,4 +412,6 @@ public class LocalAvatarLoader {
     public static Path getLastLoadedPath() {
         return lastLoadedPath;
     }
+
+    private record CachedModel(byte[] hash, BlockbenchModel model) {}
 }
@@ -0,0 +1,171 @@
+package org.moon.figura.backend;
+
+import net.minecraft.Util;
+import net.minecraft.client.Minecraft;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.NbtIo;
+import org.moon.figura.FiguraMod;
+import org.moon.figura.avatars.AvatarManager;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Downloads avatars from the backend, a few at a time, nearest players first.
+ * All the bookkeeping happens on the client thread, only the request
+ * and the nbt decompression run in the background.
+ * Requests go through the backend connection, see NetworkManager.requestAvatar.
+ */
+public class AvatarDownloader {
+
+    private static final int MAX_DOWNLOADS = 4;
+    private static final int MAX_QUEUED = 256;
+    private static final int MAX_ATTEMPTS = 5;
+    private static final long BASE_RETRY_DELAY = 1000; //ms, doubled for every failed attempt
+    private static final long FAILED_COOLDOWN = 60_000; //ms, before a download that ran out of attempts can be requested again
+
+    //every request either queued, downloading or waiting for a retry, by owner
+    private static final HashMap<UUID, Request> REQUESTS = new HashMap<>();
+    private static final PriorityQueue<Request> QUEUE = new PriorityQueue<>(Comparator.comparingDouble(request -> request.priority));
+    private static final ArrayList<Request> RETRYING = new ArrayList<>();
+    //downloads that ran out of attempts, by the time they can be requested again
+    private static final HashMap<UUID, Long> COOLDOWNS = new HashMap<>();
+    private static int downloading = 0;
+
+    /**
+     * Queues a download, or bumps its priority if it was already requested
+     * @param priority lower downloads first, usually the squared distance to the camera
+     */
+    public static void request(UUID id, double priority) {
+        Long cooldown = COOLDOWNS.get(id);
+        if (cooldown != null) {
+            if (cooldown > Util.getMillis())
+                return;
+            COOLDOWNS.remove(id);
+        }
+
+        Request request = REQUESTS.get(id);
+        if (request != null) {
+            //coalesce, only moving it up the queue when it got closer
+            if (priority < request.priority && QUEUE.remove(request)) {
+                request.priority = priority;
+                QUEUE.add(request);
+            }
+            return;
+        }
+
+        //queue is full, drop the farthest request, it will be requested again later
+        if (QUEUE.size() >= MAX_QUEUED) {
+            Request farthest = null;
+            for (Request queued : QUEUE) {
+                if (farthest == null || queued.priority > farthest.priority)
+                    farthest = queued;
+            }
+
+            if (farthest.priority <= priority)
+                return;
+
+            QUEUE.remove(farthest);
+            REQUESTS.remove(farthest.id);
+        }
+
+        request = new Request(id, priority);
+        REQUESTS.put(id, request);
+        QUEUE.add(request);
+    }
+
+    public static boolean isRequested(UUID id) {
+        return REQUESTS.containsKey(id);
+    }
+
+    //forget about a request, a download in progress is simply discarded when it finishes
+    public static void cancel(UUID id) {
+        COOLDOWNS.remove(id);
+        Request request = REQUESTS.remove(id);
+        if (request != null) {
+            QUEUE.remove(request);
+            RETRYING.remove(request);
+        }
+    }
+
+    public static void clear() {
+        COOLDOWNS.clear();
+        REQUESTS.clear();
+        QUEUE.clear();
+        RETRYING.clear();
+    }
+
+    public static void tick() {
+        //move the retries whose delay has passed back in the queue
+        if (!RETRYING.isEmpty()) {
+            long now = Util.getMillis();
+            Iterator<Request> iterator = RETRYING.iterator();
+            while (iterator.hasNext()) {
+                Request request = iterator.next();
+                if (request.retryAt <= now) {
+                    iterator.remove();
+                    QUEUE.add(request);
+                }
+            }
+        }
+
+        while (downloading < MAX_DOWNLOADS && !QUEUE.isEmpty())
+            download(QUEUE.poll());
+    }
+
+    private static void download(Request request) {
+        downloading++;
+        request.attempts++;
+
+        NetworkManager.requestAvatar(request.id).thenApplyAsync(data -> {
+            //the player has no avatar
+            if (data == null)
+                return new Result(null, -1);
+
+            try {
+                return new Result(NbtIo.readCompressed(new ByteArrayInputStream(data)), data.length);
+            } catch (IOException e) {
+                throw new IllegalStateException("Invalid avatar data", e);
+            }
+        }, Util.backgroundExecutor()).whenCompleteAsync((result, throwable) -> {
+            downloading--;
+
+            //cancelled or replaced in the meantime
+            if (REQUESTS.get(request.id) != request)
+                return;
+
+            if (throwable == null) {
+                REQUESTS.remove(request.id);
+                AvatarManager.onBackendFetched(request.id, result.nbt, result.size);
+                return;
+            }
+
+            //not marked as fetched, so it is requested again once the cooldown is over
+            if (request.attempts >= MAX_ATTEMPTS) {
+                FiguraMod.LOGGER.error("Failed to download avatar for " + request.id, throwable);
+                REQUESTS.remove(request.id);
+                COOLDOWNS.put(request.id, Util.getMillis() + FAILED_COOLDOWN);
+                return;
+            }
+
+            FiguraMod.LOGGER.debug("Failed to download avatar for " + request.id + ", retrying", throwable);
+            request.retryAt = Util.getMillis() + (BASE_RETRY_DELAY << (request.attempts - 1));
+            RETRYING.add(request);
+        }, Minecraft.getInstance());
+    }
+
+    private static class Request {
+        private final UUID id;
+        private double priority;
+        private int attempts = 0;
+        private long retryAt;
+
+        private Request(UUID id, double priority) {
+            this.id = id;
+            this.priority = priority;
+        }
+    }
+
+    private record Result(CompoundTag nbt, long size) {}
+}
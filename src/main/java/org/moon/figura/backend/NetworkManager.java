@@ -1,34 +1,58 @@
 package org.moon.figura.backend;
 
 import com.mojang.brigadier.builder.LiteralArgumentBuilder;
+import io.netty.buffer.Unpooled;
 import net.fabricmc.fabric.api.client.command.v1.FabricClientCommandSource;
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.multiplayer.ClientHandshakePacketListenerImpl;
 import net.minecraft.client.multiplayer.ClientPacketListener;
 import net.minecraft.network.Connection;
 import net.minecraft.network.ConnectionProtocol;
+import net.minecraft.network.FriendlyByteBuf;
 import net.minecraft.network.chat.Component;
+import net.minecraft.network.chat.TextComponent;
+import net.minecraft.network.protocol.game.ClientboundCustomPayloadPacket;
+import net.minecraft.network.protocol.game.ServerboundCustomPayloadPacket;
 import net.minecraft.network.protocol.handshake.ClientIntentionPacket;
 import net.minecraft.network.protocol.login.ClientboundGameProfilePacket;
 import net.minecraft.network.protocol.login.ServerboundHelloPacket;
+import net.minecraft.resources.ResourceLocation;
 import org.jetbrains.annotations.NotNull;
 import org.moon.figura.FiguraMod;
+import org.moon.figura.utils.FiguraIdentifier;
 
 import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 public class NetworkManager {
 
     private static final int AUTH_PORT = 25565;
 
+    private static final ResourceLocation AVATAR_REQUEST = new FiguraIdentifier("avatar_request");
+    private static final ResourceLocation AVATAR_RESPONSE = new FiguraIdentifier("avatar");
+    private static final int MAX_AVATAR_SIZE = 1_000_000; //bytes, about what a custom payload can carry
+    private static final long REQUEST_TIMEOUT = 30; //seconds, the downloader retries it after that
+
     private static Connection authConnection;
+    //if the login is done, so the connection can carry custom payloads
+    private static volatile boolean authenticated = false;
+    //requests sent and waiting for an answer, completed from the netty thread
+    private static final Map<UUID, CompletableFuture<byte[]>> AVATAR_REQUESTS = new ConcurrentHashMap<>();
 
     public static void tick() {
+        AvatarDownloader.tick();
+
         if (authConnection != null) {
             if (authConnection.isConnected())
                 authConnection.tick();
             else {
                 authConnection.handleDisconnection();
                 authConnection = null;
+                onDisconnected();
             }
         }
     }
@@ -38,9 +62,71 @@ public class NetworkManager {
         return "79.114.8.27"; //"127.0.0.1";
     }
 
+    public static boolean isConnected() {
+        return authConnection != null && authConnection.isConnected();
+    }
+
+    /**
+     * If avatars can be requested from the backend at all.
+     * Nothing is ever sent outside of the authenticated backend connection.
+     */
+    public static boolean canRequestAvatars() {
+        return authenticated && isConnected();
+    }
+
+    /**
+     * Requests the avatar of a player through the backend connection, as a custom payload with its uuid.
+     * The backend answers with a payload of the uuid, if the player has an avatar, and then the avatar.
+     * @return a future with the compressed avatar nbt, or null if the player has none
+     */
+    public static CompletableFuture<byte[]> requestAvatar(UUID id) {
+        if (!canRequestAvatars())
+            return CompletableFuture.failedFuture(new IllegalStateException("Not connected to the backend"));
+
+        //a request still waiting for its answer is shared
+        CompletableFuture<byte[]> pending = AVATAR_REQUESTS.get(id);
+        if (pending != null)
+            return pending;
+
+        CompletableFuture<byte[]> future = new CompletableFuture<>();
+        AVATAR_REQUESTS.put(id, future);
+        future.orTimeout(REQUEST_TIMEOUT, TimeUnit.SECONDS).whenComplete((data, throwable) -> AVATAR_REQUESTS.remove(id, future));
+
+        FriendlyByteBuf buf = new FriendlyByteBuf(Unpooled.buffer());
+        buf.writeUUID(id);
+        authConnection.send(new ServerboundCustomPayloadPacket(AVATAR_REQUEST, buf));
+        return future;
+    }
+
+    //called on the netty thread, the buffer is released once this returns
+    private static void handleAvatar(FriendlyByteBuf buf) {
+        UUID id = buf.readUUID();
+        CompletableFuture<byte[]> future = AVATAR_REQUESTS.get(id);
+        if (future == null)
+            return;
+
+        try {
+            future.complete(buf.readBoolean() ? buf.readByteArray(MAX_AVATAR_SIZE) : null);
+        } catch (Exception e) {
+            future.completeExceptionally(e);
+        }
+    }
+
+    private static void onDisconnected() {
+        authenticated = false;
+        for (CompletableFuture<byte[]> future : AVATAR_REQUESTS.values())
+            future.completeExceptionally(new IllegalStateException("Disconnected from the backend"));
+        AVATAR_REQUESTS.clear();
+    }
+
     public static void auth() {
         Minecraft minecraft = Minecraft.getInstance();
 
+        if (authConnection != null) {
+            authConnection.disconnect(new TextComponent("Reconnecting"));
+            onDisconnected();
+        }
+
         InetSocketAddress inetSocketAddress = new InetSocketAddress(getBackendAddress(), AUTH_PORT);
         authConnection = Connection.connectToServer(inetSocketAddress, minecraft.options.useNativeTransport());
         authConnection.setListener(new ClientHandshakePacketListenerImpl(authConnection, minecraft, null, (text) -> FiguraMod.LOGGER.info(text.getString())) {
@@ -51,10 +137,27 @@ public class NetworkManager {
                 authConnection.setListener(new ClientPacketListener(minecraft, null, authConnection, clientboundGameProfilePacket.getGameProfile(), minecraft.createTelemetryManager()) {
                     @Override
                     public void onDisconnect(@NotNull Component reason) {
+                        onDisconnected();
                         FiguraMod.sendChatMessage(reason);
                         System.out.println(reason.getString());
                     }
+
+                    @Override
+                    public void handleCustomPayload(@NotNull ClientboundCustomPayloadPacket packet) {
+                        if (!packet.getIdentifier().equals(AVATAR_RESPONSE)) {
+                            super.handleCustomPayload(packet);
+                            return;
+                        }
+
+                        FriendlyByteBuf data = packet.getData();
+                        try {
+                            handleAvatar(data);
+                        } finally {
+                            data.release();
+                        }
+                    }
                 });
+                authenticated = true;
             }
         });
 
@@ -25,6 +25,9 @@ public class FiguraCommands {
         //load
         root.then(FiguraLoadCommand.get());
 
+        //convert
+        root.then(FiguraConvertCommand.get());
+
         //force backend auth
         if (FiguraMod.DEBUG_MODE)
             root.then(NetworkManager.getCommand());
@@ -0,0 +1,57 @@
+package org.moon.figura.commands;
+
+import com.mojang.brigadier.arguments.StringArgumentType;
+import com.mojang.brigadier.builder.LiteralArgumentBuilder;
+import com.mojang.brigadier.builder.RequiredArgumentBuilder;
+import com.mojang.brigadier.context.CommandContext;
+import net.fabricmc.fabric.api.client.command.v1.FabricClientCommandSource;
+import net.minecraft.Util;
+import net.minecraft.client.Minecraft;
+import org.moon.figura.FiguraMod;
+import org.moon.figura.avatars.providers.AvatarContainer;
+import org.moon.figura.avatars.providers.LocalAvatarFetcher;
+import org.moon.figura.utils.FiguraText;
+
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+
+public class FiguraConvertCommand {
+
+    public static LiteralArgumentBuilder<FabricClientCommandSource> get() {
+        LiteralArgumentBuilder<FabricClientCommandSource> convert = LiteralArgumentBuilder.literal("convert");
+
+        RequiredArgumentBuilder<FabricClientCommandSource, String> path = RequiredArgumentBuilder.argument("path", StringArgumentType.greedyString());
+        path.executes(FiguraConvertCommand::convertAvatar);
+
+        return convert.then(path);
+    }
+
+    private static int convertAvatar(CommandContext<FabricClientCommandSource> context) {
+        String str = StringArgumentType.getString(context, "path");
+        Path p;
+        try {
+            //parse path
+            p = LocalAvatarFetcher.getLocalAvatarDirectory().resolve(Path.of(str));
+        } catch (Exception e) {
+            context.getSource().sendError(new FiguraText("command.convert.invalid", str));
+            return 0;
+        }
+
+        //reading and writing whole avatars, so off the client thread
+        CompletableFuture.supplyAsync(() -> {
+            try {
+                return AvatarContainer.convert(p);
+            } catch (Exception e) {
+                FiguraMod.LOGGER.error("Failed to convert avatar from " + p, e);
+                return null;
+            }
+        }, Util.ioPool()).thenAcceptAsync(result -> {
+            if (result != null)
+                context.getSource().sendFeedback(new FiguraText("command.convert.success", result.getFileName().toString()));
+            else
+                context.getSource().sendError(new FiguraText("command.convert.error", str));
+        }, Minecraft.getInstance());
+
+        return 1;
+    }
+}
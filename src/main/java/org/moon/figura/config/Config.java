@@ -78,6 +78,8 @@ public enum Config {
                 new FiguraText(tooltip + ".cubes").setStyle(ColorUtils.Colors.FRAN_PINK.style),
                 new FiguraText(tooltip + ".groups").setStyle(ColorUtils.Colors.MAYA_BLUE.style));
     }},
+    RENDER_MODE(0, 3),
+    FACE_BUDGET(100000, InputType.INT),
     LOG_OTHERS(false),
     AVATARS_PATH("", InputType.FOLDER_PATH);
 
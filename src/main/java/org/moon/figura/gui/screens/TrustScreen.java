@@ -171,7 +171,7 @@ public class TrustScreen extends AbstractPanelScreen {
         addRenderableWidget(resetButton = new TexturedButton(middle + 2, height, 60, 20, new FiguraText("gui.trust.reset"), null, btn -> {
             //clear trust
             TrustContainer trust = playerList.selectedEntry.getTrust();
-            trust.getSettings().clear();
+            trust.clearTrust();
             updateTrustData(trust);
         }) {
             @Override
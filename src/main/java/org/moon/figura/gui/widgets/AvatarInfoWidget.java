@@ -57,7 +57,7 @@ public class AvatarInfoWidget implements FiguraWidget, FiguraTickable, GuiEventL
         } else {
             values.set(0, new TextComponent(avatar.name).setStyle(ColorUtils.Colors.FRAN_PINK.style)); //name
             values.set(1, new TextComponent(avatar.authors).setStyle(ColorUtils.Colors.FRAN_PINK.style)); //authors
-            values.set(2, new TextComponent(String.valueOf(avatar.fileSize)).setStyle(ColorUtils.Colors.FRAN_PINK.style)); //size
+            values.set(2, new TextComponent(String.valueOf(avatar.getFileSize())).setStyle(ColorUtils.Colors.FRAN_PINK.style)); //size
             values.set(3, new TextComponent(String.valueOf(avatar.complexity)).setStyle(ColorUtils.Colors.FRAN_PINK.style)); //complexity
         }
     }
@@ -54,7 +54,8 @@ public class StatusWidget implements FiguraWidget, FiguraTickable, GuiEventListe
         //update status indicators
         Avatar avatar = AvatarManager.getAvatarForPlayer(FiguraMod.getLocalPlayerUUID());
 
-        int size = avatar == null ? 0 : avatar.fileSize > SIZE_LARGE ? 1 : avatar.fileSize > SIZE_WARNING ? 2 : 3;
+        float fileSize = avatar == null ? 0f : avatar.getFileSize();
+        int size = avatar == null ? 0 : fileSize > SIZE_LARGE ? 1 : fileSize > SIZE_WARNING ? 2 : 3;
         status = (byte) size;
 
         int texture = avatar == null || !avatar.hasTexture ? 0 : 3;
@@ -81,7 +81,7 @@ public class AvatarList extends AbstractList {
     // -- Functions -- //
     @Override
     public void tick() {
-        //update list
+        //update list, the files are checked in the background
         if (FiguraMod.ticks % 20 == 0)
             LocalAvatarFetcher.load();
         loadContents();
@@ -139,8 +139,9 @@ public class AvatarList extends AbstractList {
             Path path = avatar.getPath();
             String name = path.getFileName().toString();
 
-            //filter
-            if (!name.toLowerCase().contains(filter.toLowerCase()))
+            //filter, by the file name or the avatar name
+            String search = filter.toLowerCase();
+            if (!name.toLowerCase().contains(search) && !avatar.getName().toLowerCase().contains(search))
                 continue;
 
             missingPaths.remove(path);
@@ -112,7 +112,7 @@ public class TrustList extends AbstractList {
                 int value = (int) ((trust.max + 1f) * slider.getScrollProgress());
                 boolean infinity = trust.checkInfinity(value);
 
-                container.getSettings().put(trust, infinity ? Integer.MAX_VALUE - 100 : value);
+                container.setTrust(trust, infinity ? Integer.MAX_VALUE - 100 : value);
                 changed = true;
 
                 //update text
@@ -144,7 +144,7 @@ public class TrustList extends AbstractList {
                 return false;
 
             if (button == 1) {
-                container.getSettings().remove(trust);
+                container.removeTrust(trust);
                 this.parent.updateList(container);
                 playDownSound(Minecraft.getInstance().getSoundManager());
                 return true;
@@ -181,7 +181,7 @@ public class TrustList extends AbstractList {
             //update trust
             boolean value = !this.isToggled();
 
-            this.container.getSettings().put(trust, value ? 1 : 0);
+            this.container.setTrust(trust, value ? 1 : 0);
             this.changed = true;
 
             //update text
@@ -214,7 +214,7 @@ public class TrustList extends AbstractList {
                 return false;
 
             if (button == 1) {
-                container.getSettings().remove(trust);
+                container.removeTrust(trust);
                 this.parent.updateList(container);
                 playDownSound(Minecraft.getInstance().getSoundManager());
                 return true;
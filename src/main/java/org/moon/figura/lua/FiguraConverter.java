@@ -3,6 +3,8 @@ package org.moon.figura.lua;
 import org.moon.figura.FiguraMod;
 import org.moon.figura.lua.types.LuaFunction;
 import org.moon.figura.lua.types.LuaTable;
+import org.moon.figura.utils.caching.CacheUtils;
+import org.moon.figura.utils.caching.CachedType;
 import org.terasology.jnlua.*;
 
 import java.math.BigDecimal;
@@ -26,7 +28,10 @@ public class FiguraConverter implements Converter {
         if (type == LuaType.FUNCTION && ((formalType == Object.class || formalType == LuaFunction.class) && !luaState.isJavaFunction(index)))
             return (T) new LuaFunction((FiguraLuaState) luaState, index);
 
-        return DEFAULT.convertLuaValue(luaState, index, formalType);
+        T result = DEFAULT.convertLuaValue(luaState, index, formalType);
+        if (CacheUtils.DEBUG && CacheUtils.isPooled(result))
+            throw new LuaRuntimeException("Script used a " + result.getClass().getSimpleName() + " after it was freed!");
+        return result;
     }
 
     @Override
@@ -51,6 +56,13 @@ public class FiguraConverter implements Converter {
                 table.push(luaState);
             else
                 DEFAULT.convertJavaObject(luaState, object);
+
+            //Pooled objects given to Lua belong to it from now on
+            if (object instanceof CachedType cached) {
+                if (CacheUtils.DEBUG && CacheUtils.isPooled(cached))
+                    FiguraMod.LOGGER.error("Pushed a freed " + object.getClass().getSimpleName() + " to Lua!", new IllegalStateException());
+                cached.markOwnedByLua();
+            }
         } else {
             luaState.pushNil();
             FiguraMod.LOGGER.warn("Tried to push unsafe object of type " + object.getClass().getCanonicalName()
@@ -6,6 +6,9 @@ import org.moon.figura.lua.docs.LuaTypeDoc;
 import org.moon.figura.lua.types.LuaTable;
 import org.terasology.jnlua.*;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.*;
 import java.util.*;
 
@@ -16,10 +19,13 @@ public class FiguraJavaReflector implements JavaReflector {
     private static final JavaFunction defaultNewIndexFunction = DefaultJavaReflector.getInstance().getMetamethod(Metamethod.NEWINDEX);
     private static final JavaFunction defaultToStringFunction = DefaultJavaReflector.getInstance().getMetamethod(Metamethod.TOSTRING);
 
-    //Contains a cache of whitelisted methods and fields for every class.
-    public static final Map<Class<?>, Map<String, MethodWrapper>> methodCache = new HashMap<>();
-    public static final Map<Class<?>, Map<String, List<MethodWrapper>>> metamethodCache = new HashMap<>();
-    public static final Map<Class<?>, Map<String, Field>> fieldCache = new HashMap<>();
+    //Contains the whitelisted methods and fields of every class. Built once per class, from any thread.
+    private static final ClassValue<ClassDescriptor> DESCRIPTORS = new ClassValue<>() {
+        @Override
+        protected ClassDescriptor computeValue(Class<?> type) {
+            return new ClassDescriptor(type);
+        }
+    };
 
     @Override
     public JavaFunction getMetamethod(Metamethod metamethod) {
@@ -38,29 +44,25 @@ public class FiguraJavaReflector implements JavaReflector {
         public int invoke(LuaState luaState) {
             try {
                 Object object = luaState.toJavaObject(1, Object.class);
-                Class<?> objectClass = getObjectClass(object);
+                ClassDescriptor descriptor = DESCRIPTORS.get(getObjectClass(object));
                 String key = luaState.toString(2); //was -1
                 if (key == null)
                     return 0;
 
-                if (objectClass.isAnnotationPresent(LuaWhitelist.class))
-                    buildCachesIfNeeded(objectClass);
-                else
+                if (!descriptor.whitelisted)
                     return defaultIndexFunction.invoke(luaState);
 
-                Field field = fieldCache.get(objectClass).get(key);
-                if (field != null) {
+                Object member = descriptor.members.get(key);
+                if (member instanceof Field field) {
                     luaState.pushJavaObject(field.get(object));
                     return 1;
                 }
-
-                MethodWrapper method = methodCache.get(objectClass).get(key);
-                if (method != null) {
+                if (member instanceof MethodWrapper method) {
                     luaState.pushJavaFunction(method);
                     return 1;
                 }
 
-                if (metamethodCache.get(objectClass).containsKey("__index")) {
+                if (descriptor.hasIndex) {
                     int i = callMetamethod(luaState, Metamethod.INDEX);
                     if (i != 0)
                         return i;
@@ -85,17 +87,15 @@ public class FiguraJavaReflector implements JavaReflector {
         public int invoke(LuaState luaState) {
             try {
                 Object object = luaState.toJavaObject(1, Object.class);
-                Class<?> objectClass = getObjectClass(object);
+                ClassDescriptor descriptor = DESCRIPTORS.get(getObjectClass(object));
                 String key = luaState.toString(2);
                 if (key == null)
                     return 0;
 
-                if (objectClass.isAnnotationPresent(LuaWhitelist.class))
-                    buildCachesIfNeeded(objectClass);
-                else
+                if (!descriptor.whitelisted)
                     return defaultNewIndexFunction.invoke(luaState);
 
-                Field f = fieldCache.get(objectClass).get(key);
+                Field f = descriptor.fields.get(key);
                 if (f != null && !Modifier.isFinal(f.getModifiers()))
                     f.set(object, luaState.toJavaObject(3, f.getType()));
                 else
@@ -118,16 +118,10 @@ public class FiguraJavaReflector implements JavaReflector {
             Object object = luaState.toJavaObject(1, Object.class);
             if (object == null)
                 return 0;
-            Class<?> objectClass = getObjectClass(object);
-
-            if (objectClass.isAnnotationPresent(LuaWhitelist.class))
-                buildCachesIfNeeded(objectClass);
-            else
-                return 0;
-            if (!metamethodCache.get(objectClass).containsKey("__ipairs"))
+            MethodWrapper methodWrapper = DESCRIPTORS.get(getObjectClass(object)).ipairs;
+            if (methodWrapper == null)
                 return 0;
 
-            MethodWrapper methodWrapper = metamethodCache.get(objectClass).get("__ipairs").get(0);
             methodWrapper.invoke(luaState);
 
             luaState.pushValue(1);
@@ -148,16 +142,10 @@ public class FiguraJavaReflector implements JavaReflector {
             Object object = luaState.toJavaObject(1, Object.class);
             if (object == null)
                 return 0;
-            Class<?> objectClass = getObjectClass(object);
-
-            if (objectClass.isAnnotationPresent(LuaWhitelist.class))
-                buildCachesIfNeeded(objectClass);
-            else
-                return 0;
-            if (!metamethodCache.get(objectClass).containsKey("__pairs"))
+            MethodWrapper methodWrapper = DESCRIPTORS.get(getObjectClass(object)).pairs;
+            if (methodWrapper == null)
                 return 0;
 
-            MethodWrapper methodWrapper = metamethodCache.get(objectClass).get("__pairs").get(0);
             methodWrapper.invoke(luaState);
 
             luaState.pushValue(1);
@@ -186,13 +174,12 @@ public class FiguraJavaReflector implements JavaReflector {
             objectClass = getObjectClass(object);
         }
 
-        if (objectClass.isAnnotationPresent(LuaWhitelist.class))
-            buildCachesIfNeeded(objectClass);
-        else
+        ClassDescriptor descriptor = DESCRIPTORS.get(objectClass);
+        if (!descriptor.whitelisted)
             return 0;
 
 
-        List<MethodWrapper> candidates = metamethodCache.get(objectClass).get(name);
+        List<MethodWrapper> candidates = descriptor.metamethods.get(name);
         //LuaUtils.printStack(luaState);
 
         if (candidates != null) {
@@ -228,16 +215,15 @@ public class FiguraJavaReflector implements JavaReflector {
     }
 
     public static LuaTable getTableRepresentation(Object o) {
-        Class<?> clazz = o.getClass();
-        buildCachesIfNeeded(clazz);
-        if (!clazz.isAnnotationPresent(LuaWhitelist.class))
+        ClassDescriptor descriptor = DESCRIPTORS.get(o.getClass());
+        if (!descriptor.whitelisted)
             return null;
 
         LuaTable result = new LuaTable();
         try {
-            for (Map.Entry<String, Field> fieldEntry : fieldCache.get(clazz).entrySet())
+            for (Map.Entry<String, Field> fieldEntry : descriptor.fields.entrySet())
                 result.put(fieldEntry.getKey(), fieldEntry.getValue().get(o));
-            for (Map.Entry<String, MethodWrapper> methodsEntry : methodCache.get(clazz).entrySet())
+            for (Map.Entry<String, MethodWrapper> methodsEntry : descriptor.methods.entrySet())
                 result.put(methodsEntry.getKey(), methodsEntry.getValue());
         } catch (Exception e) {
             e.printStackTrace();
@@ -257,73 +243,125 @@ public class FiguraJavaReflector implements JavaReflector {
         add(Metamethod.UNM);
     }};
 
-    private static void buildCachesIfNeeded(Class<?> clazz) {
-        if (methodCache.containsKey(clazz)) return;
-
-        //Build regular (non-meta) method cache, and field cache
-        Map<String, MethodWrapper> methodMap = new HashMap<>();
-        Map<String, Field> fieldMap = new HashMap<>();
-        Class<?> currentClazz = clazz;
-        do {
-            for (Method method : currentClazz.getDeclaredMethods()) {
-                if (!method.isAnnotationPresent(LuaWhitelist.class)
-                        || method.getName().startsWith("__")) {
-                    continue;
-                }
-                if (!Modifier.isStatic(method.getModifiers())) {
-                    FiguraMod.LOGGER.warn("Found non-static whitelisted method " + method + "! Class " + clazz);
-                    continue;
-                }
+    /**
+     * Builds the descriptors of the given classes ahead of time, so the first
+     * access from a script doesn't have to reflect over them on the render thread.
+     */
+    public static void prepare(Collection<Class<?>> classes) {
+        for (Class<?> clazz : classes)
+            DESCRIPTORS.get(clazz);
+    }
 
-                if (!methodMap.containsKey(method.getName()))
-                    methodMap.put(method.getName(), new MethodWrapper(method));
-                else
-                    FiguraMod.LOGGER.error("Two whitelisted methods with the same name, " + method.getName() +
-                            ", in class " + clazz.getCanonicalName() + "!");
+    /**
+     * Everything the reflector needs to know about one class. Fields and regular methods
+     * share a single table, so indexing from Lua costs one class lookup and one key lookup.
+     * Immutable once built, so it can be shared between threads.
+     */
+    private static class ClassDescriptor {
+
+        private final boolean whitelisted;
+        private final Map<String, Object> members;
+        private final Map<String, Field> fields;
+        private final Map<String, MethodWrapper> methods;
+        private final Map<String, List<MethodWrapper>> metamethods;
+
+        private final boolean hasIndex;
+        private final MethodWrapper ipairs, pairs;
+
+        private ClassDescriptor(Class<?> clazz) {
+            whitelisted = clazz.isAnnotationPresent(LuaWhitelist.class);
+            if (!whitelisted) {
+                members = Map.of();
+                fields = Map.of();
+                methods = Map.of();
+                metamethods = Map.of();
+                hasIndex = false;
+                ipairs = pairs = null;
+                return;
             }
-            for (Field field : currentClazz.getDeclaredFields()) {
-                if (!field.isAnnotationPresent(LuaWhitelist.class))
+
+            //Build regular (non-meta) method map, and field map
+            Map<String, MethodWrapper> methodMap = new HashMap<>();
+            Map<String, Field> fieldMap = new HashMap<>();
+            Class<?> currentClazz = clazz;
+            do {
+                for (Method method : currentClazz.getDeclaredMethods()) {
+                    if (!method.isAnnotationPresent(LuaWhitelist.class)
+                            || method.getName().startsWith("__")) {
+                        continue;
+                    }
+                    if (!Modifier.isStatic(method.getModifiers())) {
+                        FiguraMod.LOGGER.warn("Found non-static whitelisted method " + method + "! Class " + clazz);
+                        continue;
+                    }
+
+                    if (!methodMap.containsKey(method.getName()))
+                        methodMap.put(method.getName(), new MethodWrapper(method));
+                    else
+                        FiguraMod.LOGGER.error("Two whitelisted methods with the same name, " + method.getName() +
+                                ", in class " + clazz.getCanonicalName() + "!");
+                }
+                for (Field field : currentClazz.getDeclaredFields()) {
+                    if (!field.isAnnotationPresent(LuaWhitelist.class))
+                        continue;
+                    fieldMap.put(field.getName(), field);
+                }
+                currentClazz = currentClazz.getSuperclass();
+            } while (currentClazz.isAnnotationPresent(LuaWhitelist.class)); //Check whitelisted superclasses as well
+
+            //Build metamethod map
+            Map<String, List<MethodWrapper>> metamethodMap = new HashMap<>();
+            for (Method method : clazz.getDeclaredMethods()) {
+                if (!method.getName().startsWith("__")
+                        || !method.isAnnotationPresent(LuaWhitelist.class)
+                        || !Modifier.isStatic(method.getModifiers()))
                     continue;
-                fieldMap.put(field.getName(), field);
+                if (!metamethodMap.containsKey(method.getName()))
+                    metamethodMap.put(method.getName(), new ArrayList<>());
+                metamethodMap.get(method.getName()).add(new MethodWrapper(method));
             }
-            currentClazz = currentClazz.getSuperclass();
-        } while (currentClazz.isAnnotationPresent(LuaWhitelist.class)); //Check whitelisted superclasses as well
-
-        methodCache.put(clazz, methodMap);
-        fieldCache.put(clazz, fieldMap);
-
-        //Build metamethod cache
-        Map<String, List<MethodWrapper>> metamethodMap = new HashMap<>();
-        for (Method method : clazz.getDeclaredMethods()) {
-            if (!method.getName().startsWith("__")
-                    || !method.isAnnotationPresent(LuaWhitelist.class)
-                    || !Modifier.isStatic(method.getModifiers()))
-                continue;
-            if (!metamethodMap.containsKey(method.getName()))
-                metamethodMap.put(method.getName(), new ArrayList<>());
-            metamethodMap.get(method.getName()).add(new MethodWrapper(method));
-        }
-        //Ensure non-overloadable methods aren't overloaded
-        for (Metamethod m : NON_OVERLOADABLE) {
-            String n = m.getMetamethodName();
-            if (metamethodMap.get(n) != null && metamethodMap.get(n).size() > 1)
-                FiguraMod.LOGGER.error("Metamethod " + n + " cannot be overloaded! In class " + clazz.getCanonicalName());
-        }
+            //Ensure non-overloadable methods aren't overloaded
+            for (Metamethod m : NON_OVERLOADABLE) {
+                String n = m.getMetamethodName();
+                if (metamethodMap.get(n) != null && metamethodMap.get(n).size() > 1)
+                    FiguraMod.LOGGER.error("Metamethod " + n + " cannot be overloaded! In class " + clazz.getCanonicalName());
+            }
+
+            //Fields are looked up first, so they shadow methods with the same name
+            Map<String, Object> memberMap = new HashMap<>(methodMap);
+            memberMap.putAll(fieldMap);
+
+            members = memberMap;
+            fields = fieldMap;
+            methods = methodMap;
+            metamethods = metamethodMap;
 
-        metamethodCache.put(clazz, metamethodMap);
+            hasIndex = metamethodMap.containsKey("__index");
+            ipairs = metamethodMap.containsKey("__ipairs") ? metamethodMap.get("__ipairs").get(0) : null;
+            pairs = metamethodMap.containsKey("__pairs") ? metamethodMap.get("__pairs").get(0) : null;
+        }
     }
 
+    /**
+     * Dispatches a whitelisted static method through a pre-bound MethodHandle.
+     * Everything that doesn't change between calls (annotations, boxed types, the handle
+     * itself) is resolved once here, and the common arities skip the argument array entirely.
+     */
     private static class MethodWrapper implements JavaFunction {
 
+        //Arities up to this one are called with plain arguments, anything above goes through a spread array
+        private static final int MAX_SPECIALISED_ARITY = 4;
+
         private final Method method;
         private final Class<?>[] argumentTypes;
-        private final Parameter[] params;
+        private final Class<?>[] boxedTypes;
+        private final boolean[] notNil;
+        private final MethodHandle handle;
         private final int ret;
 
         public MethodWrapper(Method method) {
             this.method = method;
             this.argumentTypes = method.getParameterTypes();
-            this.params = method.getParameters();
             for (Class<?> argumentType : argumentTypes) {
                 if (argumentType.isPrimitive()) {
                     FiguraMod.LOGGER.error("Method " + method.getName() + " in class " + method.getDeclaringClass().getCanonicalName() + " has primitive parameters. This can cause errors if nil is passed in, so use the wrapper classes instead!");
@@ -331,44 +369,106 @@ public class FiguraJavaReflector implements JavaReflector {
                 }
             }
             ret = method.getReturnType() == void.class ? 0 : 1;
+
+            Parameter[] params = method.getParameters();
+            boxedTypes = new Class<?>[argumentTypes.length];
+            notNil = new boolean[argumentTypes.length];
+            for (int i = 0; i < argumentTypes.length; i++) {
+                boxedTypes[i] = MethodType.methodType(argumentTypes[i]).wrap().returnType();
+                notNil[i] = params[i].isAnnotationPresent(LuaNotNil.class);
+            }
+
+            MethodHandle target = unreflect(method);
+            int arity = argumentTypes.length;
+            if (arity <= MAX_SPECIALISED_ARITY)
+                handle = target.asType(MethodType.genericMethodType(arity));
+            else
+                handle = target.asSpreader(Object[].class, arity).asType(MethodType.methodType(Object.class, Object[].class));
+        }
+
+        private static MethodHandle unreflect(Method method) {
+            try {
+                return MethodHandles.publicLookup().unreflect(method);
+            } catch (IllegalAccessException ignored) {
+                try {
+                    method.setAccessible(true);
+                    return MethodHandles.lookup().unreflect(method);
+                } catch (IllegalAccessException e) {
+                    throw new IllegalStateException("Cannot access whitelisted method " + method, e);
+                }
+            }
         }
 
         @Override
         public int invoke(LuaState luaState) {
+            int arity = argumentTypes.length;
+            for (int i = luaState.getTop(); i < arity; i++)
+                luaState.pushNil();
+
+            //Convert the arguments first, so conversion errors are never confused with errors from the method itself
+            Object a0 = null, a1 = null, a2 = null, a3 = null;
+            Object[] spread = null;
             try {
-                Object[] args = new Object[argumentTypes.length];
-                for (int i = luaState.getTop(); i < args.length; i++)
-                    luaState.pushNil();
-                for (int i = 0; i < luaState.getTop() && i < args.length; i++) {
-                    if (params[i].isAnnotationPresent(LuaNotNil.class) && luaState.type(i + 1) == LuaType.NIL)
-                        throw new LuaRuntimeException("bad argument #"+ (i + 1) + " to '" + method.getName() + "' (" + FiguraDocsManager.NAME_MAP.getOrDefault(argumentTypes[i], argumentTypes[i].getName()) + " expected, got nil)");
-                    args[i] = luaState.toJavaObject(i + 1, argumentTypes[i]);
+                if (arity > MAX_SPECIALISED_ARITY) {
+                    spread = new Object[arity];
+                    for (int i = 0; i < arity; i++)
+                        spread[i] = getArgument(luaState, i);
+                } else {
+                    if (arity > 0) a0 = getArgument(luaState, 0);
+                    if (arity > 1) a1 = getArgument(luaState, 1);
+                    if (arity > 2) a2 = getArgument(luaState, 2);
+                    if (arity > 3) a3 = getArgument(luaState, 3);
                 }
-                luaState.pushJavaObject(method.invoke(null, args));
-            } catch (IllegalAccessException e) {
-                e.printStackTrace();
-                throw new LuaRuntimeException(e);
             } catch (IllegalArgumentException | ClassCastException e) {
                 e.printStackTrace();
-                StringBuilder errorBuilder = new StringBuilder();
-                errorBuilder.append("Illegal argument types to ");
-                errorBuilder.append(method.getDeclaringClass().getAnnotation(LuaTypeDoc.class).name());
-                errorBuilder.append(".");
-                errorBuilder.append(method.getName());
-                errorBuilder.append(". Expected (");
-                for (int j = 0; j < argumentTypes.length; j++) {
-                    errorBuilder.append(FiguraDocsManager.NAME_MAP.getOrDefault(argumentTypes[j], argumentTypes[j].getName()));
-                    if (j != argumentTypes.length - 1)
-                        errorBuilder.append(", ");
-                }
-                errorBuilder.append(").");
-                throw new LuaRuntimeException(errorBuilder.toString());
-            } catch (InvocationTargetException e) {
-                throw new LuaRuntimeException(e.getTargetException());
+                throw illegalArgumentTypes();
+            }
+
+            Object result;
+            try {
+                result = switch (arity) {
+                    case 0 -> (Object) handle.invokeExact();
+                    case 1 -> (Object) handle.invokeExact(a0);
+                    case 2 -> (Object) handle.invokeExact(a0, a1);
+                    case 3 -> (Object) handle.invokeExact(a0, a1, a2);
+                    case 4 -> (Object) handle.invokeExact(a0, a1, a2, a3);
+                    default -> (Object) handle.invokeExact(spread);
+                };
+            } catch (Throwable t) {
+                throw new LuaRuntimeException(t);
             }
+
+            luaState.pushJavaObject(result);
             return ret;
         }
 
+        private Object getArgument(LuaState luaState, int i) {
+            if (notNil[i] && luaState.type(i + 1) == LuaType.NIL)
+                throw new LuaRuntimeException("bad argument #"+ (i + 1) + " to '" + method.getName() + "' (" + FiguraDocsManager.NAME_MAP.getOrDefault(argumentTypes[i], argumentTypes[i].getName()) + " expected, got nil)");
+
+            Object arg = luaState.toJavaObject(i + 1, argumentTypes[i]);
+            //Method.invoke used to reject these for us, the handle would only fail once inside the call
+            if (arg == null ? argumentTypes[i].isPrimitive() : !boxedTypes[i].isInstance(arg))
+                throw new IllegalArgumentException();
+            return arg;
+        }
+
+        private LuaRuntimeException illegalArgumentTypes() {
+            StringBuilder errorBuilder = new StringBuilder();
+            errorBuilder.append("Illegal argument types to ");
+            errorBuilder.append(method.getDeclaringClass().getAnnotation(LuaTypeDoc.class).name());
+            errorBuilder.append(".");
+            errorBuilder.append(method.getName());
+            errorBuilder.append(". Expected (");
+            for (int j = 0; j < argumentTypes.length; j++) {
+                errorBuilder.append(FiguraDocsManager.NAME_MAP.getOrDefault(argumentTypes[j], argumentTypes[j].getName()));
+                if (j != argumentTypes.length - 1)
+                    errorBuilder.append(", ");
+            }
+            errorBuilder.append(").");
+            return new LuaRuntimeException(errorBuilder.toString());
+        }
+
         @Override
         public String toString() {
             return "JavaFunction";
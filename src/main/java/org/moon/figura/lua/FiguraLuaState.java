@@ -15,6 +15,8 @@ import org.moon.figura.lua.api.world.WorldAPI;
 import org.moon.figura.lua.types.LuaOwnedTable;
 import org.terasology.jnlua.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.HashSet;
@@ -23,7 +25,7 @@ import java.util.Set;
 
 public class FiguraLuaState extends LuaState53 {
 
-    private static String sandboxerScript;
+    private static String sandboxerScript, eventsScript;
 
     private final Avatar owner;
 
@@ -39,6 +41,14 @@ public class FiguraLuaState extends LuaState53 {
     public static final String STORAGE_KEY = "STORAGE";
     public LuaOwnedTable<Object> storedStuff = new LuaOwnedTable<>(this, STORAGE_KEY);
 
+    public static final String EVENT_FACTORY_KEY = "newEvent";
+
+    //Without the natives, instructions are counted by a hook firing every this many instructions
+    private static final int HOOK_STEP = 1000;
+
+    private int instructionLimit;
+    private int countedInstructions, hookStep;
+
     public FiguraLuaState(Avatar owner, int memory) {
         super(memory * 1_000_000); //memory is given in mb
         setJavaReflector(FiguraJavaReflector.INSTANCE);
@@ -61,6 +71,14 @@ public class FiguraLuaState extends LuaState53 {
 
         //Load debug.setHook to registry, used later for instruction caps
         loadSetHook();
+        checkInstructionNatives();
+
+        //Load the event dispatcher factory to registry, used by the events api
+        try {
+            loadEventFactory();
+        } catch (Exception e) {
+            FiguraMod.LOGGER.error("Failed to load event dispatcher", e);
+        }
 
         loadFiguraApis();
     }
@@ -148,14 +166,52 @@ public class FiguraLuaState extends LuaState53 {
         loadGlobal(null, "debug");
     }
 
+    //Not every platform has the natives with the instruction getter, so check it once and fall back to counting
+    private void checkInstructionNatives() {
+        if (!FiguraMod.DO_OUR_NATIVES_WORK)
+            return;
+
+        try {
+            getInstructions();
+        } catch (UnsatisfiedLinkError e) {
+            FiguraMod.DO_OUR_NATIVES_WORK = false;
+            FiguraMod.LOGGER.warn("Lua natives are missing the instruction getter, counting instructions with a hook instead");
+        }
+    }
+
     public void setInstructionLimit(int limit) {
+        instructionLimit = limit;
+        countedInstructions = 0;
+
+        if (FiguraMod.DO_OUR_NATIVES_WORK)
+            setHook(INSTRUCTION_LIMIT_FUNCTION, limit);
+        else
+            setCountingHook(Math.max(Math.min(HOOK_STEP, limit), 1)); //a count of 0 would remove the hook, so no limit errors on the first instruction
+    }
+
+    private void setHook(JavaFunction function, int count) {
         getField(REGISTRYINDEX, "sethook");
-        pushJavaFunction(INSTRUCTION_LIMIT_FUNCTION);
+        pushJavaFunction(function);
         pushString("");
-        pushInteger(limit);
+        pushInteger(count);
         call(3, 0);
     }
 
+    private void setCountingHook(int step) {
+        hookStep = step;
+        setHook(INSTRUCTION_COUNTING_FUNCTION, step);
+    }
+
+    /**
+     * @return The amount of instructions run since the last call to setInstructionLimit.
+     * Exact with the natives, otherwise counted in steps of HOOK_STEP.
+     */
+    public int getUsedInstructions() {
+        if (FiguraMod.DO_OUR_NATIVES_WORK)
+            return instructionLimit - getInstructions();
+        return countedInstructions;
+    }
+
     public void loadGlobal(Object api, String name) {
         pushJavaObject(api);
         setGlobal(name);
@@ -182,6 +238,43 @@ public class FiguraLuaState extends LuaState53 {
     }
 
 
+    private void loadEventFactory() throws IOException {
+        if (eventsScript == null) {
+            String path = "/assets/figura/lua/scripts/events.lua";
+            InputStream stream = FiguraMod.class.getResourceAsStream(path);
+            if (stream == null)
+                throw new IOException("Cannot locate events.lua at " + path);
+            eventsScript = new String(stream.readAllBytes());
+        }
+        load(eventsScript, "events");
+        call(0, 1);
+        setField(REGISTRYINDEX, EVENT_FACTORY_KEY);
+    }
+
+    //Loads a script as a function on top of the stack, skipping the parsing when it was compiled before
+    private void loadScript(String src, String name) {
+        byte[] bytecode = LuaBytecodeCache.get(name, src);
+        if (bytecode != null) {
+            try {
+                load(new ByteArrayInputStream(bytecode), name, "b");
+                return;
+            } catch (Exception e) {
+                //lua refused it, so compile it again below
+                FiguraMod.LOGGER.debug("Discarding cached bytecode for " + name, e);
+                LuaBytecodeCache.remove(name, src);
+            }
+        }
+
+        load(src, name);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            dump(out);
+            LuaBytecodeCache.put(name, src, out.toByteArray());
+        } catch (Exception e) {
+            FiguraMod.LOGGER.debug("Failed to cache bytecode for " + name, e);
+        }
+    }
+
     private static JavaFunction requireFunc(Map<String, String> scripts) {
         final Set<String> previouslyRun = new HashSet<>();
         return luaState -> {
@@ -202,7 +295,7 @@ public class FiguraLuaState extends LuaState53 {
             String src = scripts.get(scriptName);
             scripts.remove(scriptName);
             previouslyRun.add(scriptName);
-            luaState.load(src, scriptName);
+            ((FiguraLuaState) luaState).loadScript(src, scriptName);
             luaState.call(0, 1); //Stack has return value on it right now
 
             //If luaState didn't return anything, we want require() to return true
@@ -227,6 +320,23 @@ public class FiguraLuaState extends LuaState53 {
         throw new LuaRuntimeException(error);
     };
 
+    //Fallback for when the instruction natives are missing, counts the instructions and errors once over the limit
+    private static final JavaFunction INSTRUCTION_COUNTING_FUNCTION = luaState -> {
+        FiguraLuaState state = (FiguraLuaState) luaState;
+        state.countedInstructions += state.hookStep;
+
+        int remaining = state.instructionLimit - state.countedInstructions;
+        if (remaining <= 0) {
+            state.setCountingHook(1);
+            throw new LuaRuntimeException("Script overran resource limits!");
+        }
+
+        //make the last step land exactly on the limit
+        if (remaining < state.hookStep)
+            state.setCountingHook(remaining);
+        return 0;
+    };
+
     public Avatar getOwner() {
         return owner;
     }
@@ -0,0 +1,200 @@
+package org.moon.figura.lua;
+
+import net.minecraft.Util;
+import org.moon.figura.FiguraMod;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Compiled scripts, keyed by a hash of their name and source,
+ * so the same script used by many avatars, or left unchanged between reloads, is only parsed once.
+ * Kept in memory, and in the figura/cache/bytecode folder between sessions.
+ */
+public class LuaBytecodeCache {
+
+    private static final int MAGIC = 0x464C4243; //FLBC
+    private static final int FORMAT = 1;
+    //bytecode is only valid for the same lua build, so anything cached by another version is thrown away
+    //lua also checks its own header when loading, catching anything this misses
+    private static final String RUNTIME = FiguraMod.VERSION + "/" + System.getProperty("os.arch");
+
+    private static final long MAX_MEMORY = 16 * 1024 * 1024; //bytes
+    private static final long MAX_AGE = 30L * 24 * 60 * 60 * 1000; //ms since last used, before the file is deleted
+
+    //access ordered, so the least recently used entries are dropped first
+    private static final LinkedHashMap<String, byte[]> MEMORY = new LinkedHashMap<>(16, 0.75f, true);
+    private static long memorySize = 0;
+
+    /**
+     * @return The compiled script, or null if it was not cached or the cached copy failed verification
+     */
+    public static byte[] get(String name, String source) {
+        byte[] hash = hash(name, source);
+        String key = HexFormat.of().formatHex(hash);
+
+        synchronized (MEMORY) {
+            byte[] bytecode = MEMORY.get(key);
+            if (bytecode != null)
+                return bytecode;
+        }
+
+        byte[] bytecode = readFile(getPath(key), hash);
+        if (bytecode != null)
+            putMemory(key, bytecode);
+        return bytecode;
+    }
+
+    public static void put(String name, String source, byte[] bytecode) {
+        byte[] hash = hash(name, source);
+        String key = HexFormat.of().formatHex(hash);
+        putMemory(key, bytecode);
+        Util.ioPool().execute(() -> writeFile(getPath(key), hash, bytecode));
+    }
+
+    //for when lua itself refuses the cached copy
+    public static void remove(String name, String source) {
+        String key = HexFormat.of().formatHex(hash(name, source));
+        synchronized (MEMORY) {
+            byte[] old = MEMORY.remove(key);
+            if (old != null)
+                memorySize -= old.length;
+        }
+
+        try {
+            Files.deleteIfExists(getPath(key));
+        } catch (IOException ignored) {}
+    }
+
+    private static void putMemory(String key, byte[] bytecode) {
+        synchronized (MEMORY) {
+            byte[] old = MEMORY.put(key, bytecode);
+            memorySize += bytecode.length - (old == null ? 0 : old.length);
+
+            Iterator<byte[]> iterator = MEMORY.values().iterator();
+            while (memorySize > MAX_MEMORY && iterator.hasNext()) {
+                memorySize -= iterator.next().length;
+                iterator.remove();
+            }
+        }
+    }
+
+    // -- disk -- //
+
+    private static Path getPath(String key) {
+        return FiguraMod.getFiguraDirectory().resolve("cache/bytecode").resolve(key + ".luac");
+    }
+
+    /**
+     * Layout: magic, format, runtime version, source hash, bytecode length, bytecode, bytecode hash
+     */
+    private static byte[] readFile(Path path, byte[] sourceHash) {
+        if (!Files.exists(path))
+            return null;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT || !in.readUTF().equals(RUNTIME))
+                throw new IOException("Cached bytecode is from another version");
+
+            byte[] storedHash = in.readNBytes(sourceHash.length);
+            if (!Arrays.equals(storedHash, sourceHash))
+                throw new IOException("Cached bytecode is for another script");
+
+            int length = in.readInt();
+            if (length <= 0 || length > MAX_MEMORY)
+                throw new IOException("Invalid cached bytecode length");
+            byte[] bytecode = in.readNBytes(length);
+            byte[] bytecodeHash = in.readNBytes(32);
+            if (bytecode.length != length || !MessageDigest.isEqual(bytecodeHash, sha256(bytecode)))
+                throw new IOException("Cached bytecode is corrupted");
+
+            //used again, so it is kept longer when pruning
+            Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+            return bytecode;
+        } catch (Exception e) {
+            FiguraMod.LOGGER.debug("Discarding cached bytecode " + path.getFileName(), e);
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException ignored) {}
+            return null;
+        }
+    }
+
+    private static void writeFile(Path path, byte[] sourceHash, byte[] bytecode) {
+        Path temp = null;
+        try {
+            Files.createDirectories(path.getParent());
+
+            //write next to it then move, so a crash never leaves half a file behind
+            temp = Files.createTempFile(path.getParent(), "bytecode", ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT);
+                out.writeUTF(RUNTIME);
+                out.write(sourceHash);
+                out.writeInt(bytecode.length);
+                out.write(bytecode);
+                out.write(sha256(bytecode));
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (Exception e) {
+            FiguraMod.LOGGER.debug("Failed to cache bytecode " + path.getFileName(), e);
+            try {
+                if (temp != null)
+                    Files.deleteIfExists(temp);
+            } catch (IOException ignored) {}
+        }
+    }
+
+    //deletes the files not used for a while, scripts of players met once would pile up otherwise
+    public static void prune() {
+        Path folder = FiguraMod.getFiguraDirectory().resolve("cache/bytecode");
+        if (!Files.isDirectory(folder))
+            return;
+
+        long oldest = System.currentTimeMillis() - MAX_AGE;
+        try (Stream<Path> files = Files.list(folder)) {
+            files.forEach(file -> {
+                try {
+                    if (Files.getLastModifiedTime(file).toMillis() < oldest)
+                        Files.delete(file);
+                } catch (IOException ignored) {}
+            });
+        } catch (IOException e) {
+            FiguraMod.LOGGER.debug("Failed to prune the bytecode cache", e);
+        }
+    }
+
+    // -- hashing -- //
+
+    private static byte[] hash(String name, String source) {
+        MessageDigest digest = sha256Digest();
+        digest.update(name.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(source.getBytes(StandardCharsets.UTF_8));
+        return digest.digest();
+    }
+
+    private static byte[] sha256(byte[] data) {
+        return sha256Digest().digest(data);
+    }
+
+    private static MessageDigest sha256Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); //every java platform has it
+        }
+    }
+}
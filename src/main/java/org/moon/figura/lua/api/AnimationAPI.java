@@ -0,0 +1,88 @@
+package org.moon.figura.lua.api;
+
+import org.moon.figura.avatars.animation.Animation;
+import org.moon.figura.lua.LuaNotNil;
+import org.moon.figura.lua.LuaWhitelist;
+import org.moon.figura.lua.docs.LuaFunctionOverload;
+import org.moon.figura.lua.docs.LuaMethodDoc;
+import org.moon.figura.lua.docs.LuaTypeDoc;
+import org.moon.figura.lua.types.LuaTable;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+@LuaWhitelist
+@LuaTypeDoc(
+        name = "AnimationAPI",
+        description = "animations"
+)
+public class AnimationAPI {
+
+    private final List<Animation> animations;
+    private final Map<String, Animation> byName = new HashMap<>();
+
+    public AnimationAPI(List<Animation> animations) {
+        this.animations = animations;
+        //the first model with a given animation name wins
+        for (Animation animation : animations)
+            byName.putIfAbsent(Animation.getName(animation), animation);
+    }
+
+    @LuaWhitelist
+    @LuaMethodDoc(
+            overloads = @LuaFunctionOverload(
+                    argumentTypes = AnimationAPI.class,
+                    argumentNames = "api"
+            ),
+            description = "animations.get_animations"
+    )
+    public static LuaTable getAnimations(@LuaNotNil AnimationAPI api) {
+        LuaTable table = new LuaTable();
+        int i = 1;
+        for (Animation animation : api.animations)
+            table.put(i++, animation);
+        return table;
+    }
+
+    @LuaWhitelist
+    @LuaMethodDoc(
+            overloads = @LuaFunctionOverload(
+                    argumentTypes = AnimationAPI.class,
+                    argumentNames = "api"
+            ),
+            description = "animations.get_playing"
+    )
+    public static LuaTable getPlaying(@LuaNotNil AnimationAPI api) {
+        LuaTable table = new LuaTable();
+        int i = 1;
+        for (Animation animation : api.animations)
+            if (Animation.isPlaying(animation))
+                table.put(i++, animation);
+        return table;
+    }
+
+    @LuaWhitelist
+    @LuaMethodDoc(
+            overloads = @LuaFunctionOverload(
+                    argumentTypes = AnimationAPI.class,
+                    argumentNames = "api"
+            ),
+            description = "animations.stop_all"
+    )
+    public static void stopAll(@LuaNotNil AnimationAPI api) {
+        for (Animation animation : api.animations)
+            Animation.stop(animation);
+    }
+
+    //-- METAMETHODS --//
+    @LuaWhitelist
+    public static Animation __index(@LuaNotNil AnimationAPI api, @LuaNotNil String key) {
+        return api.byName.get(key);
+    }
+
+    @Override
+    public String toString() {
+        return "AnimationAPI";
+    }
+}
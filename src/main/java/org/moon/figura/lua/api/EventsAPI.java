@@ -1,5 +1,6 @@
 package org.moon.figura.lua.api;
 
+import org.moon.figura.lua.FiguraLuaState;
 import org.moon.figura.lua.LuaNotNil;
 import org.moon.figura.lua.LuaWhitelist;
 import org.moon.figura.lua.docs.LuaFieldDoc;
@@ -7,10 +8,10 @@ import org.moon.figura.lua.docs.LuaFunctionOverload;
 import org.moon.figura.lua.docs.LuaMethodDoc;
 import org.moon.figura.lua.docs.LuaTypeDoc;
 import org.moon.figura.lua.types.LuaFunction;
-import org.moon.figura.lua.types.LuaOwnedList;
 import org.moon.figura.lua.types.LuaPairsIterator;
 import org.terasology.jnlua.LuaRuntimeException;
 import org.terasology.jnlua.LuaState;
+import org.terasology.jnlua.LuaValueProxy;
 
 import java.util.List;
 
@@ -75,27 +76,42 @@ public class EventsAPI {
 
         private static final int MAX_FUNCTIONS = 3000;
 
-        private final LuaOwnedList<LuaFunction> functionList;
-        private final LuaOwnedList<LuaFunction> functionQueue; //To avoid concurrent modification issues
+        //The functions live in a Lua table, and these are the closures of events.lua working on it
+        private final LuaState state;
+        private final LuaValueProxy callFunc, registerFunc, removeFunc, clearFunc;
+
+        //Mirrors the amount of functions in the table (list and queue), so it can be read without going to Lua
+        private int count = 0;
 
         public LuaEvent(LuaState state, String name) {
             this.name = name;
-            functionList = new LuaOwnedList<>(state, "EVENT_" + name, LuaFunction.class);
-            functionQueue = new LuaOwnedList<>(state, "QUEUE_EVENT_" + name, LuaFunction.class);
+            this.state = state;
+
+            state.getField(LuaState.REGISTRYINDEX, FiguraLuaState.EVENT_FACTORY_KEY);
+            state.call(0, 1);
+            callFunc = getFunction("call");
+            registerFunc = getFunction("register");
+            removeFunc = getFunction("remove");
+            clearFunc = getFunction("clear");
+            state.pop(1);
         }
 
-        private void flushQueue() {
-            //Add all waiting functions from queue
-            while (functionQueue.size() > 0)
-                functionList.add(functionQueue.remove(1));
+        private LuaValueProxy getFunction(String key) {
+            state.getField(-1, key);
+            LuaValueProxy proxy = state.getProxy(-1);
+            state.pop(1);
+            return proxy;
         }
 
+        //A single call into Lua, which then runs every registered function
         public void call(Object... args) {
-            flushQueue();
+            if (count == 0)
+                return;
 
-            //Call all functions
-            for (int i = 1; i <= functionList.size(); i++)
-                functionList.get(i).call(args);
+            callFunc.pushValue();
+            for (Object arg : args)
+                state.pushJavaObject(arg);
+            state.call(args.length, 0);
         }
 
         @LuaWhitelist
@@ -107,9 +123,12 @@ public class EventsAPI {
                 description = "event.register"
         )
         public static void register(@LuaNotNil LuaEvent event, @LuaNotNil LuaFunction function) {
-            if (event.functionQueue.size() + event.functionList.size() >= MAX_FUNCTIONS)
+            if (event.count >= MAX_FUNCTIONS)
                 throw new LuaRuntimeException("Reached maximum limit of " + MAX_FUNCTIONS + " functions in an event!");
-            event.functionQueue.add(function);
+            event.registerFunc.pushValue();
+            function.pushValue();
+            event.state.call(1, 0);
+            event.count++;
         }
 
         @LuaWhitelist
@@ -121,8 +140,9 @@ public class EventsAPI {
                 description = "event.clear"
         )
         public static void clear(@LuaNotNil LuaEvent event) {
-            event.functionQueue.clear();
-            event.functionList.clear();
+            event.clearFunc.pushValue();
+            event.state.call(0, 0);
+            event.count = 0;
         }
 
         @LuaWhitelist
@@ -140,11 +160,13 @@ public class EventsAPI {
                 description = "event.remove"
         )
         public static void remove(@LuaNotNil LuaEvent event, Integer index) {
-            event.flushQueue();
             if (index == null) index = 1;
-            if (index <= 0 || index > event.functionList.size())
+            if (index <= 0 || index > event.count)
                 throw new LuaRuntimeException("Illegal index to remove(): " + index);
-            event.functionList.remove(index.intValue());
+            event.removeFunc.pushValue();
+            event.state.pushInteger(index);
+            event.state.call(1, 0);
+            event.count--;
         }
 
         @LuaWhitelist
@@ -156,7 +178,7 @@ public class EventsAPI {
                 description = "event.get_count"
         )
         public static int getCount(@LuaNotNil LuaEvent event) {
-            return event.functionQueue.size() + event.functionList.size();
+            return event.count;
         }
 
         @Override
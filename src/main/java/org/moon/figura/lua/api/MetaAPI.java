@@ -107,7 +107,7 @@ public class MetaAPI {
             description = "meta.get_size"
     )
     public static float getSize(@LuaNotNil MetaAPI api) {
-        return api.avatar.fileSize;
+        return api.avatar.getFileSize();
     }
 
     @LuaWhitelist
@@ -180,7 +180,7 @@ public class MetaAPI {
             description = "meta.get_render_count"
     )
     public static int getRenderCount(@LuaNotNil MetaAPI api) {
-        return api.avatar.renderInstructions;
+        return api.avatar.accumulatedRenderInstructions;
     }
 
     @LuaWhitelist
@@ -0,0 +1,88 @@
+package org.moon.figura.lua.api.nameplate;
+
+import net.minecraft.network.chat.Component;
+import net.minecraft.network.chat.MutableComponent;
+import net.minecraft.network.chat.TextComponent;
+import org.moon.figura.FiguraMod;
+import org.moon.figura.avatars.Avatar;
+import org.moon.figura.config.Config;
+import org.moon.figura.utils.TextUtils;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.regex.Pattern;
+
+/**
+ * The last built nameplate of an avatar, for one place it is shown.
+ * Nameplates are drawn every frame but rarely change, so it is only built again
+ * when the vanilla text, the custom text, the badges or the config changed.
+ */
+public class NameplateCache {
+
+    //inputs
+    private Component text;
+    private String name;
+    private Pattern namePattern;
+    private String customText;
+    private boolean showBadges;
+    private boolean scriptError;
+    private boolean cheese;
+    private String color;
+    private BitSet badges;
+
+    //outputs
+    private Component result;
+    private List<Component> lines;
+    private String string;
+
+    /**
+     * @param text - the vanilla text containing the player name
+     * @param name - the player name to replace
+     * @param customText - the nameplate text set by the script, or null to use the name
+     * @param showBadges - if the badges are appended after the name
+     */
+    public Component get(Component text, String name, String customText, Avatar avatar, boolean showBadges) {
+        boolean cheese = FiguraMod.CHEESE_DAY && (boolean) Config.EASTER_EGGS.value;
+
+        if (result != null && !(showBadges && NameplateCustomization.hasAnimatedBadges(avatar))
+                && showBadges == this.showBadges && avatar.scriptError == scriptError && cheese == this.cheese
+                && Objects.equals(customText, this.customText) && Objects.equals(avatar.color, color)
+                && avatar.badges.equals(badges) && name.equals(this.name) && text.equals(this.text))
+            return result;
+
+        if (!name.equals(this.name))
+            namePattern = TextUtils.namePattern(name);
+
+        this.text = text;
+        this.name = name;
+        this.customText = customText;
+        this.showBadges = showBadges;
+        this.scriptError = avatar.scriptError;
+        this.cheese = cheese;
+        this.color = avatar.color;
+        this.badges = (BitSet) avatar.badges.clone();
+
+        Component replacement = customText != null ? NameplateCustomization.applyCustomization(customText) : new TextComponent(name);
+        if (showBadges)
+            ((MutableComponent) replacement).append(NameplateCustomization.fetchBadges(avatar));
+
+        result = TextUtils.replaceInText(text, namePattern, replacement);
+        lines = null;
+        string = null;
+        return result;
+    }
+
+    //the last result split in lines
+    public List<Component> getLines() {
+        if (lines == null)
+            lines = TextUtils.splitText(result, "\n");
+        return lines;
+    }
+
+    public String getString() {
+        if (string == null)
+            string = result.getString();
+        return string;
+    }
+}
@@ -144,6 +144,13 @@ public class NameplateCustomization {
         return Pride.values().length + Special.values().length;
     }
 
+    private static final int DEV_BADGE = Pride.values().length + Special.DEV.ordinal();
+
+    //the dev badge cycles through colours, so it can not be reused between frames
+    public static boolean hasAnimatedBadges(Avatar avatar) {
+        return avatar.badges.get(DEV_BADGE);
+    }
+
     @LuaWhitelist
     @LuaMethodDoc(
             overloads = @LuaFunctionOverload(
@@ -6,6 +6,7 @@ import net.minecraft.ChatFormatting;
 import net.minecraft.network.chat.MutableComponent;
 import net.minecraft.network.chat.TextComponent;
 import org.moon.figura.FiguraMod;
+import org.moon.figura.avatars.animation.Animation;
 import org.moon.figura.avatars.model.FiguraModelPart;
 import org.moon.figura.lua.api.*;
 import org.moon.figura.lua.api.entity.EntityWrapper;
@@ -90,6 +91,12 @@ public class FiguraDocsManager {
                 VanillaModelAPI.VanillaModelPart.class
         ));
 
+        //Animation classes
+        put("animation", List.of(
+                AnimationAPI.class,
+                Animation.class
+        ));
+
         //Entity classes
         put("entity", List.of(
                 EntityWrapper.class,
@@ -1,6 +1,7 @@
 package org.moon.figura.lua.docs;
 
 import org.moon.figura.avatars.model.FiguraModelPart;
+import org.moon.figura.lua.api.AnimationAPI;
 import org.moon.figura.lua.api.EventsAPI;
 import org.moon.figura.lua.api.ParticleAPI;
 import org.moon.figura.lua.api.SoundAPI;
@@ -33,6 +34,8 @@ public class FiguraGlobalsDocs {
     public MatricesAPI matrices;
     @LuaFieldDoc(description = "globals.models")
     public FiguraModelPart models;
+    @LuaFieldDoc(description = "globals.animations")
+    public AnimationAPI animations;
     @LuaFieldDoc(description = "globals.events")
     public EventsAPI events;
     @LuaFieldDoc(description = "globals.vanilla_model")
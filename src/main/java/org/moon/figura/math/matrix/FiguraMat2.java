@@ -25,6 +25,8 @@ public class FiguraMat2 implements CachedType {
     @LuaFieldDoc(description = "matrix_n.vrc")
     public double vRC;
 
+    private boolean ownedByLua = false;
+
     private FiguraMat2() {}
 
     // CACHING METHODS
@@ -37,6 +39,12 @@ public class FiguraMat2 implements CachedType {
     public void free() {
         CACHE.offerOld(this);
     }
+    public void markOwnedByLua() {
+        ownedByLua = true;
+    }
+    public boolean isOwnedByLua() {
+        return ownedByLua;
+    }
     public static FiguraMat2 of() {
         return CACHE.getFresh();
     }
@@ -35,6 +35,8 @@ public class FiguraMat3 implements CachedType {
     private double cachedDeterminant = Double.MAX_VALUE;
 
 
+    private boolean ownedByLua = false;
+
     private FiguraMat3() {}
 
     // CACHING METHODS
@@ -49,6 +51,12 @@ public class FiguraMat3 implements CachedType {
     public void free() {
         CACHE.offerOld(this);
     }
+    public void markOwnedByLua() {
+        ownedByLua = true;
+    }
+    public boolean isOwnedByLua() {
+        return ownedByLua;
+    }
     public static FiguraMat3 of() {
         return CACHE.getFresh();
     }
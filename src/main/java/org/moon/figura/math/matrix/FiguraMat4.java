@@ -36,6 +36,8 @@ public class FiguraMat4 implements CachedType {
     private double cachedDeterminant = Double.MAX_VALUE;
 
 
+    private boolean ownedByLua = false;
+
     private FiguraMat4() {}
 
     // CACHING METHODS
@@ -50,6 +52,12 @@ public class FiguraMat4 implements CachedType {
     public void free() {
         CACHE.offerOld(this);
     }
+    public void markOwnedByLua() {
+        ownedByLua = true;
+    }
+    public boolean isOwnedByLua() {
+        return ownedByLua;
+    }
     public static FiguraMat4 of() {
         return CACHE.getFresh();
     }
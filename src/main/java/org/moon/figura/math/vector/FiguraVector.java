@@ -2,6 +2,16 @@ package org.moon.figura.math.vector;
 
 public abstract class FiguraVector<T extends FiguraVector<T>> {
 
+    private boolean ownedByLua = false;
+
+    public void markOwnedByLua() {
+        ownedByLua = true;
+    }
+
+    public boolean isOwnedByLua() {
+        return ownedByLua;
+    }
+
     public abstract double lengthSquared();
     public double length() {
         return Math.sqrt(lengthSquared());
@@ -5,6 +5,8 @@ import net.minecraft.client.gui.screens.Screen;
 import org.moon.figura.FiguraMod;
 import org.moon.figura.avatars.Avatar;
 import org.moon.figura.avatars.AvatarManager;
+import org.moon.figura.avatars.AvatarRenderContext;
+import org.moon.figura.avatars.model.rendering.VertexBufferAvatarRenderer;
 import org.moon.figura.config.Config;
 import org.moon.figura.gui.FiguraToast;
 import org.moon.figura.lua.api.keybind.FiguraKeybind;
@@ -33,6 +35,13 @@ public class MinecraftMixin {
             AvatarManager.reloadAvatar(FiguraMod.getLocalPlayerUUID());
     }
 
+    //after the ticks, so avatars loaded or removed by them are seen this frame
+    @Inject(at = @At(value = "INVOKE", target = "Lnet/minecraft/client/renderer/GameRenderer;render(FJZ)V"), method = "runTick")
+    private void beforeRender(boolean tick, CallbackInfo ci) {
+        AvatarRenderContext.nextFrame();
+        VertexBufferAvatarRenderer.discardQueued();
+    }
+
     @Inject(at = @At("HEAD"), method = "setScreen")
     private void setScreen(Screen screen, CallbackInfo ci) {
         Avatar avatar = AvatarManager.getAvatarForPlayer(FiguraMod.getLocalPlayerUUID());
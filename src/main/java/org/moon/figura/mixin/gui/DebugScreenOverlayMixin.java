@@ -5,6 +5,8 @@ import net.minecraft.client.gui.components.DebugScreenOverlay;
 import org.moon.figura.FiguraMod;
 import org.moon.figura.avatars.Avatar;
 import org.moon.figura.avatars.AvatarManager;
+import org.moon.figura.avatars.ScriptMetrics;
+import org.moon.figura.utils.caching.CacheUtils;
 import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.injection.At;
 import org.spongepowered.asm.mixin.injection.Inject;
@@ -30,6 +32,17 @@ public class DebugScreenOverlayMixin {
         lines.add(++i, "§b[FIGURA]§r");
         lines.add(++i, "Version: " + FiguraMod.VERSION);
 
+        int pooled = 0, peak = 0;
+        long hits = 0, misses = 0, leftToLua = 0;
+        for (CacheUtils.Cache<?> cache : CacheUtils.getCaches()) {
+            pooled += cache.getSize();
+            peak += cache.getHighWaterMark();
+            hits += cache.getHits();
+            misses += cache.getMisses();
+            leftToLua += cache.getLeftToLua();
+        }
+        lines.add(++i, String.format("Pooled objects: %d (peak %d), %.1f%% reused, %d left to Lua", pooled, peak, hits + misses == 0 ? 0f : hits * 100f / (hits + misses), leftToLua));
+
         Avatar avatar = AvatarManager.getAvatarForPlayer(FiguraMod.getLocalPlayerUUID());
         if (avatar != null) {
             lines.add(++i, String.format("Complexity: %d", avatar.complexity));
@@ -39,20 +52,27 @@ public class DebugScreenOverlayMixin {
 
             //has script
             if (avatar.luaState != null) {
-                if (!FiguraMod.DO_OUR_NATIVES_WORK) {
-                    lines.add(++i, "Sorry, but instruction counts are ");
-                    lines.add(++i, "only supported on Windows right now :(");
-                    lines.add(++i, "We're working on it!");
-                } else {
-                    lines.add(++i, String.format("Init instructions: %d", avatar.initInstructions));
-                    lines.add(++i, String.format("Tick instructions: %d", avatar.tickInstructions));
-                    lines.add(++i, "Render instructions (W, R, PR, PW):");
-                    lines.add(++i, String.format("%d (%d, %d, %d, %d)", avatar.accumulatedRenderInstructions,
-                            avatar.worldRenderInstructions,
-                            avatar.renderInstructions,
-                            avatar.postRenderInstructions,
-                            avatar.postWorldRenderInstructions));
-                }
+                //without the natives, instructions are only counted in steps of a thousand
+                String approx = FiguraMod.DO_OUR_NATIVES_WORK ? "" : "~";
+                lines.add(++i, String.format("Init instructions: %s%d (%.2fms)", approx, avatar.initInstructions, avatar.initNanos / 1e6));
+                lines.add(++i, String.format("Tick instructions: %s%d", approx, avatar.tickInstructions));
+                lines.add(++i, "Render instructions (W, R, PR, PW):");
+                lines.add(++i, String.format("%s%d (%d, %d, %d, %d)", approx, avatar.accumulatedRenderInstructions,
+                        avatar.worldRenderInstructions,
+                        avatar.renderInstructions,
+                        avatar.postRenderInstructions,
+                        avatar.postWorldRenderInstructions));
+
+                //totals over the last second
+                ScriptMetrics metrics = avatar.metrics;
+                lines.add(++i, "Script time last second (T, W, R, PR, PW, C):");
+                lines.add(++i, String.format("%.2fms, %.2fms, %.2fms, %.2fms, %.2fms, %.2fms",
+                        metrics.getNanos(ScriptMetrics.Event.TICK) / 1e6,
+                        metrics.getNanos(ScriptMetrics.Event.WORLD_RENDER) / 1e6,
+                        metrics.getNanos(ScriptMetrics.Event.RENDER) / 1e6,
+                        metrics.getNanos(ScriptMetrics.Event.POST_RENDER) / 1e6,
+                        metrics.getNanos(ScriptMetrics.Event.POST_WORLD_RENDER) / 1e6,
+                        metrics.getNanos(ScriptMetrics.Event.CHAT) / 1e6));
             }
         }
         //lines.add(++i, String.format("Pings per second: ↑%d, ↓%d", pingSent, pingReceived));
@@ -0,0 +1,19 @@
+package org.moon.figura.mixin.render;
+
+import net.minecraft.client.renderer.MultiBufferSource;
+import net.minecraft.client.renderer.RenderType;
+import org.moon.figura.avatars.model.rendering.VertexBufferAvatarRenderer;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+@Mixin(MultiBufferSource.BufferSource.class)
+public class BufferSourceMixin {
+
+    //retained avatar geometry is drawn along with the batch of its render type
+    @Inject(method = "endBatch(Lnet/minecraft/client/renderer/RenderType;)V", at = @At("TAIL"))
+    private void endBatch(RenderType renderType, CallbackInfo ci) {
+        VertexBufferAvatarRenderer.flush((MultiBufferSource.BufferSource) (Object) this, renderType);
+    }
+}
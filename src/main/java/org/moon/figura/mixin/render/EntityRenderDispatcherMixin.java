@@ -5,10 +5,7 @@ import net.minecraft.client.renderer.MultiBufferSource;
 import net.minecraft.client.renderer.entity.EntityRenderDispatcher;
 import net.minecraft.world.entity.Entity;
 import net.minecraft.world.level.LevelReader;
-import org.moon.figura.avatars.Avatar;
-import org.moon.figura.avatars.AvatarManager;
-import org.moon.figura.trust.TrustContainer;
-import org.moon.figura.trust.TrustManager;
+import org.moon.figura.avatars.AvatarRenderContext;
 import org.moon.figura.utils.ui.UIHelper;
 import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.injection.At;
@@ -23,20 +20,20 @@ public class EntityRenderDispatcherMixin {
     private void renderFlame(PoseStack stack, MultiBufferSource multiBufferSource, Entity entity, CallbackInfo ci) {
         if (UIHelper.forceNoFire) ci.cancel();
 
-        Avatar avatar = AvatarManager.getAvatar(entity);
-        if (avatar == null || avatar.luaState == null || TrustManager.get(entity.getUUID()).get(TrustContainer.Trust.VANILLA_MODEL_EDIT) == 0)
+        AvatarRenderContext context = AvatarRenderContext.get(entity);
+        if (context.renderer == null || !context.vanillaModelEdit)
             return;
 
-        Boolean fire = avatar.luaState.renderer.renderFireOverlay;
+        Boolean fire = context.renderer.renderFireOverlay;
         if (fire != null && !fire)
             ci.cancel();
     }
 
     @ModifyVariable(method = "renderShadow", at = @At("HEAD"), ordinal = 2, argsOnly = true)
     private static float modifyShadowSize(float h, PoseStack poseStack, MultiBufferSource multiBufferSource, Entity entity, float f, float g, LevelReader levelReader) {
-        Avatar avatar = AvatarManager.getAvatar(entity);
-        if (avatar != null && avatar.luaState != null && avatar.luaState.renderer.shadowRadius != null && TrustManager.get(entity.getUUID()).get(TrustContainer.Trust.VANILLA_MODEL_EDIT) == 1)
-            return avatar.luaState.renderer.shadowRadius;
+        AvatarRenderContext context = AvatarRenderContext.get(entity);
+        if (context.renderer != null && context.renderer.shadowRadius != null && context.vanillaModelEdit)
+            return context.renderer.shadowRadius;
         return h;
     }
 
@@ -46,11 +43,11 @@ public class EntityRenderDispatcherMixin {
         if (owner == null)
             return;
 
-        Avatar avatar = AvatarManager.getAvatar(owner);
-        if (avatar == null || avatar.luaState == null || TrustManager.get(owner.getUUID()).get(TrustContainer.Trust.VANILLA_MODEL_EDIT) == 0)
+        AvatarRenderContext context = AvatarRenderContext.get(owner);
+        if (context.renderer == null || !context.vanillaModelEdit)
             return;
 
-        Boolean render = avatar.luaState.renderer.renderVehicle;
+        Boolean render = context.renderer.renderVehicle;
         if (render != null && !render)
             ci.cancel();
     }
@@ -0,0 +1,12 @@
+package org.moon.figura.mixin.render;
+
+import com.mojang.blaze3d.platform.NativeImage;
+import net.minecraft.client.renderer.LightTexture;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.gen.Accessor;
+
+@Mixin(LightTexture.class)
+public interface LightTextureAccessor {
+    @Accessor
+    NativeImage getLightPixels();
+}
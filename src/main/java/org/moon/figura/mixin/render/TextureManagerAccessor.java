@@ -0,0 +1,15 @@
+package org.moon.figura.mixin.render;
+
+import net.minecraft.client.renderer.texture.AbstractTexture;
+import net.minecraft.client.renderer.texture.TextureManager;
+import net.minecraft.resources.ResourceLocation;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.gen.Accessor;
+
+import java.util.Map;
+
+@Mixin(TextureManager.class)
+public interface TextureManagerAccessor {
+    @Accessor
+    Map<ResourceLocation, AbstractTexture> getByPath();
+}
@@ -0,0 +1,14 @@
+package org.moon.figura.mixin.render;
+
+import com.mojang.blaze3d.vertex.VertexBuffer;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.gen.Accessor;
+
+@Mixin(VertexBuffer.class)
+public interface VertexBufferAccessor {
+    @Accessor
+    int getIndexCount();
+
+    @Accessor
+    void setIndexCount(int indexCount);
+}
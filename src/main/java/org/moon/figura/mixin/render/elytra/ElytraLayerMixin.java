@@ -6,11 +6,8 @@ import net.minecraft.client.model.EntityModel;
 import net.minecraft.client.renderer.MultiBufferSource;
 import net.minecraft.client.renderer.entity.layers.ElytraLayer;
 import net.minecraft.world.entity.LivingEntity;
-import org.moon.figura.avatars.Avatar;
-import org.moon.figura.avatars.AvatarManager;
+import org.moon.figura.avatars.AvatarRenderContext;
 import org.moon.figura.lua.api.model.VanillaModelAPI;
-import org.moon.figura.trust.TrustContainer;
-import org.moon.figura.trust.TrustManager;
 import org.spongepowered.asm.mixin.Final;
 import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.Shadow;
@@ -26,16 +23,16 @@ public abstract class ElytraLayerMixin<T extends LivingEntity, M extends EntityM
 
     @Inject(at = @At("HEAD"), method = "render(Lcom/mojang/blaze3d/vertex/PoseStack;Lnet/minecraft/client/renderer/MultiBufferSource;ILnet/minecraft/world/entity/LivingEntity;FFFFFF)V")
     public void onRender(PoseStack poseStack, MultiBufferSource multiBufferSource, int i, T livingEntity, float f, float g, float h, float j, float k, float l, CallbackInfo ci) {
-        Avatar avatar = AvatarManager.getAvatar(livingEntity);
-        if (avatar != null && avatar.luaState != null)
-            vanillaModelAPI = avatar.luaState.vanillaModel;
+        AvatarRenderContext context = AvatarRenderContext.get(livingEntity);
+        if (context.avatar != null && context.avatar.luaState != null)
+            vanillaModelAPI = context.avatar.luaState.vanillaModel;
         else
             vanillaModelAPI = null;
 
         if (vanillaModelAPI != null) {
             vanillaModelAPI.copyByPart(elytraModel, vanillaModelAPI.LEFT_ELYTRON);
             vanillaModelAPI.copyByPart(elytraModel, vanillaModelAPI.RIGHT_ELYTRON);
-            if (TrustManager.get(livingEntity.getUUID()).get(TrustContainer.Trust.VANILLA_MODEL_EDIT) == 1) {
+            if (context.vanillaModelEdit) {
                 vanillaModelAPI.alterByPart(elytraModel, vanillaModelAPI.LEFT_ELYTRON);
                 vanillaModelAPI.alterByPart(elytraModel, vanillaModelAPI.RIGHT_ELYTRON);
             }
@@ -3,10 +3,7 @@ package org.moon.figura.mixin.render.renderers;
 import net.minecraft.client.renderer.culling.Frustum;
 import net.minecraft.client.renderer.entity.EntityRenderer;
 import net.minecraft.world.entity.Entity;
-import org.moon.figura.avatars.Avatar;
-import org.moon.figura.avatars.AvatarManager;
-import org.moon.figura.trust.TrustContainer;
-import org.moon.figura.trust.TrustManager;
+import org.moon.figura.avatars.AvatarRenderContext;
 import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.injection.At;
 import org.spongepowered.asm.mixin.injection.Inject;
@@ -17,8 +14,8 @@ public abstract class EntityRendererMixin<T extends Entity> {
 
     @Inject(at = @At("HEAD"), method = "shouldRender", cancellable = true)
     private void shouldRender(T entity, Frustum frustum, double d, double e, double f, CallbackInfoReturnable<Boolean> cir) {
-        Avatar avatar = AvatarManager.getAvatar(entity);
-        if (avatar != null && TrustManager.get(entity.getUUID()).get(TrustContainer.Trust.OFFSCREEN_RENDERING) == 1)
+        AvatarRenderContext context = AvatarRenderContext.get(entity);
+        if (context.avatar != null && context.offscreenRendering)
             cir.setReturnValue(true);
     }
 }
@@ -18,12 +18,10 @@ import net.minecraft.world.entity.LivingEntity;
 import net.minecraft.world.entity.player.Player;
 import org.moon.figura.FiguraMod;
 import org.moon.figura.avatars.Avatar;
-import org.moon.figura.avatars.AvatarManager;
+import org.moon.figura.avatars.AvatarRenderContext;
 import org.moon.figura.avatars.model.rendering.AvatarRenderer;
 import org.moon.figura.config.Config;
 import org.moon.figura.mixin.render.elytra.ElytraLayerAccessor;
-import org.moon.figura.trust.TrustContainer;
-import org.moon.figura.trust.TrustManager;
 import org.moon.figura.utils.ui.UIHelper;
 import org.spongepowered.asm.mixin.Final;
 import org.spongepowered.asm.mixin.Mixin;
@@ -66,7 +64,8 @@ public abstract class LivingEntityRendererMixin<T extends LivingEntity, M extend
 
     @Inject(method = "render(Lnet/minecraft/world/entity/LivingEntity;FFLcom/mojang/blaze3d/vertex/PoseStack;Lnet/minecraft/client/renderer/MultiBufferSource;I)V", at = @At("HEAD"))
     private void preRender(LivingEntity entity, float yaw, float delta, PoseStack matrices, MultiBufferSource bufferSource, int light, CallbackInfo ci) {
-        currentAvatar = AvatarManager.getAvatar(entity);
+        AvatarRenderContext context = AvatarRenderContext.get(entity);
+        currentAvatar = context.avatar;
         if (currentAvatar == null)
             return;
 
@@ -74,7 +73,7 @@ public abstract class LivingEntityRendererMixin<T extends LivingEntity, M extend
 
             if (getModel() instanceof PlayerModel<?> playerModel && entity instanceof Player) {
                 currentAvatar.luaState.vanillaModel.copyPlayerModel(playerModel);
-                if (TrustManager.get(entity.getUUID()).get(TrustContainer.Trust.VANILLA_MODEL_EDIT) == 1)
+                if (context.vanillaModelEdit)
                     currentAvatar.luaState.vanillaModel.alterPlayerModel(playerModel);
             }
         }
@@ -101,7 +100,7 @@ public abstract class LivingEntityRendererMixin<T extends LivingEntity, M extend
 
 
         if (model instanceof PlayerModel<?> playerModel && entity instanceof Player)
-            if (TrustManager.get(entity.getUUID()).get(TrustContainer.Trust.VANILLA_MODEL_EDIT) == 1)
+            if (AvatarRenderContext.get(entity).vanillaModelEdit)
                 if (currentAvatar.luaState != null)
                     currentAvatar.luaState.vanillaModel.restorePlayerModel(playerModel);
 
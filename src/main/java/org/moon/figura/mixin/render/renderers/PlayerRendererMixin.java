@@ -14,20 +14,17 @@ import net.minecraft.client.renderer.entity.LivingEntityRenderer;
 import net.minecraft.client.renderer.entity.layers.ElytraLayer;
 import net.minecraft.client.renderer.entity.player.PlayerRenderer;
 import net.minecraft.network.chat.Component;
-import net.minecraft.network.chat.MutableComponent;
 import net.minecraft.network.chat.TextComponent;
 import net.minecraft.world.scores.Objective;
 import net.minecraft.world.scores.Score;
 import net.minecraft.world.scores.Scoreboard;
 import org.moon.figura.avatars.Avatar;
-import org.moon.figura.avatars.AvatarManager;
+import org.moon.figura.avatars.AvatarRenderContext;
 import org.moon.figura.config.Config;
+import org.moon.figura.lua.api.nameplate.NameplateCache;
 import org.moon.figura.lua.api.nameplate.NameplateCustomization;
 import org.moon.figura.math.vector.FiguraVec3;
 import org.moon.figura.mixin.render.elytra.ElytraLayerAccessor;
-import org.moon.figura.trust.TrustContainer;
-import org.moon.figura.trust.TrustManager;
-import org.moon.figura.utils.TextUtils;
 import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.Unique;
 import org.spongepowered.asm.mixin.injection.At;
@@ -52,7 +49,8 @@ public abstract class PlayerRendererMixin extends LivingEntityRenderer<AbstractC
         int config = (int) Config.ENTITY_NAMEPLATE.value;
 
         //get metadata
-        Avatar avatar = AvatarManager.getAvatarForPlayer(player.getUUID());
+        AvatarRenderContext context = AvatarRenderContext.get(player);
+        Avatar avatar = context.avatar;
         if (avatar == null || config == 0)
             return;
 
@@ -70,7 +68,7 @@ public abstract class PlayerRendererMixin extends LivingEntityRenderer<AbstractC
         }
 
         //trust check
-        boolean trust = TrustManager.get(player.getUUID()).get(TrustContainer.Trust.NAMEPLATE_EDIT) == 1;
+        boolean trust = context.nameplateEdit;
 
         stack.pushPose();
 
@@ -80,6 +78,7 @@ public abstract class PlayerRendererMixin extends LivingEntityRenderer<AbstractC
             pos.add(NameplateCustomization.getPos(custom));
 
         stack.translate(pos.x, pos.y, pos.z);
+        pos.free();
 
         //rotation
         stack.mulPose(this.entityRenderDispatcher.cameraOrientation());
@@ -91,25 +90,16 @@ public abstract class PlayerRendererMixin extends LivingEntityRenderer<AbstractC
             scaleVec.multiply(NameplateCustomization.getScale(custom));
 
         stack.scale((float) scaleVec.x, (float) scaleVec.y, (float) scaleVec.z);
+        scaleVec.free();
 
         //text
-        Component replacement;
-        if (custom != null && NameplateCustomization.getText(custom) != null && trust) {
-            replacement = NameplateCustomization.applyCustomization(NameplateCustomization.getText(custom));
-        } else {
-            replacement = new TextComponent(player.getName().getString());
-        }
-
-        if (config > 1) {
-            Component badges = NameplateCustomization.fetchBadges(avatar);
-            ((MutableComponent) replacement).append(badges);
-        }
-
-        text = TextUtils.replaceInText(text, "\\b" + player.getName().getString() + "\\b", replacement);
+        String customText = custom != null && NameplateCustomization.getText(custom) != null && trust ? NameplateCustomization.getText(custom) : null;
+        NameplateCache nameplate = avatar.entityNameplate;
+        text = nameplate.get(text, player.getGameProfile().getName(), customText, avatar, config > 1);
 
         // * variables * //
         boolean isSneaking = player.isDiscrete();
-        boolean deadmau = "deadmau5".equals(text.getString());
+        boolean deadmau = "deadmau5".equals(nameplate.getString());
 
         float bgOpacity = Minecraft.getInstance().options.getBackgroundOpacity(0.25f);
         int bgColor = (int) (bgOpacity * 0xFF) << 24;
@@ -140,7 +130,7 @@ public abstract class PlayerRendererMixin extends LivingEntityRenderer<AbstractC
         }
 
         //render name
-        List<Component> textList = TextUtils.splitText(text, "\n");
+        List<Component> textList = nameplate.getLines();
 
         for (int i = 0; i < textList.size(); i++) {
             Component text1 = textList.get(i);
@@ -164,7 +154,7 @@ public abstract class PlayerRendererMixin extends LivingEntityRenderer<AbstractC
 
     @Inject(at = @At(value = "INVOKE", shift = At.Shift.AFTER, target = "Lnet/minecraft/client/renderer/entity/player/PlayerRenderer;setModelProperties(Lnet/minecraft/client/player/AbstractClientPlayer;)V"), method = "renderHand")
     private void onRenderHand(PoseStack stack, MultiBufferSource multiBufferSource, int light, AbstractClientPlayer player, ModelPart arm, ModelPart sleeve, CallbackInfo ci) {
-        avatar = AvatarManager.getAvatarForPlayer(player.getUUID());
+        avatar = AvatarRenderContext.get(player).avatar;
         if (avatar == null || avatar.luaState == null)
             return;
 
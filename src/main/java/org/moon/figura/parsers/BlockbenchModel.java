@@ -1,29 +1,27 @@
 package org.moon.figura.parsers;
 
-import com.google.gson.JsonArray;
-import com.google.gson.JsonObject;
-
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 
-//dummy class for gson reflection
-//allows reading the model json way easier
+//the model json as read by the BlockbenchModelReader
+//only holds what the parser uses, and nothing depending on the other models of the avatar
 public class BlockbenchModel {
-    Resolution resolution;
-    Texture[] textures;
-    Element[] elements;
-    Animation[] animations;
+    Resolution resolution = new Resolution();
+    final List<Texture> textures = new ArrayList<>();
+    final List<Element> elements = new ArrayList<>();
+    final List<Animation> animations = new ArrayList<>();
 
-    //do not reflection-parse the outliner
-    //as it can be either an object or a string
-    JsonArray outliner;
+    //either element uuids (String) or groups (GroupElement)
+    final List<Object> outliner = new ArrayList<>();
 
     public static class Resolution {
-        int width, height;
+        int width = 16, height = 16;
     }
 
     public static class Texture {
         String name;
-        String source;
+        byte[] source;
         String render_mode;
     }
 
@@ -41,10 +39,12 @@ public class BlockbenchModel {
 
         Boolean visibility;
 
-        //do not reflection-parse faces nor vertices
-        //since those are based on type
-        JsonObject faces;
-        JsonObject vertices;
+        //cube faces, by direction
+        final LinkedHashMap<String, CubeFace> cubeFaces = new LinkedHashMap<>();
+
+        //mesh data, vertices by name
+        final LinkedHashMap<String, float[]> vertices = new LinkedHashMap<>();
+        final List<MeshFace> meshFaces = new ArrayList<>();
     }
 
     //aka outliner object
@@ -55,9 +55,8 @@ public class BlockbenchModel {
         float[] origin;
         float[] rotation;
 
-        //cannot parse children
-        //same reason as outliner
-        JsonArray children;
+        //same as the outliner
+        final List<Object> children = new ArrayList<>();
     }
 
     public static class CubeFace {
@@ -69,9 +68,8 @@ public class BlockbenchModel {
     }
 
     public static class MeshFace {
-        //cannot parse mesh uv
-        //as keys are custom string
-        JsonObject uv;
+        //uv by vertex name
+        final LinkedHashMap<String, float[]> uv = new LinkedHashMap<>();
         String[] vertices;
         Integer texture;
     }
@@ -90,9 +88,8 @@ public class BlockbenchModel {
         String start_delay;
         String loop_delay;
 
-        //cannot parse animators
-        //as it keys are groups uuids or effects
-        JsonObject animators;
+        //keyframes by group uuid, or "effects"
+        final LinkedHashMap<String, List<KeyFrame>> animators = new LinkedHashMap<>();
     }
 
     public static class KeyFrame {
@@ -100,11 +97,11 @@ public class BlockbenchModel {
         String interpolation;
         float time;
 
-        //keyframe data can contain any type of object
-        JsonArray data_points;
+        final List<KeyFrameData> data_points = new ArrayList<>();
     }
 
     public static class KeyFrameData {
         String x, y, z;
+        String script;
     }
 }
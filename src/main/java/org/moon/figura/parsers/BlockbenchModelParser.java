@@ -1,15 +1,14 @@
 package org.moon.figura.parsers;
 
-import com.google.gson.*;
 import net.minecraft.nbt.*;
 import org.moon.figura.avatars.model.FiguraModelPart;
 import org.moon.figura.math.vector.FiguraVec3;
 
 import java.util.*;
 
-//main class to convert a blockbench model (json) into nbt
+//main class to convert a blockbench model, read by the BlockbenchModelReader, into nbt
 //default fields are omitted from the nbt to save up space
-//note: use the same instance for parsing multiple models for the same avatar
+//note: use the same instance for parsing multiple models for the same avatar, in order
 public class BlockbenchModelParser {
 
     //texture offset for diverse models
@@ -24,11 +23,7 @@ public class BlockbenchModelParser {
     private final HashMap<Integer, String> textureIdMap = new HashMap<>();
 
     //parser
-    public ModelData parseModel(String json, String modelName) {
-        //parse json -> object
-        Gson gson = new GsonBuilder().create();
-        BlockbenchModel model = gson.fromJson(json, BlockbenchModel.class);
-
+    public ModelData parseModel(BlockbenchModel model, String modelName) {
         //return lists
         List<CompoundTag> textureList = new ArrayList<>();
         List<CompoundTag> animationList = new ArrayList<>();
@@ -45,15 +40,15 @@ public class BlockbenchModelParser {
 
         //parse elements into a map of UUID (String) -> NbtCompound (the element)
         //later when parsing the outliner, we fetch the elements from this map
-        parseElements(gson, model.elements);
+        parseElements(model.elements);
 
         //parse animations
         //add the animation metadata to the animation list
         //but return a map with the group animation, as we will store it on the groups themselves
-        parseAnimations(animationList, gson, model.animations);
+        parseAnimations(animationList, model.animations);
 
         //add and parse the outliner
-        nbt.put("chld", parseOutliner(gson, model.outliner, null));
+        nbt.put("chld", parseOutliner(model.outliner, null));
 
         //clear variables used by the parser
         elementMap.clear();
@@ -67,10 +62,7 @@ public class BlockbenchModelParser {
 
     // -- internal functions -- //
 
-    private void parseTextures(List<CompoundTag> list, BlockbenchModel.Texture[] textures, BlockbenchModel.Resolution resolution) {
-        if (textures == null)
-            return;
-
+    private void parseTextures(List<CompoundTag> list, List<BlockbenchModel.Texture> textures, BlockbenchModel.Resolution resolution) {
         //temp lists
 
         //used for retrieving texture data by name, so we can expand the same data
@@ -80,12 +72,12 @@ public class BlockbenchModelParser {
         List<String> textureIndex = new ArrayList<>();
 
         //read textures
-        for (int i = 0; i < textures.length; i++) {
-            byte[] source = Base64.getDecoder().decode(textures[i].source.replace("data:image/png;base64,", ""));
-            String renderType = textures[i].render_mode;
+        for (int i = 0; i < textures.size(); i++) {
+            byte[] source = textures.get(i).source;
+            String renderType = textures.get(i).render_mode;
 
             //name
-            String name = textures[i].name;
+            String name = textures.get(i).name;
             if (name.endsWith(".png")) {
                 name = name.substring(0, name.length() - 4);
             }
@@ -132,7 +124,7 @@ public class BlockbenchModelParser {
         textureOffset += list.size();
     }
 
-    private void parseElements(Gson gson, BlockbenchModel.Element[] elements) {
+    private void parseElements(List<BlockbenchModel.Element> elements) {
         for (BlockbenchModel.Element element : elements) {
             if (element.type == null)
                 element.type = "cube";
@@ -164,10 +156,10 @@ public class BlockbenchModelParser {
             //parse faces
             CompoundTag data;
             if (element.type.equalsIgnoreCase("cube")) {
-                data = parseCubeFaces(gson, element.faces);
+                data = parseCubeFaces(element.cubeFaces);
                 nbt.put("cube_data", data);
             } else {
-                data = parseMesh(gson, element.faces, element.vertices, element.origin);
+                data = parseMesh(element.meshFaces, element.vertices, element.origin);
                 nbt.put("mesh_data", data);
             }
 
@@ -176,18 +168,14 @@ public class BlockbenchModelParser {
         }
     }
 
-    private CompoundTag parseCubeFaces(Gson gson, JsonObject faces) {
+    private CompoundTag parseCubeFaces(Map<String, BlockbenchModel.CubeFace> faces) {
         CompoundTag nbt = new CompoundTag();
 
         for (String cubeFace : BlockbenchModel.CubeFace.FACES) {
-            if (!faces.has(cubeFace))
-                continue;
-
-            //convert face json to java object
-            BlockbenchModel.CubeFace face = gson.fromJson(faces.getAsJsonObject(cubeFace), BlockbenchModel.CubeFace.class);
+            BlockbenchModel.CubeFace face = faces.get(cubeFace);
 
             //dont add null faces
-            if (face.texture == null)
+            if (face == null || face.texture == null)
                 continue;
 
             //parse texture
@@ -214,7 +202,7 @@ public class BlockbenchModelParser {
         return nbt;
     }
 
-    private CompoundTag parseMesh(Gson gson, JsonObject faces, JsonObject vertices, float[] offset) {
+    private CompoundTag parseMesh(List<BlockbenchModel.MeshFace> faces, Map<String, float[]> vertices, float[] offset) {
         CompoundTag nbt = new CompoundTag();
 
         //parse vertices first, as the faces will reference it later
@@ -225,12 +213,12 @@ public class BlockbenchModelParser {
         ListTag verticesList = new ListTag();
 
         int index = 0;
-        for (Map.Entry<String, JsonElement> entry : vertices.entrySet()) {
+        for (Map.Entry<String, float[]> entry : vertices.entrySet()) {
             verticesMap.put(entry.getKey(), index);
-            JsonArray arr = entry.getValue().getAsJsonArray();
-            verticesList.add(FloatTag.valueOf(arr.get(0).getAsFloat()+offset[0]));
-            verticesList.add(FloatTag.valueOf(arr.get(1).getAsFloat()+offset[1]));
-            verticesList.add(FloatTag.valueOf(arr.get(2).getAsFloat()+offset[2]));
+            float[] arr = entry.getValue();
+            verticesList.add(FloatTag.valueOf(arr[0]+offset[0]));
+            verticesList.add(FloatTag.valueOf(arr[1]+offset[1]));
+            verticesList.add(FloatTag.valueOf(arr[2]+offset[2]));
             index++;
         }
 
@@ -242,13 +230,10 @@ public class BlockbenchModelParser {
         int bestType = 0; //byte
         if (index > 255) bestType = 1; //short
         if (index > 32767) bestType = 2; //int
-        for (Map.Entry<String, JsonElement> entry : faces.entrySet()) {
-            //convert json to java object
-            BlockbenchModel.MeshFace face = gson.fromJson(entry.getValue(), BlockbenchModel.MeshFace.class);
-
+        for (BlockbenchModel.MeshFace face : faces) {
             //dont parse empty faces
             //Also skip faces that have less than 3 or more than 4 vertices, since blockbench is jank as hell
-            if (face.texture == null || face.vertices == null || face.uv == null || face.vertices.length < 3 || face.vertices.length > 4)
+            if (face.texture == null || face.vertices == null || face.uv.isEmpty() || face.vertices.length < 3 || face.vertices.length > 4)
                 continue;
 
             //parse texture
@@ -261,10 +246,12 @@ public class BlockbenchModelParser {
             short k = (short) ((texture.id << 4) + face.vertices.length);
             texesList.add(ShortTag.valueOf(k));
 
-            if (face.vertices.length > 3)
-                reorderVertices(face.vertices, verticesMap, verticesList);
+            //reordered on a copy, the read model can be parsed again on reload
+            String[] faceVertices = face.vertices.clone();
+            if (faceVertices.length > 3)
+                reorderVertices(faceVertices, verticesMap, verticesList);
 
-            for (String vertex : face.vertices) {
+            for (String vertex : faceVertices) {
                 //Face indices
                 Tag bestVal = switch (bestType) {
                     case 0 -> ByteTag.valueOf(verticesMap.get(vertex).byteValue());
@@ -275,9 +262,9 @@ public class BlockbenchModelParser {
                 facesList.add(bestVal);
 
                 //UVs
-                JsonArray uv = face.uv.getAsJsonArray(vertex);
-                float u = uv.get(0).getAsFloat() * texture.fixedSize[0];
-                float v = uv.get(1).getAsFloat() * texture.fixedSize[1];
+                float[] uv = face.uv.get(vertex);
+                float u = uv[0] * texture.fixedSize[0];
+                float v = uv[1] * texture.fixedSize[1];
                 uvsList.add(FloatTag.valueOf(u));
                 uvsList.add(FloatTag.valueOf(v));
             }
@@ -290,13 +277,14 @@ public class BlockbenchModelParser {
         return nbt;
     }
 
-    private static final FiguraVec3
+    //Per parser, since avatars are parsed on the loader threads
+    private final FiguraVec3
             v1 = FiguraVec3.of(),
             v2 = FiguraVec3.of(),
             v3 = FiguraVec3.of(),
             v4 = FiguraVec3.of();
 
-    private static void reorderVertices(String[] vertexNames, Map<String, Integer> nameToIndex, ListTag vertices) {
+    private void reorderVertices(String[] vertexNames, Map<String, Integer> nameToIndex, ListTag vertices) {
         //Fill in v1, v2, v3, v4 from the given vertices
         readVectors(vertexNames, nameToIndex, vertices);
 
@@ -313,7 +301,7 @@ public class BlockbenchModelParser {
 
     }
 
-    private static void readVectors(String[] vertexNames, Map<String, Integer> nameToIndex, ListTag vertices) {
+    private void readVectors(String[] vertexNames, Map<String, Integer> nameToIndex, ListTag vertices) {
         int i = nameToIndex.get(vertexNames[0]);
         v1.set(vertices.getFloat(3*i), vertices.getFloat(3*i+1), vertices.getFloat(3*i+2));
         i = nameToIndex.get(vertexNames[1]);
@@ -324,7 +312,7 @@ public class BlockbenchModelParser {
         v4.set(vertices.getFloat(3 * i), vertices.getFloat(3 * i + 1), vertices.getFloat(3 * i + 2));
     }
 
-    private static final FiguraVec3
+    private final FiguraVec3
             t1 = FiguraVec3.of(),
             t2 = FiguraVec3.of(),
             t3 = FiguraVec3.of(),
@@ -333,7 +321,7 @@ public class BlockbenchModelParser {
     /**
      * Checks whether the two points given are on opposite sides of the line given.
      */
-    private static boolean testOppositeSides(FiguraVec3 linePoint1, FiguraVec3 linePoint2, FiguraVec3 point1, FiguraVec3 point2) {
+    private boolean testOppositeSides(FiguraVec3 linePoint1, FiguraVec3 linePoint2, FiguraVec3 point1, FiguraVec3 point2) {
         t1.set(linePoint1);
         t2.set(linePoint2);
         t3.set(point1);
@@ -349,10 +337,7 @@ public class BlockbenchModelParser {
         return t1.dot(t2) < 0;
     }
 
-    private void parseAnimations(List<CompoundTag> list, Gson gson, BlockbenchModel.Animation[] animations) {
-        if (animations == null)
-            return;
-
+    private void parseAnimations(List<CompoundTag> list, List<BlockbenchModel.Animation> animations) {
         int i = 0;
         for (BlockbenchModel.Animation animation : animations) {
             CompoundTag animNbt = new CompoundTag();
@@ -383,19 +368,13 @@ public class BlockbenchModelParser {
 
             //animation group data
 
-            //hacky solution to skip the for loop
-            if (animation.animators == null)
-                animation.animators = new JsonObject();
-
-            for (Map.Entry<String, JsonElement> entry : animation.animators.entrySet()) {
+            for (Map.Entry<String, List<BlockbenchModel.KeyFrame>> entry : animation.animators.entrySet()) {
                 String id = entry.getKey();
                 boolean effect = id.equalsIgnoreCase("effects");
                 ListTag data = new ListTag();
 
                 //parse keyframes
-                for (JsonElement keyframeJson : entry.getValue().getAsJsonObject().get("keyframes").getAsJsonArray()) {
-                    BlockbenchModel.KeyFrame keyFrame = gson.fromJson(keyframeJson, BlockbenchModel.KeyFrame.class);
-
+                for (BlockbenchModel.KeyFrame keyFrame : entry.getValue()) {
                     if (effect && !keyFrame.channel.equalsIgnoreCase("timeline"))
                         continue;
 
@@ -403,20 +382,17 @@ public class BlockbenchModelParser {
                     keyframeNbt.putFloat("time", keyFrame.time);
 
                     if (effect) {
-                        keyframeNbt.putString("src", keyFrame.data_points.get(0).getAsJsonObject().get("script").getAsString());
+                        keyframeNbt.putString("src", keyFrame.data_points.get(0).script);
                     } else {
                         keyframeNbt.putString("ch", keyFrame.channel);
                         keyframeNbt.putString("int", keyFrame.interpolation);
 
                         //pre
-                        JsonObject dataPoints = keyFrame.data_points.get(0).getAsJsonObject();
-                        keyframeNbt.put("pre", parseKeyFrameData(gson, dataPoints));
+                        keyframeNbt.put("pre", parseKeyFrameData(keyFrame.data_points.get(0)));
 
                         //end
-                        if (keyFrame.data_points.size() > 1) {
-                            JsonObject endDataPoints = keyFrame.data_points.get(1).getAsJsonObject();
-                            keyframeNbt.put("end", parseKeyFrameData(gson, endDataPoints));
-                        }
+                        if (keyFrame.data_points.size() > 1)
+                            keyframeNbt.put("end", parseKeyFrameData(keyFrame.data_points.get(1)));
                     }
 
                     data.add(keyframeNbt);
@@ -447,9 +423,7 @@ public class BlockbenchModelParser {
         animationOffset += list.size();
     }
 
-    private ListTag parseKeyFrameData(Gson gson, JsonObject object) {
-        BlockbenchModel.KeyFrameData endFrameData = gson.fromJson(object, BlockbenchModel.KeyFrameData.class);
-
+    private ListTag parseKeyFrameData(BlockbenchModel.KeyFrameData endFrameData) {
         ListTag nbt = new ListTag();
         nbt.add(FloatTag.valueOf(toFloat(endFrameData.x, 0f)));
         nbt.add(FloatTag.valueOf(toFloat(endFrameData.y, 0f)));
@@ -458,17 +432,14 @@ public class BlockbenchModelParser {
         return nbt;
     }
 
-    private ListTag parseOutliner(Gson gson, JsonArray outliner, Boolean parentVsb) {
+    private ListTag parseOutliner(List<Object> outliner, Boolean parentVsb) {
         ListTag children = new ListTag();
 
-        if (outliner == null)
-            return children;
-
-        for (JsonElement element : outliner) {
+        for (Object element : outliner) {
             //check if it is an ID first
-            if (element instanceof JsonPrimitive) {
-                if (elementMap.containsKey(element.getAsString())) {
-                    CompoundTag elementNbt = elementMap.get(element.getAsString());
+            if (element instanceof String id) {
+                if (elementMap.containsKey(id)) {
+                    CompoundTag elementNbt = elementMap.get(id);
 
                     //fix children visibility (very jank)
                     if (parentVsb != null && elementNbt.contains("vsb") && elementNbt.getBoolean("vsb") == parentVsb)
@@ -482,7 +453,7 @@ public class BlockbenchModelParser {
 
             //then parse as GroupElement (outliner)
             CompoundTag groupNbt = new CompoundTag();
-            BlockbenchModel.GroupElement group = gson.fromJson(element, BlockbenchModel.GroupElement.class);
+            BlockbenchModel.GroupElement group = (BlockbenchModel.GroupElement) element;
 
             //parse fields
             groupNbt.putString("name", group.name);
@@ -504,8 +475,8 @@ public class BlockbenchModelParser {
 
 
             //parse children
-            if (group.children != null && group.children.size() > 0)
-                groupNbt.put("chld", parseOutliner(gson, group.children, group.visibility));
+            if (group.children.size() > 0)
+                groupNbt.put("chld", parseOutliner(group.children, group.visibility));
 
             //add animations
             if (animationMap.containsKey(group.uuid))
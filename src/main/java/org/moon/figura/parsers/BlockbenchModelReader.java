@@ -0,0 +1,542 @@
+package org.moon.figura.parsers;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads a .bbmodel straight from a stream into a BlockbenchModel, skipping everything the parser does not use,
+ * instead of building the whole json tree first.
+ * Does not depend on any other model, so the models of an avatar can be read in parallel.
+ */
+public class BlockbenchModelReader {
+
+    public static BlockbenchModel read(Reader source) throws IOException {
+        BlockbenchModel model = new BlockbenchModel();
+
+        //texture sources are decoded as they stream past, the json reader only gets a short reference to them
+        DataUriFilter filter = new DataUriFilter(source);
+        JsonReader reader = new JsonReader(filter);
+        reader.setLenient(true);
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "resolution" -> model.resolution = readResolution(reader);
+                case "textures" -> readArray(reader, () -> model.textures.add(readTexture(reader, filter)));
+                case "elements" -> readArray(reader, () -> model.elements.add(readElement(reader)));
+                case "outliner" -> readOutliner(reader, model.outliner);
+                case "animations" -> readArray(reader, () -> model.animations.add(readAnimation(reader)));
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        return model;
+    }
+
+    private static BlockbenchModel.Resolution readResolution(JsonReader reader) throws IOException {
+        BlockbenchModel.Resolution resolution = new BlockbenchModel.Resolution();
+        if (skipNull(reader))
+            return resolution;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "width" -> resolution.width = reader.nextInt();
+                case "height" -> resolution.height = reader.nextInt();
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return resolution;
+    }
+
+    private static BlockbenchModel.Texture readTexture(JsonReader reader, DataUriFilter filter) throws IOException {
+        BlockbenchModel.Texture texture = new BlockbenchModel.Texture();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "name" -> texture.name = readString(reader);
+                case "render_mode" -> texture.render_mode = readString(reader);
+                case "source" -> {
+                    String source = readString(reader);
+                    texture.source = source == null ? new byte[0] : filter.getSource(source);
+                }
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return texture;
+    }
+
+    // -- elements -- //
+
+    private static BlockbenchModel.Element readElement(JsonReader reader) throws IOException {
+        BlockbenchModel.Element element = new BlockbenchModel.Element();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "name" -> element.name = readString(reader);
+                case "type" -> element.type = readString(reader);
+                case "uuid" -> element.uuid = readString(reader);
+                case "from" -> element.from = readFloats(reader);
+                case "to" -> element.to = readFloats(reader);
+                case "rotation" -> element.rotation = readFloats(reader);
+                case "origin" -> element.origin = readFloats(reader);
+                case "inflate" -> element.inflate = readFloat(reader, 0f);
+                case "visibility" -> element.visibility = readBoolean(reader);
+                case "faces" -> readFaces(reader, element);
+                case "vertices" -> readObject(reader, name -> element.vertices.put(name, readFloats(reader)));
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return element;
+    }
+
+    //cube and mesh faces look completely different, and the type might only come after them
+    private static void readFaces(JsonReader reader, BlockbenchModel.Element element) throws IOException {
+        readObject(reader, name -> {
+            if (skipNull(reader))
+                return;
+
+            float[] uv = null;
+            List<float[]> meshUvs = null;
+            List<String> meshUvNames = null;
+            String[] vertices = null;
+            Integer texture = null;
+            float rotation = 0f;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "uv" -> {
+                        if (reader.peek() == JsonToken.BEGIN_OBJECT) {
+                            List<float[]> uvs = meshUvs = new ArrayList<>();
+                            List<String> names = meshUvNames = new ArrayList<>();
+                            readObject(reader, vertex -> {
+                                names.add(vertex);
+                                uvs.add(readFloats(reader));
+                            });
+                        } else {
+                            uv = readFloats(reader);
+                        }
+                    }
+                    case "vertices" -> vertices = readStrings(reader);
+                    case "texture" -> texture = readTextureIndex(reader);
+                    case "rotation" -> rotation = readFloat(reader, 0f);
+                    default -> reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            //meshes have vertex lists, cubes have direction keys
+            if (vertices != null || meshUvs != null) {
+                BlockbenchModel.MeshFace face = new BlockbenchModel.MeshFace();
+                face.vertices = vertices;
+                face.texture = texture;
+                if (meshUvs != null) {
+                    for (int i = 0; i < meshUvs.size(); i++)
+                        face.uv.put(meshUvNames.get(i), meshUvs.get(i));
+                }
+                element.meshFaces.add(face);
+            } else {
+                BlockbenchModel.CubeFace face = new BlockbenchModel.CubeFace();
+                face.uv = uv;
+                face.rotation = rotation;
+                face.texture = texture;
+                element.cubeFaces.put(name, face);
+            }
+        });
+    }
+
+    private static void readOutliner(JsonReader reader, List<Object> list) throws IOException {
+        if (skipNull(reader))
+            return;
+
+        reader.beginArray();
+        while (reader.hasNext()) {
+            if (reader.peek() == JsonToken.STRING) {
+                list.add(reader.nextString());
+            } else if (reader.peek() == JsonToken.BEGIN_OBJECT) {
+                list.add(readGroup(reader));
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endArray();
+    }
+
+    private static BlockbenchModel.GroupElement readGroup(JsonReader reader) throws IOException {
+        BlockbenchModel.GroupElement group = new BlockbenchModel.GroupElement();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "name" -> group.name = readString(reader);
+                case "uuid" -> group.uuid = readString(reader);
+                case "visibility" -> group.visibility = readBoolean(reader);
+                case "origin" -> group.origin = readFloats(reader);
+                case "rotation" -> group.rotation = readFloats(reader);
+                case "children" -> readOutliner(reader, group.children);
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return group;
+    }
+
+    // -- animations -- //
+
+    private static BlockbenchModel.Animation readAnimation(JsonReader reader) throws IOException {
+        BlockbenchModel.Animation animation = new BlockbenchModel.Animation();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "name" -> animation.name = readString(reader);
+                case "loop" -> animation.loop = readString(reader);
+                case "override" -> animation.override = readBoolean(reader);
+                case "length" -> animation.length = readFloat(reader, 0f);
+                case "anim_time_update" -> animation.anim_time_update = readString(reader);
+                case "blend_weight" -> animation.blend_weight = readString(reader);
+                case "start_delay" -> animation.start_delay = readString(reader);
+                case "loop_delay" -> animation.loop_delay = readString(reader);
+                case "animators" -> readObject(reader, id -> animation.animators.put(id, readAnimator(reader)));
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return animation;
+    }
+
+    private static List<BlockbenchModel.KeyFrame> readAnimator(JsonReader reader) throws IOException {
+        List<BlockbenchModel.KeyFrame> keyFrames = new ArrayList<>();
+        readObject(reader, name -> {
+            if (name.equals("keyframes"))
+                readArray(reader, () -> keyFrames.add(readKeyFrame(reader)));
+            else
+                reader.skipValue();
+        });
+        return keyFrames;
+    }
+
+    private static BlockbenchModel.KeyFrame readKeyFrame(JsonReader reader) throws IOException {
+        BlockbenchModel.KeyFrame keyFrame = new BlockbenchModel.KeyFrame();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "channel" -> keyFrame.channel = readString(reader);
+                case "interpolation" -> keyFrame.interpolation = readString(reader);
+                case "time" -> keyFrame.time = readFloat(reader, 0f);
+                case "data_points" -> readArray(reader, () -> keyFrame.data_points.add(readKeyFrameData(reader)));
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return keyFrame;
+    }
+
+    private static BlockbenchModel.KeyFrameData readKeyFrameData(JsonReader reader) throws IOException {
+        BlockbenchModel.KeyFrameData data = new BlockbenchModel.KeyFrameData();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "x" -> data.x = readString(reader);
+                case "y" -> data.y = readString(reader);
+                case "z" -> data.z = readString(reader);
+                case "script" -> data.script = readString(reader);
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return data;
+    }
+
+    // -- helper functions -- //
+
+    private interface ValueReader {
+        void read() throws IOException;
+    }
+
+    private interface EntryReader {
+        void read(String name) throws IOException;
+    }
+
+    private static void readArray(JsonReader reader, ValueReader valueReader) throws IOException {
+        if (skipNull(reader))
+            return;
+
+        reader.beginArray();
+        while (reader.hasNext())
+            valueReader.read();
+        reader.endArray();
+    }
+
+    private static void readObject(JsonReader reader, EntryReader entryReader) throws IOException {
+        if (skipNull(reader))
+            return;
+
+        reader.beginObject();
+        while (reader.hasNext())
+            entryReader.read(reader.nextName());
+        reader.endObject();
+    }
+
+    private static boolean skipNull(JsonReader reader) throws IOException {
+        if (reader.peek() != JsonToken.NULL)
+            return false;
+        reader.nextNull();
+        return true;
+    }
+
+    //numbers are read as strings too, same as gson does
+    private static String readString(JsonReader reader) throws IOException {
+        return switch (reader.peek()) {
+            case STRING, NUMBER -> reader.nextString();
+            case BOOLEAN -> String.valueOf(reader.nextBoolean());
+            default -> {
+                reader.skipValue();
+                yield null;
+            }
+        };
+    }
+
+    private static Boolean readBoolean(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.BOOLEAN)
+            return reader.nextBoolean();
+        reader.skipValue();
+        return null;
+    }
+
+    private static float readFloat(JsonReader reader, float fallback) throws IOException {
+        return switch (reader.peek()) {
+            case NUMBER -> (float) reader.nextDouble();
+            case STRING -> BlockbenchModelParser.toFloat(reader.nextString(), fallback);
+            default -> {
+                reader.skipValue();
+                yield fallback;
+            }
+        };
+    }
+
+    //faces without a texture have it as null or false
+    private static Integer readTextureIndex(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NUMBER)
+            return reader.nextInt();
+        reader.skipValue();
+        return null;
+    }
+
+    private static float[] readFloats(JsonReader reader) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_ARRAY) {
+            reader.skipValue();
+            return null;
+        }
+
+        float[] floats = new float[4];
+        int size = 0;
+        reader.beginArray();
+        while (reader.hasNext()) {
+            if (size == floats.length)
+                floats = Arrays.copyOf(floats, size * 2);
+            floats[size++] = readFloat(reader, 0f);
+        }
+        reader.endArray();
+        return size == floats.length ? floats : Arrays.copyOf(floats, size);
+    }
+
+    private static String[] readStrings(JsonReader reader) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_ARRAY) {
+            reader.skipValue();
+            return null;
+        }
+
+        List<String> strings = new ArrayList<>();
+        reader.beginArray();
+        while (reader.hasNext())
+            strings.add(readString(reader));
+        reader.endArray();
+        return strings.toArray(new String[0]);
+    }
+
+    // -- base64 -- //
+
+    private static final byte[] BASE64 = new byte[128];
+    static {
+        Arrays.fill(BASE64, (byte) -1);
+        String chars = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        for (int i = 0; i < chars.length(); i++)
+            BASE64[chars.charAt(i)] = (byte) i;
+    }
+
+    /**
+     * Decodes a "data:image/png;base64," uri straight from the string, without copying it first
+     */
+    public static byte[] decodeDataUri(String uri) {
+        int start = uri.startsWith("data:") ? uri.indexOf(',') + 1 : 0;
+
+        Base64Decoder decoder = new Base64Decoder((uri.length() - start) / 4 * 3 + 3);
+        for (int i = start; i < uri.length(); i++)
+            decoder.accept(uri.charAt(i));
+        return decoder.finish();
+    }
+
+    /**
+     * Decodes base64 a char at a time, so it can be fed in chunks as it is read
+     * Anything that is not a base64 character is skipped, and decoding stops at the padding
+     */
+    private static class Base64Decoder {
+
+        private byte[] result;
+        private int size, bits, count;
+        private boolean padded;
+
+        private Base64Decoder(int expectedSize) {
+            result = new byte[Math.max(expectedSize, 3)];
+        }
+
+        private void accept(char c) {
+            if (padded)
+                return;
+            if (c == '=') {
+                padded = true;
+                return;
+            }
+
+            int value = c < 128 ? BASE64[c] : -1;
+            if (value < 0)
+                return;
+
+            bits = (bits << 6) | value;
+            if (++count == 4) {
+                if (size + 3 > result.length)
+                    result = Arrays.copyOf(result, result.length * 2);
+                result[size++] = (byte) (bits >> 16);
+                result[size++] = (byte) (bits >> 8);
+                result[size++] = (byte) bits;
+                bits = count = 0;
+            }
+        }
+
+        private byte[] finish() {
+            if (size + 2 > result.length)
+                result = Arrays.copyOf(result, size + 2);
+
+            //leftover characters from the padded end
+            if (count == 3) {
+                result[size++] = (byte) (bits >> 10);
+                result[size++] = (byte) (bits >> 2);
+            } else if (count == 2) {
+                result[size++] = (byte) (bits >> 4);
+            }
+
+            return size == result.length ? result : Arrays.copyOf(result, size);
+        }
+    }
+
+    /**
+     * Takes the base64 out of "data:" strings while the json is read, decoding it through a small buffer,
+     * and hands only a short reference to it on to the json reader.
+     * The texture sources are most of a model file, this saves gson from building a string of each of them.
+     */
+    private static class DataUriFilter extends Reader {
+
+        private static final String REFERENCE = "data:#";
+        //longest "data:" header looked at, longer ones are left as plain strings
+        private static final int MAX_HEADER = 64;
+
+        private final Reader source;
+        private final char[] buffer = new char[8192];
+        private int position, limit;
+
+        //chars read ahead while looking for a header, or the reference replacing a data uri, given out before reading more
+        private final StringBuilder pending = new StringBuilder();
+        private int pendingPosition;
+
+        private boolean inString, escaped;
+        private final List<byte[]> decoded = new ArrayList<>();
+
+        private DataUriFilter(Reader source) {
+            this.source = source;
+        }
+
+        private byte[] getSource(String source) {
+            if (source.startsWith(REFERENCE)) {
+                try {
+                    return decoded.get(Integer.parseInt(source.substring(REFERENCE.length())));
+                } catch (NumberFormatException | IndexOutOfBoundsException ignored) {
+                }
+            }
+            return decodeDataUri(source);
+        }
+
+        private int next() throws IOException {
+            if (position == limit) {
+                limit = Math.max(source.read(buffer, 0, buffer.length), 0);
+                position = 0;
+                if (limit == 0)
+                    return -1;
+            }
+            return buffer[position++];
+        }
+
+        @Override
+        public int read(char[] chars, int offset, int length) throws IOException {
+            int count = 0;
+            while (count < length) {
+                int c = pendingPosition < pending.length() ? pending.charAt(pendingPosition++) : next();
+                if (c < 0)
+                    break;
+
+                chars[offset + count++] = (char) c;
+                if (inString) {
+                    if (escaped)
+                        escaped = false;
+                    else if (c == '\\')
+                        escaped = true;
+                    else if (c == '"')
+                        inString = false;
+                } else if (c == '"') {
+                    inString = true;
+                    readHeader();
+                }
+            }
+            return count == 0 && length > 0 ? -1 : count;
+        }
+
+        //called right after a string opens, decodes it if it is a data uri
+        private void readHeader() throws IOException {
+            pending.setLength(0);
+            pendingPosition = 0;
+
+            int c;
+            do {
+                c = next();
+                if (c < 0)
+                    return;
+                pending.append((char) c);
+            } while (c != ',' && c != '"' && c != '\\' && pending.length() < MAX_HEADER);
+
+            //not a base64 data uri, the read chars are given out as they were
+            if (c != ',' || pending.indexOf("data:") != 0 || !pending.toString().endsWith(";base64,"))
+                return;
+
+            Base64Decoder decoder = new Base64Decoder(4096);
+            while ((c = next()) >= 0 && c != '"')
+                decoder.accept((char) c);
+
+            pending.setLength(0);
+            pending.append(REFERENCE).append(decoded.size()).append('"');
+            decoded.add(decoder.finish());
+        }
+
+        @Override
+        public void close() throws IOException {
+            source.close();
+        }
+    }
+}
@@ -9,6 +9,7 @@ import net.minecraft.resources.ResourceLocation;
 import org.moon.figura.utils.ColorUtils;
 import org.moon.figura.utils.FiguraText;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -22,12 +23,21 @@ public class TrustContainer {
     //trust -> value map
     private final Map<Trust, Integer> trustSettings;
 
+    //bumped on any change to any container, as a change of a group affects everyone in it
+    private static volatile int changes = 0;
+
+    //every trust value resolved through the parents, by ordinal, recomputed only after a change
+    private final int[] resolved = new int[Trust.values().length];
+    private int resolvedChanges = -1;
+    private int version = 0;
+
     //the trust themselves
     public enum Trust {
         //trust list
         INIT_INST(0, 32767),
         TICK_INST(0, 16383),
         RENDER_INST(0, 16383),
+        RENDER_TIME(0, 16383), //in microseconds, per frame
         MAX_MEM(0, 2047),
         COMPLEXITY(0, 12287),
         PARTICLES(0, 63),
@@ -35,7 +45,8 @@ public class TrustContainer {
         //BB_ANIMATIONS(0, 255),
         VANILLA_MODEL_EDIT,
         NAMEPLATE_EDIT,
-        OFFSCREEN_RENDERING;
+        OFFSCREEN_RENDERING,
+        VERTEX_BUFFERS;
         //CUSTOM_RENDER_LAYER,
         //CUSTOM_SOUNDS;
 
@@ -115,6 +126,31 @@ public class TrustContainer {
 
     //get value from trust
     public int get(Trust trust) {
+        if (resolvedChanges != changes)
+            resolve();
+        return resolved[trust.ordinal()];
+    }
+
+    private synchronized void resolve() {
+        int current = changes;
+        if (resolvedChanges == current)
+            return;
+
+        boolean changed = false;
+        for (Trust trust : Trust.values()) {
+            int value = getUnresolved(trust);
+            if (resolved[trust.ordinal()] != value) {
+                resolved[trust.ordinal()] = value;
+                changed = true;
+            }
+        }
+
+        if (changed)
+            version++;
+        resolvedChanges = current;
+    }
+
+    private int getUnresolved(Trust trust) {
         //get setting
         Integer setting = this.trustSettings.get(trust);
         if (setting != null)
@@ -128,6 +164,25 @@ public class TrustContainer {
         return -1;
     }
 
+    /**
+     * Goes up every time a value of this container, including the ones from its parents, changes
+     * So anything caching them only needs to compare this number
+     */
+    public int getVersion() {
+        if (resolvedChanges != changes)
+            resolve();
+        return version;
+    }
+
+    //goes up on any change to any container, for anything caching the container itself
+    public static int getChanges() {
+        return changes;
+    }
+
+    public static void markChanged() {
+        changes++;
+    }
+
     public TranslatableComponent getGroupName() {
         if (parentID != null)
             return TrustManager.get(parentID).getGroupName();
@@ -155,8 +210,9 @@ public class TrustContainer {
 
     // getters //
 
+    //only the values set on this container, use the setters to change them
     public Map<Trust, Integer> getSettings() {
-        return this.trustSettings;
+        return Collections.unmodifiableMap(this.trustSettings);
     }
 
     public ResourceLocation getParentID() {
@@ -167,5 +223,21 @@ public class TrustContainer {
 
     public void setParent(ResourceLocation parent) {
         this.parentID = parent;
+        markChanged();
+    }
+
+    public void setTrust(Trust trust, int value) {
+        this.trustSettings.put(trust, value);
+        markChanged();
+    }
+
+    public void removeTrust(Trust trust) {
+        this.trustSettings.remove(trust);
+        markChanged();
+    }
+
+    public void clearTrust() {
+        this.trustSettings.clear();
+        markChanged();
     }
 }
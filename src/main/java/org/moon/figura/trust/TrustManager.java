@@ -170,6 +170,9 @@ public class TrustManager {
             //add to list
             PLAYERS.put(new ResourceLocation("player", name), container);
         }
+
+        //containers were replaced, so anything cached from the old ones is outdated
+        TrustContainer.markChanged();
     }
 
     //get trust from id
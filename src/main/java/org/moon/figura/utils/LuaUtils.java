@@ -77,7 +77,8 @@ public class LuaUtils {
     public static void setupNativesForLua() {
         boolean isWindows = System.getProperty("os.name").toLowerCase().contains("win");
         boolean isMacOS = System.getProperty("os.name").toLowerCase().contains("mac");
-        FiguraMod.DO_OUR_NATIVES_WORK = isWindows;
+        //confirmed once the first lua state is created, see FiguraLuaState
+        FiguraMod.DO_OUR_NATIVES_WORK = !isMacOS;
         StringBuilder builder = new StringBuilder("libjnlua-");
         builder.append("5.3-");
         if (isWindows) {
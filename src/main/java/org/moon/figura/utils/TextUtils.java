@@ -9,14 +9,19 @@ import net.minecraft.resources.ResourceLocation;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 public class TextUtils {
 
     public static final ResourceLocation FIGURA_FONT = new FiguraIdentifier("default");
     public static final int TAB_SPACING = 2;
 
+    private static final Pattern BADGES = Pattern.compile("[❗❌\uD83C\uDF54\uD83E\uDD90\uD83C\uDF19\uD83C\uDF00\uD83D\uDEAB❤★]");
+    private static final Pattern TAB = Pattern.compile("\\t");
+
     public static Component noBadges4U(Component text) {
-        return replaceInText(text, "[❗❌\uD83C\uDF54\uD83E\uDD90\uD83C\uDF19\uD83C\uDF00\uD83D\uDEAB❤★]", "\uFFFD");
+        return replaceInText(text, BADGES, "\uFFFD");
     }
 
     public static List<Component> splitText(Component text, String regex) {
@@ -93,6 +98,10 @@ public class TextUtils {
     }
 
     public static Component replaceInText(Component text, String regex, Object replacement) {
+        return replaceInText(text, Pattern.compile(regex), replacement);
+    }
+
+    public static Component replaceInText(Component text, Pattern pattern, Object replacement) {
         Component replace = replacement instanceof Component c ? c : new TextComponent(String.valueOf(replacement));
 
         MutableComponent ret = TextComponent.EMPTY.copy();
@@ -101,18 +110,27 @@ public class TextUtils {
         for (Component component : list) {
             String textString = component.getString();
 
-            String[] split = textString.split("((?<=" + regex + ")|(?=" + regex + "))");
-            for (String s : split) {
-                if (!s.matches(regex))
-                    ret.append(new TextComponent(s).withStyle(component.getStyle()));
-                else
-                    ret.append(replace);
+            //keep the text around the matches, and swap the matches
+            Matcher matcher = pattern.matcher(textString);
+            int start = 0;
+            while (matcher.find()) {
+                if (matcher.start() > start)
+                    ret.append(new TextComponent(textString.substring(start, matcher.start())).withStyle(component.getStyle()));
+                ret.append(replace);
+                start = matcher.end();
             }
+            if (start < textString.length())
+                ret.append(new TextComponent(textString.substring(start)).withStyle(component.getStyle()));
         }
 
         return ret;
     }
 
+    //matches the name as a whole word
+    public static Pattern namePattern(String name) {
+        return Pattern.compile("\\b" + Pattern.quote(name) + "\\b");
+    }
+
     public static Component trimToWidthEllipsis(Font font, Component text, int width) {
         //return text without changes if it is not larger than width
         if (font.width(text.getVisualOrderText()) <= width)
@@ -128,6 +146,6 @@ public class TextUtils {
     }
 
     public static Component replaceTabs(Component text) {
-        return TextUtils.replaceInText(text, "\\t", " ".repeat(TAB_SPACING));
+        return TextUtils.replaceInText(text, TAB, " ".repeat(TAB_SPACING));
     }
 }
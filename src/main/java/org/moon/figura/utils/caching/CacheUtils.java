@@ -1,34 +1,198 @@
 package org.moon.figura.utils.caching;
 
-import java.util.LinkedList;
-import java.util.Queue;
+import org.moon.figura.FiguraMod;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Supplier;
 
 public class CacheUtils {
 
+    //Idle objects kept per pool, anything freed past this is left for the GC
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    //Run with -Dfigura.debugCaches=true to catch objects being freed twice
+    public static final boolean DEBUG = Boolean.getBoolean("figura.debugCaches");
+
+    private static final List<Cache<?>> CACHES = new CopyOnWriteArrayList<>();
+
     public static <T extends CachedType> Cache<T> getCache(Supplier<T> generator) {
-        return new Cache<>(generator);
+        return getCache(generator, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity The max amount of idle objects kept
+     */
+    public static <T extends CachedType> Cache<T> getCache(Supplier<T> generator, int capacity) {
+        Cache<T> cache = new Cache<>(generator, capacity);
+        CACHES.add(cache);
+        return cache;
+    }
+
+    public static List<Cache<?>> getCaches() {
+        return CACHES;
+    }
+
+    /**
+     * Debug mode only, always false otherwise.
+     * @return If the object is currently sitting in its pool, meaning it was freed.
+     */
+    public static boolean isPooled(Object object) {
+        if (DEBUG) {
+            for (Cache<?> cache : CACHES) {
+                if (cache.isPooled(object))
+                    return true;
+            }
+        }
+        return false;
     }
 
     public static class Cache<T extends CachedType> {
-        private final Queue<T> cache;
         private final Supplier<T> generator;
+        private final int capacity;
 
-        private Cache(Supplier<T> generator) {
-            cache = new LinkedList<>();
+        private final Pool pool;
+
+        //Frees skipped because Lua owns the object, those never come back to the pool
+        private final LongAdder leftToLua = new LongAdder();
+
+        //Only used in debug mode, every object currently sitting in the pool
+        private final Set<T> pooled = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        private String name;
+
+        private Cache(Supplier<T> generator, int capacity) {
             this.generator = generator;
+            this.capacity = capacity;
+            this.pool = new Pool(capacity);
         }
 
         public T getFresh() {
-            T result = cache.poll();
-            if (result == null)
+            T result;
+            synchronized (pool) {
+                result = pool.poll();
+            }
+
+            if (result == null) {
                 result = generator.get();
+                if (name == null)
+                    name = result.getClass().getSimpleName();
+            } else if (DEBUG) {
+                synchronized (pooled) {
+                    pooled.remove(result);
+                }
+            }
+
             result.reset();
             return result;
         }
 
         public void offerOld(T old) {
-            cache.offer(old);
+            //Lua may still reference it, so it is left out of the pool for good and the GC takes care of it
+            if (old.isOwnedByLua()) {
+                leftToLua.increment();
+                if (DEBUG)
+                    FiguraMod.LOGGER.warn("Tried to free a " + name + " which is owned by Lua", new IllegalStateException());
+                return;
+            }
+
+            if (DEBUG) {
+                synchronized (pooled) {
+                    if (!pooled.add(old)) {
+                        FiguraMod.LOGGER.error("Freed a " + name + " which was already back in its pool!", new IllegalStateException());
+                        return;
+                    }
+                }
+            }
+
+            boolean kept;
+            synchronized (pool) {
+                kept = pool.offer(old);
+            }
+
+            if (DEBUG && !kept) {
+                synchronized (pooled) {
+                    pooled.remove(old);
+                }
+            }
+        }
+
+        private boolean isPooled(Object object) {
+            synchronized (pooled) {
+                return pooled.contains(object);
+            }
+        }
+
+        // -- metrics -- //
+        //Read without locking, so they can be slightly stale, good enough for the debug screen
+
+        public String getName() {
+            return name == null ? "?" : name;
+        }
+
+        public int getCapacity() {
+            return capacity;
+        }
+
+        public int getSize() {
+            return pool.count;
+        }
+
+        public int getHighWaterMark() {
+            return pool.highWater;
+        }
+
+        public long getHits() {
+            return pool.hits;
+        }
+
+        /**
+         * @return How many objects were not taken back because they were given to Lua
+         */
+        public long getLeftToLua() {
+            return leftToLua.sum();
+        }
+
+        public long getMisses() {
+            return pool.misses;
+        }
+
+        /**
+         * A fixed size LIFO array of idle objects, only touched while holding its lock.
+         */
+        private class Pool {
+            private final Object[] items;
+            private int count, highWater;
+            private long hits, misses;
+
+            private Pool(int capacity) {
+                items = new Object[capacity];
+            }
+
+            @SuppressWarnings("unchecked")
+            private T poll() {
+                if (count == 0) {
+                    misses++;
+                    return null;
+                }
+                hits++;
+                T result = (T) items[--count];
+                items[count] = null;
+                return result;
+            }
+
+            private boolean offer(T old) {
+                if (count == items.length)
+                    return false;
+                items[count++] = old;
+                if (count > highWater)
+                    highWater = count;
+                return true;
+            }
         }
     }
 }
@@ -3,4 +3,15 @@ package org.moon.figura.utils.caching;
 public interface CachedType {
     void reset();
     void free();
+
+    /**
+     * Called when the object is pushed to Lua. From then on a script may hold a
+     * reference to it, so it is excluded from its pool for good; there is no release
+     * when Lua collects it, the GC simply reclaims it once nothing references it.
+     */
+    default void markOwnedByLua() {}
+
+    default boolean isOwnedByLua() {
+        return false;
+    }
 }
@@ -0,0 +1,49 @@
+-- event dispatcher factory
+-- every event keeps its functions here, so running one is a single call from java
+-- locals are captured now, so scripts messing with the globals can't break the events
+local remove = table.remove
+
+return function()
+    local list, queue = {}, {}
+    local size, queued = 0, 0
+
+    -- functions registered while running are only added on the next run
+    local function flush()
+        for i = 1, queued do
+            size = size + 1
+            list[size] = queue[i]
+            queue[i] = nil
+        end
+        queued = 0
+    end
+
+    local event = {}
+
+    function event.call(...)
+        flush()
+        -- size is checked every step, as functions can be removed while running
+        local i = 1
+        while i <= size do
+            list[i](...)
+            i = i + 1
+        end
+    end
+
+    function event.register(func)
+        queued = queued + 1
+        queue[queued] = func
+    end
+
+    function event.remove(index)
+        flush()
+        remove(list, index)
+        size = size - 1
+    end
+
+    function event.clear()
+        list, queue = {}, {}
+        size, queued = 0, 0
+    end
+
+    return event
+end